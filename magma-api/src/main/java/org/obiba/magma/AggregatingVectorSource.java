@@ -0,0 +1,23 @@
+package org.obiba.magma;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@code VectorSource} that can count the values of its variable in its underlying storage, without reading the
+ * value of each entity.
+ */
+public interface AggregatingVectorSource extends VectorSource {
+
+  /**
+   * Counts the values of all the entities of a table: the elements of a value sequence are counted one by one and the
+   * entities without value are counted with the {@code null} key.
+   *
+   * @param table the table of which entities are to be counted
+   * @return the count of each value, null if the values of this table cannot be aggregated by this source
+   */
+  @Nullable
+  Map<Value, Long> getValueFrequencies(ValueTable table);
+
+}
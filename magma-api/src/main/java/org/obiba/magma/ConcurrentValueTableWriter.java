@@ -0,0 +1,8 @@
+package org.obiba.magma;
+
+/**
+ * A {@link ValueTableWriter} which datasource accepts several writers on the same table at the same time, from different
+ * threads, as long as each writer writes the value sets of distinct entities.
+ */
+public interface ConcurrentValueTableWriter extends ValueTableWriter {
+}
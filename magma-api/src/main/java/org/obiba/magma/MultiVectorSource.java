@@ -0,0 +1,24 @@
+package org.obiba.magma;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * A {@code ValueTable} that can read the values of several of its variables in one pass over its underlying storage,
+ * instead of one pass per variable.
+ */
+public interface MultiVectorSource {
+
+  /**
+   * Reads the values of several variables for the requested entities. The values are read at once and held in
+   * memory: callers reading many entities should request them by pages. Entities that are not in the table get null
+   * values.
+   *
+   * @param variables variables of this table
+   * @param entities
+   * @return the values of each variable by variable name, in the order of the requested entities
+   */
+  Map<String, List<Value>> getValues(List<Variable> variables, SortedSet<VariableEntity> entities);
+
+}
@@ -29,6 +29,16 @@ public interface ValueTable extends Timestamped {
 
   ValueSet getValueSet(VariableEntity entity) throws NoSuchValueSetException;
 
+  /**
+   * Get the value sets of the given entities, in the order of the entities. Implementations may load several value
+   * sets at once, so prefer this method to {@link #getValueSet(VariableEntity)} when reading a page of entities.
+   *
+   * @param entities
+   * @return
+   * @throws NoSuchValueSetException when iterating over an entity that has no value set in this table
+   */
+  Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities);
+
   boolean canDropValueSets();
 
   void dropValueSets();
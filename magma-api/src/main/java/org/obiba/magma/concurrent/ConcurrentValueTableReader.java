@@ -1,7 +1,10 @@
 package org.obiba.magma.concurrent;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -10,24 +13,29 @@ import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadFactory;
 
+import org.obiba.magma.MultiVectorSource;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.VectorSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 @SuppressWarnings("UnusedDeclaration")
 public class ConcurrentValueTableReader {
 
   private static final Logger log = LoggerFactory.getLogger(ConcurrentValueTableReader.class);
 
+  private static final int DEFAULT_VALUE_SETS_PAGE_SIZE = 100;
+
   private boolean ignoreReadErrors = false;
 
   private ThreadFactory threadFactory;
@@ -36,6 +44,14 @@ public class ConcurrentValueTableReader {
 
   private int nbConcurrentReaders = Runtime.getRuntime().availableProcessors() * 2;
 
+  private int queueSize = Integer.MAX_VALUE;
+
+  private int batchSize = 1;
+
+  private int vectorChunkSize = 0;
+
+  private int valueSetsPageSize = DEFAULT_VALUE_SETS_PAGE_SIZE;
+
   private ValueTable valueTable;
 
   private Iterable<Variable> variablesFilter;
@@ -63,15 +79,12 @@ public class ConcurrentValueTableReader {
     List<VariableEntity> entities = ImmutableList
         .copyOf(entitiesFilter == null ? valueTable.getVariableEntities() : entitiesFilter);
 
-    // A queue containing all entities to read the values for.
-    // Once this is empty, and all readers are done, then  reading is over.
-    BlockingQueue<VariableEntity> readQueue = new LinkedBlockingDeque<>(entities);
-    writeQueue = new LinkedBlockingDeque<>();
+    writeQueue = new LinkedBlockingDeque<>(queueSize);
     try {
       callback.onBegin(entities, variables);
       List<Future<?>> readers = entities.isEmpty()
           ? new ArrayList<Future<?>>()
-          : concurrentRead(executorService, variableValueSources, readQueue);
+          : concurrentRead(executorService, variableValueSources, entities);
       callback.onComplete();
       waitForReaders(readers);
     } finally {
@@ -80,47 +93,76 @@ public class ConcurrentValueTableReader {
   }
 
   private List<Future<?>> concurrentRead(ExecutorService executorService, VariableValueSource[] variableValueSources,
-      BlockingQueue<VariableEntity> readQueue) {
+      Collection<VariableEntity> entities) {
     List<Future<?>> readers = Lists.newArrayList();
-    for(int i = 0; i < nbConcurrentReaders; i++) {
-      readers.add(executorService.submit(new ConcurrentValueSetReader(variableValueSources, readQueue, writeQueue)));
-    }
-    while(!isReadCompleted(readers)) {
-      flushQueue();
+    if(vectorChunkSize > 0) {
+      // A queue containing sorted chunks of entities to read the values for, one column at a time.
+      BlockingQueue<List<VariableEntity>> readQueue = new LinkedBlockingDeque<>(
+          Lists.newArrayList(Iterables.partition(Sets.newTreeSet(entities), vectorChunkSize)));
+      for(int i = 0; i < nbConcurrentReaders; i++) {
+        readers.add(executorService.submit(new ConcurrentVectorReader(variableValueSources, readQueue, writeQueue)));
+      }
+    } else {
+      // A queue containing all entities to read the values for.
+      // Once this is empty, and all readers are done, then  reading is over.
+      BlockingQueue<VariableEntity> readQueue = new LinkedBlockingDeque<>(entities);
+      for(int i = 0; i < nbConcurrentReaders; i++) {
+        readers.add(executorService.submit(new ConcurrentValueSetReader(variableValueSources, readQueue, writeQueue)));
+      }
     }
-    // Flush remaining values if any
-    // This is necessary due to a race condition between isReadComplete() and readers appending to the write queue
-    flushQueue();
+    consumeQueue(readers.size());
     return readers;
   }
 
-  private VariableValueSource[] getVariableValueSources() {
-    VariableValueSource[] variableValueSources = new VariableValueSource[variables.length];
-    for(int i = 0; i < variables.length; i++) {
-      variableValueSources[i] = valueTable.getVariableValueSource(variables[i].getName());
+  /**
+   * Blocks on the write queue until every reader has signaled its completion. Values are handed to the callback as
+   * soon as they are available, grouped in batches of at most {@code batchSize} entities when the callback supports it.
+   */
+  private void consumeQueue(int nbReaders) {
+    List<VariableEntityValues> batch = Lists.newArrayListWithCapacity(Math.min(batchSize, 1000));
+    int completedReaders = 0;
+    try {
+      while(completedReaders < nbReaders) {
+        VariableEntityValues values = writeQueue.take();
+        if(values == VariableEntityValues.END_OF_READ) {
+          completedReaders++;
+        } else {
+          batch.add(values);
+          if(batch.size() >= batchSize) {
+            flush(batch);
+          }
+        }
+      }
+    } catch(InterruptedException e) {
+      throw new RuntimeException(e);
     }
-    return variableValueSources;
+    flush(batch);
   }
 
-  private void flushQueue() {
-    VariableEntityValues values = null;
-    while((values = writeQueue.poll()) != null) {
-      callback.onValues(values.getEntity(), variables, values.getValues());
+  private void flush(List<VariableEntityValues> batch) {
+    if(batch.isEmpty()) return;
+    if(callback instanceof ConcurrentBatchReaderCallback) {
+      List<VariableEntity> entities = Lists.newArrayListWithCapacity(batch.size());
+      List<Value[]> values = Lists.newArrayListWithCapacity(batch.size());
+      for(VariableEntityValues entityValues : batch) {
+        entities.add(entityValues.getEntity());
+        values.add(entityValues.getValues());
+      }
+      ((ConcurrentBatchReaderCallback) callback).onValues(entities, variables, values);
+    } else {
+      for(VariableEntityValues entityValues : batch) {
+        callback.onValues(entityValues.getEntity(), variables, entityValues.getValues());
+      }
     }
+    batch.clear();
   }
 
-  /**
-   * Returns true when all readers have finished submitting to the writeQueue. false otherwise.
-   *
-   * @return
-   */
-  private boolean isReadCompleted(Iterable<Future<?>> readers) {
-    for(Future<?> reader : readers) {
-      if(!reader.isDone()) {
-        return false;
-      }
+  private VariableValueSource[] getVariableValueSources() {
+    VariableValueSource[] variableValueSources = new VariableValueSource[variables.length];
+    for(int i = 0; i < variables.length; i++) {
+      variableValueSources[i] = valueTable.getVariableValueSource(variables[i].getName());
     }
-    return true;
+    return variableValueSources;
   }
 
   private void waitForReaders(Iterable<Future<?>> readers) {
@@ -152,6 +194,11 @@ public class ConcurrentValueTableReader {
 
   private static class VariableEntityValues {
 
+    /**
+     * Marker put on the write queue by each reader when it is done reading.
+     */
+    private static final VariableEntityValues END_OF_READ = new VariableEntityValues(null);
+
     private final VariableEntity entity;
 
     private final Value[] values;
@@ -171,53 +218,196 @@ public class ConcurrentValueTableReader {
     }
   }
 
-  private class ConcurrentValueSetReader implements Runnable {
+  private abstract class AbstractReader implements Runnable {
 
-    private final VariableValueSource[] sources;
+    protected final VariableValueSource[] sources;
 
-    private final BlockingQueue<VariableEntity> readQueue;
+    protected final BlockingQueue<VariableEntityValues> writeQueue;
 
-    private final BlockingQueue<VariableEntityValues> writeQueue;
-
-    private ConcurrentValueSetReader(VariableValueSource[] sources, BlockingQueue<VariableEntity> readQueue,
-        BlockingQueue<VariableEntityValues> writeQueue) {
+    private AbstractReader(VariableValueSource[] sources, BlockingQueue<VariableEntityValues> writeQueue) {
       this.sources = sources;
-      this.readQueue = readQueue;
       this.writeQueue = writeQueue;
     }
 
     @Override
     public void run() {
       try {
-        VariableEntity entity = readQueue.poll();
-        while(entity != null && !callback.isCancelled()) {
-          if(valueTable.hasValueSet(entity)) {
-            log.trace("Read entity {}", entity.getIdentifier());
-            writeQueue.put(new VariableEntityValues(entity, readValues(entity)));
-          }
-          entity = readQueue.poll();
-        }
+        read();
       } catch(InterruptedException e) {
         // do nothing
+      } finally {
+        signalEndOfRead();
+      }
+    }
+
+    protected abstract void read() throws InterruptedException;
+
+    private void signalEndOfRead() {
+      try {
+        writeQueue.put(VariableEntityValues.END_OF_READ);
+      } catch(InterruptedException e) {
+        // reading was aborted, nobody is waiting for this reader
+      }
+    }
+
+    protected Value readValue(int i, ValueSet valueSet) {
+      try {
+        return sources[i].getValue(valueSet);
+      } catch(RuntimeException e) {
+        return handleReadError(i, e);
+      }
+    }
+
+    protected Value handleReadError(int i, RuntimeException e) {
+      log.debug("Read exception", e);
+      if(ignoreReadErrors) {
+        return sources[i].getValueType().nullValue();
+      }
+      throw e;
+    }
+  }
+
+  private class ConcurrentValueSetReader extends AbstractReader {
+
+    private final BlockingQueue<VariableEntity> readQueue;
+
+    private ConcurrentValueSetReader(VariableValueSource[] sources, BlockingQueue<VariableEntity> readQueue,
+        BlockingQueue<VariableEntityValues> writeQueue) {
+      super(sources, writeQueue);
+      this.readQueue = readQueue;
+    }
+
+    /**
+     * Entities are taken from the read queue by pages, which value sets are loaded at once.
+     */
+    @Override
+    protected void read() throws InterruptedException {
+      List<VariableEntity> page = Lists.newArrayListWithCapacity(valueSetsPageSize);
+      while(readQueue.drainTo(page, valueSetsPageSize) > 0 && !callback.isCancelled()) {
+        SortedSet<VariableEntity> entities = Sets.newTreeSet();
+        for(VariableEntity entity : page) {
+          if(valueTable.hasValueSet(entity)) entities.add(entity);
+        }
+        page.clear();
+        for(ValueSet valueSet : valueTable.getValueSets(entities)) {
+          log.trace("Read entity {}", valueSet.getVariableEntity().getIdentifier());
+          writeQueue.put(new VariableEntityValues(valueSet.getVariableEntity(), readValues(valueSet)));
+        }
       }
     }
 
-    private Value[] readValues(VariableEntity entity) {
-      ValueSet valueSet = valueTable.getValueSet(entity);
+    private Value[] readValues(ValueSet valueSet) {
       Value[] values = new Value[sources.length];
       for(int i = 0; i < sources.length; i++) {
-        try {
-          values[i] = sources[i].getValue(valueSet);
-        } catch(RuntimeException e) {
-          log.debug("Read exception", e);
-          if(ignoreReadErrors) {
-            values[i] = sources[i].getValueType().nullValue();
-          } else {
-            throw e;
+        values[i] = readValue(i, valueSet);
+      }
+      return values;
+    }
+  }
+
+  /**
+   * Reads a chunk of entities one variable at a time: variables which sources support {@link VectorSource} are read
+   * in a single call for the whole chunk, or all together when the table is a {@link MultiVectorSource}, the others
+   * fall back to a value set lookup per entity. Values are then assembled back into one row per entity.
+   */
+  private class ConcurrentVectorReader extends AbstractReader {
+
+    private final BlockingQueue<List<VariableEntity>> readQueue;
+
+    private ConcurrentVectorReader(VariableValueSource[] sources, BlockingQueue<List<VariableEntity>> readQueue,
+        BlockingQueue<VariableEntityValues> writeQueue) {
+      super(sources, writeQueue);
+      this.readQueue = readQueue;
+    }
+
+    @Override
+    protected void read() throws InterruptedException {
+      List<VariableEntity> chunk = readQueue.poll();
+      while(chunk != null && !callback.isCancelled()) {
+        SortedSet<VariableEntity> entities = Sets.newTreeSet();
+        for(VariableEntity entity : chunk) {
+          if(valueTable.hasValueSet(entity)) entities.add(entity);
+        }
+        if(!entities.isEmpty()) {
+          log.trace("Read {} entities from {} to {}", entities.size(), entities.first().getIdentifier(),
+              entities.last().getIdentifier());
+          Value[][] rows = readValues(entities);
+          int row = 0;
+          for(VariableEntity entity : entities) {
+            writeQueue.put(new VariableEntityValues(entity, rows[row++]));
+          }
+        }
+        chunk = readQueue.poll();
+      }
+    }
+
+    private Value[][] readValues(SortedSet<VariableEntity> entities) {
+      Value[][] rows = new Value[entities.size()][sources.length];
+      List<Integer> vectors = Lists.newArrayList();
+      ValueSet[] valueSets = null;
+      for(int i = 0; i < sources.length; i++) {
+        if(sources[i].supportVectorSource()) {
+          vectors.add(i);
+        } else {
+          if(valueSets == null) valueSets = getValueSets(entities);
+          for(int row = 0; row < valueSets.length; row++) {
+            rows[row][i] = readValue(i, valueSets[row]);
           }
         }
       }
-      return values;
+      if(valueTable instanceof MultiVectorSource && vectors.size() > 1) {
+        readVectors(vectors, entities, rows);
+      } else {
+        for(int i : vectors) {
+          readVector(i, entities, rows);
+        }
+      }
+      return rows;
+    }
+
+    /**
+     * Reads the vectors of several variables in one pass over the table. If it fails, they are read one by one so that
+     * read errors are handled for each variable.
+     */
+    private void readVectors(List<Integer> vectors, SortedSet<VariableEntity> entities, Value[][] rows) {
+      List<Variable> vectorVariables = Lists.newArrayListWithCapacity(vectors.size());
+      for(int i : vectors) {
+        vectorVariables.add(variables[i]);
+      }
+      Map<String, List<Value>> values;
+      try {
+        values = ((MultiVectorSource) valueTable).getValues(vectorVariables, entities);
+      } catch(RuntimeException e) {
+        log.debug("Read exception", e);
+        for(int i : vectors) {
+          readVector(i, entities, rows);
+        }
+        return;
+      }
+      for(int i : vectors) {
+        int row = 0;
+        for(Value value : values.get(variables[i].getName())) {
+          rows[row++][i] = value;
+        }
+      }
+    }
+
+    private void readVector(int i, SortedSet<VariableEntity> entities, Value[][] rows) {
+      int row = 0;
+      try {
+        for(Value value : sources[i].asVectorSource().getValues(entities)) {
+          rows[row++][i] = value;
+        }
+      } catch(RuntimeException e) {
+        Value value = handleReadError(i, e);
+        for(; row < rows.length; row++) {
+          rows[row][i] = value;
+        }
+      }
+    }
+
+    private ValueSet[] getValueSets(SortedSet<VariableEntity> entities) {
+      return Iterables.toArray(valueTable.getValueSets(entities), ValueSet.class);
     }
   }
 
@@ -257,6 +447,25 @@ public class ConcurrentValueTableReader {
 
   }
 
+  /**
+   * A {@link ConcurrentReaderCallback} that receives the values of several entities at once. The batch size is set
+   * using {@link Builder#withBatchSize(int)}.
+   */
+  @SuppressWarnings("ParameterHidesMemberVariable")
+  public interface ConcurrentBatchReaderCallback extends ConcurrentReaderCallback {
+
+    /**
+     * Called when a batch of entities has been read and is ready to be written. This method is not called
+     * concurrently. Implementations are not required to be threadsafe.
+     *
+     * @param entities the {@code VariableEntity} instances that have been read
+     * @param variables the {@code Variable} instances for which the values were read
+     * @param values the {@code Value} instances, one array per entity and one value per variable
+     */
+    void onValues(List<VariableEntity> entities, Variable[] variables, List<Value[]> values);
+
+  }
+
   @SuppressWarnings("ParameterHidesMemberVariable")
   public static class Builder {
 
@@ -279,6 +488,54 @@ public class ConcurrentValueTableReader {
       return this;
     }
 
+    /**
+     * Bounds the number of read entities waiting to be handed to the callback. Readers block when the queue is full.
+     *
+     * @param size
+     * @return
+     */
+    public Builder withQueueSize(int size) {
+      if(size < 1) throw new IllegalArgumentException("Queue size must be greater than zero");
+      reader.queueSize = size;
+      return this;
+    }
+
+    /**
+     * Number of entities handed at once to a {@link ConcurrentBatchReaderCallback}.
+     *
+     * @param size
+     * @return
+     */
+    public Builder withBatchSize(int size) {
+      if(size < 1) throw new IllegalArgumentException("Batch size must be greater than zero");
+      reader.batchSize = size;
+      return this;
+    }
+
+    /**
+     * Number of entities which value sets are loaded at once by a reader, when not reading by vectors.
+     *
+     * @param size
+     * @return
+     */
+    public Builder withValueSetsPageSize(int size) {
+      if(size < 1) throw new IllegalArgumentException("Page size must be greater than zero");
+      reader.valueSetsPageSize = size;
+      return this;
+    }
+
+    /**
+     * Read entities by sorted chunks of the given size, using {@link VectorSource} for the variables that support it.
+     *
+     * @param chunkSize
+     * @return
+     */
+    public Builder withVectorRead(int chunkSize) {
+      if(chunkSize < 1) throw new IllegalArgumentException("Chunk size must be greater than zero");
+      reader.vectorChunkSize = chunkSize;
+      return this;
+    }
+
     public Builder from(ValueTable source) {
       reader.valueTable = source;
       return this;
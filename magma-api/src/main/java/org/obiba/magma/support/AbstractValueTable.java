@@ -100,6 +100,16 @@ public abstract class AbstractValueTable implements ValueTable, Initialisable {
         });
   }
 
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    return Iterables.transform(entities, new Function<VariableEntity, ValueSet>() {
+      @Override
+      public ValueSet apply(VariableEntity from) {
+        return getValueSet(from);
+      }
+    });
+  }
+
   @Override
   public boolean canDropValueSets() {
     return false;
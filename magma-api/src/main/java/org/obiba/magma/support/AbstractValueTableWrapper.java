@@ -53,6 +53,11 @@ public abstract class AbstractValueTableWrapper implements ValueTableWrapper {
     return getWrappedValueTable().getValueSet(entity);
   }
 
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    return getWrappedValueTable().getValueSets(entities);
+  }
+
   @Override
   public boolean canDropValueSets() {
     return getWrappedValueTable().canDropValueSets();
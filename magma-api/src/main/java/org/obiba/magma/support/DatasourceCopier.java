@@ -6,13 +6,16 @@ import java.text.NumberFormat;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
 
 import javax.annotation.Nullable;
 
 import org.obiba.magma.Datasource;
 import org.obiba.magma.DatasourceCopierProgressListener;
 import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.MultiVectorSource;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
@@ -27,13 +30,17 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 @SuppressWarnings("UnusedDeclaration")
 public class DatasourceCopier {
 
   private static final Logger log = LoggerFactory.getLogger(DatasourceCopier.class);
 
+  private static final int VALUE_SETS_PAGE_SIZE = 100;
+
   @SuppressWarnings("ParameterHidesMemberVariable")
   public static class Builder {
 
@@ -230,9 +237,41 @@ public class DatasourceCopier {
     if(!copyValues) return;
 
     log.debug("Copy values from {} {}", sourceTable.getClass(), sourceTable.getName());
-    for(ValueSet valueSet : sourceTable.getValueSets()) {
-      try(ValueSetWriter valueSetWriter = tableWriter.writeValueSet(valueSet.getVariableEntity())) {
-        copyValues(sourceTable, valueSet, destinationTable.getName(), valueSetWriter);
+    if(sourceTable instanceof MultiVectorSource) {
+      copyVectors(sourceTable, destinationTable, tableWriter);
+      return;
+    }
+    // value sets are loaded by pages of entities
+    for(List<VariableEntity> page : Iterables.partition(sourceTable.getVariableEntities(), VALUE_SETS_PAGE_SIZE)) {
+      for(ValueSet valueSet : sourceTable.getValueSets(Sets.newTreeSet(page))) {
+        try(ValueSetWriter valueSetWriter = tableWriter.writeValueSet(valueSet.getVariableEntity())) {
+          copyValues(sourceTable, valueSet, destinationTable.getName(), valueSetWriter);
+        }
+      }
+    }
+  }
+
+  /**
+   * Values are read by pages of entities, the values of all the variables of a page in one pass over the source table.
+   */
+  private void copyVectors(ValueTable sourceTable, ValueTable destinationTable, ValueTableWriter tableWriter)
+      throws IOException {
+    List<Variable> variables = ImmutableList.copyOf(sourceTable.getVariables());
+    Variable[] variableArray = variables.toArray(new Variable[variables.size()]);
+    for(List<VariableEntity> page : Iterables.partition(sourceTable.getVariableEntities(), VALUE_SETS_PAGE_SIZE)) {
+      SortedSet<VariableEntity> entities = Sets.newTreeSet(page);
+      Map<String, List<Value>> values = ((MultiVectorSource) sourceTable).getValues(variables, entities);
+      int row = 0;
+      for(VariableEntity entity : entities) {
+        Value[] rowValues = new Value[variableArray.length];
+        for(int i = 0; i < variableArray.length; i++) {
+          rowValues[i] = values.get(variableArray[i].getName()).get(row);
+        }
+        try(ValueSetWriter valueSetWriter = tableWriter.writeValueSet(entity)) {
+          copyValues(sourceTable, destinationTable.getName(), new ValueSetBean(sourceTable, entity), variableArray,
+              rowValues, valueSetWriter);
+        }
+        row++;
       }
     }
   }
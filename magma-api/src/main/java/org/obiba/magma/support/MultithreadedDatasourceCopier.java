@@ -2,8 +2,10 @@ package org.obiba.magma.support;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.SortedSet;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
@@ -14,6 +16,7 @@ import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
+import org.obiba.magma.ConcurrentValueTableWriter;
 import org.obiba.magma.Datasource;
 import org.obiba.magma.DatasourceCopierProgressListener;
 import org.obiba.magma.Value;
@@ -28,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 public class MultithreadedDatasourceCopier {
 
@@ -35,6 +39,8 @@ public class MultithreadedDatasourceCopier {
 
   private static final int BUFFER_SIZE = 150;
 
+  private static final int VALUE_SETS_PAGE_SIZE = 100;
+
   @SuppressWarnings({ "UnusedDeclaration", "ParameterHidesMemberVariable" })
   public static class Builder {
 
@@ -62,6 +68,33 @@ public class MultithreadedDatasourceCopier {
       return this;
     }
 
+    /**
+     * Number of threads writing concurrently to the destination table. Only applies if the destination
+     * {@link ValueTableWriter} is a {@link ConcurrentValueTableWriter}, otherwise a single writer is used. Note that
+     * copy listeners may then be notified concurrently.
+     *
+     * @param writers
+     * @return
+     */
+    public Builder withWriters(int writers) {
+      if(writers < 1) throw new IllegalArgumentException("Number of writers must be greater than zero");
+      copier.concurrentWriters = writers;
+      return this;
+    }
+
+    /**
+     * Number of value sets written by a writer before its {@link ValueTableWriter} is closed (committed) and a new one
+     * is opened.
+     *
+     * @param size
+     * @return
+     */
+    public Builder withWriterBatchSize(int size) {
+      if(size < 1) throw new IllegalArgumentException("Writer batch size must be greater than zero");
+      copier.writerBatchSize = size;
+      return this;
+    }
+
     public Builder withReaderListener(ReaderListener readerListener) {
       copier.readerListener = readerListener;
       return this;
@@ -113,6 +146,10 @@ public class MultithreadedDatasourceCopier {
 
   private int concurrentReaders = 3;
 
+  private int concurrentWriters = 1;
+
+  private int writerBatchSize = Integer.MAX_VALUE;
+
   @NotNull
   private DatasourceCopier.Builder copier = DatasourceCopier.Builder.newCopier();
 
@@ -180,16 +217,45 @@ public class MultithreadedDatasourceCopier {
 
   private void write(BlockingQueue<VariableEntityValues> writeQueue) throws IOException {
     copyVariables();
-    // The writers could also be concurrent, but dues to transaction isolation issues, it is currently ran
-    // synchronously
-    new ConcurrentValueSetWriter(writeQueue).run();
+    DatasourceCopier datasourceCopier = copier.build();
+    ValueTableWriter tableWriter = datasourceCopier
+        .innerValueTableWriter(sourceTable, destinationName, destinationDatasource);
+    if(concurrentWriters > 1 && tableWriter instanceof ConcurrentValueTableWriter) {
+      concurrentWrite(writeQueue, tableWriter);
+    } else {
+      // Due to transaction isolation issues, writers of datasources not supporting concurrent writes are ran
+      // synchronously
+      new ConcurrentValueSetWriter(writeQueue, tableWriter).run();
+    }
+  }
+
+  private void concurrentWrite(BlockingQueue<VariableEntityValues> writeQueue, ValueTableWriter tableWriter) {
+    log.debug("Copy with {} concurrent writers", concurrentWriters);
+    ExecutorService executor = threadFactory == null //
+        ? Executors.newFixedThreadPool(concurrentWriters - 1) //
+        : Executors.newFixedThreadPool(concurrentWriters - 1, threadFactory);
+    try {
+      List<Future<?>> writers = Lists.newArrayList();
+      for(int i = 1; i < concurrentWriters; i++) {
+        writers.add(executor.submit(new ConcurrentValueSetWriter(writeQueue, null)));
+      }
+      // the calling thread is also a writer
+      new ConcurrentValueSetWriter(writeQueue, tableWriter).run();
+      checkForException(writers);
+    } finally {
+      executor.shutdownNow();
+    }
   }
 
-  @SuppressWarnings("OverlyNestedMethod")
   private void checkReadersForException() {
-    for(Future<?> reader : readers) {
+    checkForException(readers);
+  }
+
+  @SuppressWarnings("OverlyNestedMethod")
+  private void checkForException(Iterable<Future<?>> tasks) {
+    for(Future<?> task : tasks) {
       try {
-        reader.get();
+        task.get();
       } catch(InterruptedException e) {
         throw new RuntimeException(e);
       } catch(ExecutionException e) {
@@ -250,21 +316,29 @@ public class MultithreadedDatasourceCopier {
       this.copyNullValues = copyNullValues;
     }
 
+    /**
+     * Entities are taken from the read queue by pages, which value sets are loaded at once.
+     */
     @Override
     public void run() {
       try {
-        VariableEntity entity = null;
-        while((entity = readQueue.poll()) != null) {
-          copyEntity(entity);
+        List<VariableEntity> page = Lists.newArrayListWithCapacity(VALUE_SETS_PAGE_SIZE);
+        while(readQueue.drainTo(page, VALUE_SETS_PAGE_SIZE) > 0) {
+          SortedSet<VariableEntity> entities = Sets.newTreeSet();
+          for(VariableEntity entity : page) {
+            if(sourceTable.hasValueSet(entity)) entities.add(entity);
+          }
+          page.clear();
+          for(ValueSet valueSet : sourceTable.getValueSets(entities)) {
+            copyValueSet(valueSet);
+          }
         }
       } catch(InterruptedException ignored) {
       }
     }
 
-    private void copyEntity(VariableEntity entity) throws InterruptedException {
-      if(!sourceTable.hasValueSet(entity)) return;
-
-      ValueSet valueSet = sourceTable.getValueSet(entity);
+    private void copyValueSet(ValueSet valueSet) throws InterruptedException {
+      VariableEntity entity = valueSet.getVariableEntity();
       boolean hasOnlyNullValues = true;
       Value[] values = new Value[sources.length];
 
@@ -291,8 +365,17 @@ public class MultithreadedDatasourceCopier {
 
     private final BlockingQueue<VariableEntityValues> writeQueue;
 
-    private ConcurrentValueSetWriter(BlockingQueue<VariableEntityValues> writeQueue) {
+    @Nullable
+    private ValueTableWriter tableWriter;
+
+    /**
+     * @param writeQueue
+     * @param tableWriter the first table writer to be used, if null a new one is created
+     */
+    private ConcurrentValueSetWriter(BlockingQueue<VariableEntityValues> writeQueue,
+        @Nullable ValueTableWriter tableWriter) {
       this.writeQueue = writeQueue;
+      this.tableWriter = tableWriter;
     }
 
     /**
@@ -328,15 +411,34 @@ public class MultithreadedDatasourceCopier {
       return true;
     }
 
-    @SuppressWarnings("ThrowFromFinallyBlock")
     @Override
     public void run() {
       DatasourceCopier datasourceCopier = copier.build();
-      try(ValueTableWriter tableWriter = datasourceCopier
-          .innerValueTableWriter(sourceTable, destinationName, destinationDatasource)) {
+      int batchCount = 0;
+      try {
         VariableEntityValues values = null;
         while((values = next()) != null) {
+          if(tableWriter == null) {
+            tableWriter = datasourceCopier.innerValueTableWriter(sourceTable, destinationName, destinationDatasource);
+          }
           copyValue(datasourceCopier, tableWriter, values);
+          if(++batchCount >= writerBatchSize) {
+            // commit this batch of value sets
+            closeTableWriter();
+            batchCount = 0;
+          }
+        }
+      } finally {
+        closeTableWriter();
+      }
+    }
+
+    private void closeTableWriter() {
+      if(tableWriter != null) {
+        try {
+          tableWriter.close();
+        } finally {
+          tableWriter = null;
         }
       }
     }
@@ -349,26 +451,27 @@ public class MultithreadedDatasourceCopier {
         log.trace("Dequeued entity {}", values.valueSet.getVariableEntity().getIdentifier());
         datasourceCopier.copyValues(sourceTable, destinationName, values.valueSet, variables, values.values, writer);
       }
-      entitiesCopied++;
       printProgress();
     }
 
-    @SuppressWarnings("NumericCastThatLosesPrecision")
-    private void printProgress() {
-      try {
-        if(entitiesToCopy > 0) {
-          int percentComplete = (int) (entitiesCopied / (double) entitiesToCopy * 100);
-          if(percentComplete >= nextPercentIncrement) {
-            log.info("Copy {}% complete.", percentComplete);
-            for(DatasourceCopierProgressListener listener : progressListeners) {
-              listener.status(sourceTable.getName(), entitiesCopied, entitiesToCopy, percentComplete);
-            }
-            nextPercentIncrement = percentComplete + 1;
+  }
+
+  @SuppressWarnings("NumericCastThatLosesPrecision")
+  private synchronized void printProgress() {
+    entitiesCopied++;
+    try {
+      if(entitiesToCopy > 0) {
+        int percentComplete = (int) (entitiesCopied / (double) entitiesToCopy * 100);
+        if(percentComplete >= nextPercentIncrement) {
+          log.info("Copy {}% complete.", percentComplete);
+          for(DatasourceCopierProgressListener listener : progressListeners) {
+            listener.status(sourceTable.getName(), entitiesCopied, entitiesToCopy, percentComplete);
           }
+          nextPercentIncrement = percentComplete + 1;
         }
-      } catch(RuntimeException e) {
-        // Ignore
       }
+    } catch(RuntimeException e) {
+      // Ignore
     }
   }
 }
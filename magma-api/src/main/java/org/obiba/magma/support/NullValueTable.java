@@ -74,6 +74,12 @@ public class NullValueTable implements ValueTable {
     return ImmutableList.of();
   }
 
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    if(!entities.isEmpty()) throw new NoSuchValueSetException(this, entities.first());
+    return ImmutableList.of();
+  }
+
   @Override
   public ValueSet getValueSet(VariableEntity entity) throws NoSuchValueSetException {
     throw new NoSuchValueSetException(this, entity);
@@ -1,6 +1,9 @@
 package org.obiba.magma.views;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
 
 import javax.validation.constraints.NotNull;
 
@@ -8,6 +11,7 @@ import org.obiba.magma.NoSuchValueSetException;
 import org.obiba.magma.NoSuchVariableException;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
@@ -22,6 +26,9 @@ import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 public abstract class AbstractTransformingValueTableWrapper extends AbstractValueTableWrapper
     implements TransformingValueTable {
@@ -103,6 +110,43 @@ public abstract class AbstractTransformingValueTableWrapper extends AbstractValu
     return getValueSetMappingFunction().apply(super.getValueSet(unmapped));
   }
 
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    List<ValueSet> mappedValueSets = Lists.newArrayListWithCapacity(entities.size());
+    for(ValueSet valueSet : getWrappedValueSets(this, getWrappedValueTable(), entities)) {
+      mappedValueSets.add(getValueSetMappingFunction().apply(valueSet));
+    }
+    return mappedValueSets;
+  }
+
+  /**
+   * Gets the value sets of the wrapped table for some entities of a transforming table, with a single call to the
+   * wrapped table.
+   *
+   * @return the value set of the wrapped table for each entity, in the order of the entities
+   * @throws NoSuchValueSetException if an entity cannot be mapped to an entity of the wrapped table
+   */
+  static List<ValueSet> getWrappedValueSets(TransformingValueTable table, ValueTable wrappedTable,
+      SortedSet<VariableEntity> entities) {
+    BijectiveFunction<VariableEntity, VariableEntity> entityMapping = table.getVariableEntityMappingFunction();
+    SortedSet<VariableEntity> unmappedEntities = Sets.newTreeSet();
+    for(VariableEntity entity : entities) {
+      VariableEntity unmapped = entityMapping.unapply(entity);
+      if(unmapped == null) throw new NoSuchValueSetException(table, entity);
+      unmappedEntities.add(unmapped);
+    }
+    // the entity mapping may not preserve the order
+    Map<VariableEntity, ValueSet> valueSets = Maps.newHashMapWithExpectedSize(unmappedEntities.size());
+    for(ValueSet valueSet : wrappedTable.getValueSets(unmappedEntities)) {
+      valueSets.put(valueSet.getVariableEntity(), valueSet);
+    }
+    List<ValueSet> wrappedValueSets = Lists.newArrayListWithCapacity(entities.size());
+    for(VariableEntity entity : entities) {
+      wrappedValueSets.add(valueSets.get(entityMapping.unapply(entity)));
+    }
+    return wrappedValueSets;
+  }
+
   @Override
   public VariableValueSource getVariableValueSource(String variableName) throws NoSuchVariableException {
     return getVariableValueSourceMappingFunction()
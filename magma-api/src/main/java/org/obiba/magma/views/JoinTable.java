@@ -12,6 +12,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
 import org.obiba.magma.Datasource;
@@ -41,6 +42,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 
 @SuppressWarnings({ "UnusedDeclaration", "TransientFieldInNonSerializableClass" })
 public class JoinTable implements ValueTable, Initialisable {
@@ -177,6 +179,30 @@ public class JoinTable implements ValueTable, Initialisable {
     throw new NoSuchValueSetException(this, entity);
   }
 
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    Map<VariableEntity, JoinedValueSet> joinedValueSets = Maps.newLinkedHashMap();
+    for(VariableEntity entity : entities) {
+      joinedValueSets.put(entity, (JoinedValueSet) getValueSet(entity));
+    }
+    // load the value sets of each inner table at once
+    for(ValueTable valueTable : getTables()) {
+      SortedSet<VariableEntity> tableEntities = Sets.newTreeSet();
+      for(Map.Entry<VariableEntity, JoinedValueSet> entry : joinedValueSets.entrySet()) {
+        if(valueTable.hasValueSet(entry.getKey())) {
+          tableEntities.add(entry.getKey());
+        } else {
+          entry.getValue().putInnerTableValueSet(valueTable, null);
+        }
+      }
+      if(tableEntities.isEmpty()) continue;
+      for(ValueSet valueSet : valueTable.getValueSets(tableEntities)) {
+        joinedValueSets.get(valueSet.getVariableEntity()).putInnerTableValueSet(valueTable, valueSet);
+      }
+    }
+    return ImmutableList.<ValueSet>copyOf(joinedValueSets.values());
+  }
+
   @Override
   public boolean canDropValueSets() {
     for (ValueTable table : tables) {
@@ -414,6 +440,10 @@ public class JoinTable implements ValueTable, Initialisable {
       }
       return valueSets;
     }
+
+    synchronized void putInnerTableValueSet(ValueTable valueTable, @Nullable ValueSet valueSet) {
+      valueSetsByTable.put(valueTable.getTableReference(), valueSet);
+    }
   }
 
   private static class JoinedVariableValueSource extends AbstractVariableValueSourceWrapper implements VectorSource {
@@ -2,6 +2,7 @@ package org.obiba.magma.views;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -55,6 +56,8 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
 
   private static final Logger log = LoggerFactory.getLogger(View.class);
 
+  private static final int VALUE_SETS_PAGE_SIZE = 100;
+
   private String name;
 
   @NotNull
@@ -288,6 +291,19 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
     return getValueSetMappingFunction().apply(valueSet);
   }
 
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    List<ValueSet> mappedValueSets = Lists.newArrayListWithCapacity(entities.size());
+    Iterator<VariableEntity> entityIterator = entities.iterator();
+    for(ValueSet valueSet : AbstractTransformingValueTableWrapper
+        .getWrappedValueSets(this, getWrappedValueTable(), entities)) {
+      VariableEntity entity = entityIterator.next();
+      if(!getWhereClause().where(valueSet, this)) throw new NoSuchValueSetException(this, entity);
+      mappedValueSets.add(getValueSetMappingFunction().apply(valueSet));
+    }
+    return mappedValueSets;
+  }
+
   @Override
   public Timestamps getValueSetTimestamps(VariableEntity entity) throws NoSuchValueSetException {
     VariableEntity unmapped = getVariableEntityMappingFunction().unapply(entity);
@@ -435,7 +451,22 @@ public class View extends AbstractValueTableWrapper implements Initialisable, Di
   protected Set<VariableEntity> loadVariableEntities() {
     // do not use Guava functional stuff to avoid multiple iterations over entities
     ImmutableSet.Builder<VariableEntity> builder = ImmutableSet.builder();
-    if(hasVariables()) {
+    if(hasVariables() && !(getWhereClause() instanceof AllClause) && !(getWhereClause() instanceof NoneClause)) {
+      // the where clause is evaluated on value sets loaded by pages of entities
+      for(List<VariableEntity> page : Iterables.partition(super.getVariableEntities(), VALUE_SETS_PAGE_SIZE)) {
+        Set<VariableEntity> selected = Sets.newHashSet();
+        for(ValueSet valueSet : super.getValueSets(Sets.newTreeSet(page))) {
+          if(getWhereClause().where(valueSet, this)) selected.add(valueSet.getVariableEntity());
+        }
+        // keep the entities order
+        for(VariableEntity entity : page) {
+          if(selected.contains(entity)) {
+            entity = getVariableEntityMappingFunction().apply(entity);
+            if(entity != null) builder.add(entity);
+          }
+        }
+      }
+    } else if(hasVariables()) {
       for(VariableEntity entity : super.getVariableEntities()) {
         // transform super.getVariableEntities() using getVariableEntityMappingFunction()
         // (which may modified entity identifiers)
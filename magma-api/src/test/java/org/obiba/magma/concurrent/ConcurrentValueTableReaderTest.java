@@ -0,0 +1,285 @@
+package org.obiba.magma.concurrent;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+
+import javax.validation.constraints.NotNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.AbstractVariableValueSource;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueType;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VectorSource;
+import org.obiba.magma.concurrent.ConcurrentValueTableReader.ConcurrentBatchReaderCallback;
+import org.obiba.magma.concurrent.ConcurrentValueTableReader.ConcurrentReaderCallback;
+import org.obiba.magma.support.PageRecordingValueTable;
+import org.obiba.magma.support.StaticDatasource;
+import org.obiba.magma.support.StaticValueTable;
+import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.TextType;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ConcurrentValueTableReaderTest extends AbstractMagmaTest {
+
+  private static final int NB_ENTITIES = 100;
+
+  private StaticValueTable table;
+
+  @Before
+  public void setup() {
+    List<String> entities = Lists.newArrayList();
+    for(int i = 1; i <= NB_ENTITIES; i++) {
+      entities.add(String.valueOf(i));
+    }
+    table = new StaticValueTable(new StaticDatasource("ds"), "table", entities);
+    table.addVariables(TextType.get(), "VAR");
+    for(String entity : entities) {
+      table.addValues(entity, "VAR", "value" + entity);
+    }
+  }
+
+  @Test
+  public void test_read_with_bounded_queue() {
+    final Set<String> read = Sets.newHashSet();
+    ConcurrentValueTableReader.Builder.newReader().withReaders(4).withQueueSize(2).from(table)
+        .to(new ConcurrentReaderCallback() {
+          @Override
+          public void onBegin(List<VariableEntity> entities, Variable... variables) {
+          }
+
+          @Override
+          public void onValues(VariableEntity entity, Variable[] variables, Value... values) {
+            assertThat(values[0].toString()).isEqualTo("value" + entity.getIdentifier());
+            read.add(entity.getIdentifier());
+          }
+
+          @Override
+          public void onComplete() {
+          }
+
+          @Override
+          public boolean isCancelled() {
+            return false;
+          }
+        }).build().read();
+    assertThat(read).hasSize(NB_ENTITIES);
+  }
+
+  @Test
+  public void test_read_in_batches() {
+    final Set<String> read = Sets.newHashSet();
+    final List<Integer> batchSizes = Lists.newArrayList();
+    ConcurrentValueTableReader.Builder.newReader().withReaders(3).withBatchSize(30).from(table)
+        .to(new ConcurrentBatchReaderCallback() {
+          @Override
+          public void onValues(List<VariableEntity> entities, Variable[] variables, List<Value[]> values) {
+            assertThat(values).hasSize(entities.size());
+            batchSizes.add(entities.size());
+            for(VariableEntity entity : entities) {
+              read.add(entity.getIdentifier());
+            }
+          }
+
+          @Override
+          public void onBegin(List<VariableEntity> entities, Variable... variables) {
+          }
+
+          @Override
+          public void onValues(VariableEntity entity, Variable[] variables, Value... values) {
+            throw new IllegalStateException("Batch callback expected");
+          }
+
+          @Override
+          public void onComplete() {
+          }
+
+          @Override
+          public boolean isCancelled() {
+            return false;
+          }
+        }).build().read();
+    assertThat(read).hasSize(NB_ENTITIES);
+    assertThat(batchSizes).containsExactly(30, 30, 30, 10);
+  }
+
+  @Test
+  public void test_read_value_sets_by_pages() {
+    PageRecordingValueTable pagedTable = new PageRecordingValueTable("table", NB_ENTITIES);
+    final Set<String> read = Sets.newHashSet();
+    ConcurrentValueTableReader.Builder.newReader().withReaders(2).withValueSetsPageSize(7).from(pagedTable)
+        .to(new ConcurrentReaderCallback() {
+          @Override
+          public void onBegin(List<VariableEntity> entities, Variable... variables) {
+          }
+
+          @Override
+          public void onValues(VariableEntity entity, Variable[] variables, Value... values) {
+            assertThat(values[0].toString()).isEqualTo("value" + entity.getIdentifier());
+            read.add(entity.getIdentifier());
+          }
+
+          @Override
+          public void onComplete() {
+          }
+
+          @Override
+          public boolean isCancelled() {
+            return false;
+          }
+        }).build().read();
+    assertThat(read).hasSize(NB_ENTITIES);
+    // readers drain full pages from the read queue, whatever their number, until the last 2 entities
+    assertThat(pagedTable.getPageSizes()).hasSize(15);
+    int total = 0;
+    for(int pageSize : pagedTable.getPageSizes()) {
+      assertThat(pageSize).isIn(7, 2);
+      total += pageSize;
+    }
+    assertThat(total).isEqualTo(NB_ENTITIES);
+  }
+
+  @Test
+  public void test_vector_read_falls_back_to_value_sets() {
+    final Set<String> read = Sets.newHashSet();
+    ConcurrentValueTableReader.Builder.newReader().withReaders(2).withVectorRead(15).from(table)
+        .to(new ConcurrentReaderCallback() {
+          @Override
+          public void onBegin(List<VariableEntity> entities, Variable... variables) {
+          }
+
+          @Override
+          public void onValues(VariableEntity entity, Variable[] variables, Value... values) {
+            assertThat(values[0].toString()).isEqualTo("value" + entity.getIdentifier());
+            read.add(entity.getIdentifier());
+          }
+
+          @Override
+          public void onComplete() {
+          }
+
+          @Override
+          public boolean isCancelled() {
+            return false;
+          }
+        }).build().read();
+    assertThat(read).hasSize(NB_ENTITIES);
+  }
+
+  @Test
+  public void test_vector_read_reassembles_rows() {
+    final List<Integer> chunkSizes = Collections.synchronizedList(Lists.<Integer>newArrayList());
+    VectorValueTable vectorTable = new VectorValueTable(chunkSizes);
+    final Set<String> read = Sets.newHashSet();
+    ConcurrentValueTableReader.Builder.newReader().withReaders(3).withVectorRead(15).from(vectorTable)
+        .to(new ConcurrentReaderCallback() {
+          @Override
+          public void onBegin(List<VariableEntity> entities, Variable... variables) {
+            assertThat(variables).hasSize(2);
+          }
+
+          @Override
+          public void onValues(VariableEntity entity, Variable[] variables, Value... values) {
+            assertThat(values[0].toString()).isEqualTo("value" + entity.getIdentifier());
+            assertThat(values[1].toString()).isEqualTo("vector" + entity.getIdentifier());
+            read.add(entity.getIdentifier());
+          }
+
+          @Override
+          public void onComplete() {
+          }
+
+          @Override
+          public boolean isCancelled() {
+            return false;
+          }
+        }).build().read();
+    assertThat(read).hasSize(NB_ENTITIES);
+    // one vector read per chunk of entities
+    assertThat(chunkSizes).hasSize(7);
+    int total = 0;
+    for(int chunkSize : chunkSizes) {
+      assertThat(chunkSize).isLessThanOrEqualTo(15);
+      total += chunkSize;
+    }
+    assertThat(total).isEqualTo(NB_ENTITIES);
+  }
+
+  /**
+   * A table with a VAR variable read from value sets and a VECTOR variable that can only be read as a vector.
+   */
+  private static class VectorValueTable extends StaticValueTable {
+
+    private VectorValueTable(final List<Integer> chunkSizes) {
+      super(new StaticDatasource("ds"), "table", entityIdentifiers());
+      addVariables(TextType.get(), "VAR");
+      for(String entity : entityIdentifiers()) {
+        addValues(entity, "VAR", "value" + entity);
+      }
+      addVariableValueSource(new AbstractVariableValueSource() {
+
+        @NotNull
+        @Override
+        public Variable getVariable() {
+          return Variable.Builder.newVariable("VECTOR", TextType.get(), getEntityType()).build();
+        }
+
+        @NotNull
+        @Override
+        public ValueType getValueType() {
+          return TextType.get();
+        }
+
+        @NotNull
+        @Override
+        public Value getValue(ValueSet valueSet) {
+          throw new UnsupportedOperationException("VECTOR is only readable as a vector");
+        }
+
+        @Override
+        public boolean supportVectorSource() {
+          return true;
+        }
+
+        @NotNull
+        @Override
+        public VectorSource asVectorSource() {
+          return new VectorSource() {
+            @Override
+            public ValueType getValueType() {
+              return TextType.get();
+            }
+
+            @Override
+            public Iterable<Value> getValues(SortedSet<VariableEntity> entities) {
+              chunkSizes.add(entities.size());
+              List<Value> values = Lists.newArrayList();
+              for(VariableEntity entity : entities) {
+                values.add(TextType.get().valueOf("vector" + entity.getIdentifier()));
+              }
+              return values;
+            }
+          };
+        }
+      });
+    }
+
+    private static List<String> entityIdentifiers() {
+      List<String> entities = Lists.newArrayList();
+      for(int i = 1; i <= NB_ENTITIES; i++) {
+        entities.add(String.valueOf(i));
+      }
+      return entities;
+    }
+  }
+
+}
@@ -0,0 +1,32 @@
+package org.obiba.magma.support;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.TextType;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class DatasourceCopierTest extends AbstractMagmaTest {
+
+  @Test
+  public void test_copy_values_by_pages() throws IOException {
+    PageRecordingValueTable source = new PageRecordingValueTable("table", 101);
+    StaticDatasource destination = new StaticDatasource("destination");
+
+    DatasourceCopier.Builder.newCopier().build().copy(source, destination);
+
+    // a full page then the remaining entity
+    assertThat(source.getPageSizes()).containsExactly(100, 1);
+    ValueTable copy = destination.getValueTable("table");
+    assertThat(copy.getVariableEntities()).hasSize(101);
+    for(VariableEntity entity : source.getVariableEntities()) {
+      assertThat(copy.getValue(copy.getVariable("VAR"), copy.getValueSet(entity)))
+          .isEqualTo(TextType.get().valueOf("value" + entity.getIdentifier()));
+    }
+  }
+
+}
@@ -0,0 +1,119 @@
+package org.obiba.magma.support;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.validation.constraints.NotNull;
+
+import org.junit.Test;
+import org.obiba.magma.ConcurrentValueTableWriter;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTableWriter;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.TextType;
+
+import com.google.common.collect.Lists;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class MultithreadedDatasourceCopierTest extends AbstractMagmaTest {
+
+  private static final int NB_ENTITIES = 250;
+
+  @Test
+  public void test_concurrent_writers_write_each_value_set_once() throws IOException {
+    List<String> entities = Lists.newArrayList();
+    for(int i = 1; i <= NB_ENTITIES; i++) {
+      entities.add(String.valueOf(i));
+    }
+    StaticValueTable source = new StaticValueTable(new StaticDatasource("source"), "table", entities);
+    source.addVariables(TextType.get(), "VAR");
+    for(String entity : entities) {
+      source.addValues(entity, "VAR", "value" + entity);
+    }
+
+    RecordingDatasource destination = new RecordingDatasource();
+    MultithreadedDatasourceCopier.Builder.newCopier() //
+        .withCopier(DatasourceCopier.Builder.newCopier().dontCopyMetadata()) //
+        .withReaders(3) //
+        .withWriters(4) //
+        .withWriterBatchSize(7) //
+        .from(source) //
+        .to(destination) //
+        .build() //
+        .copy();
+
+    assertThat(destination.written).hasSize(NB_ENTITIES);
+    for(String entity : entities) {
+      assertThat(destination.written.get(entity).get()).isEqualTo(1);
+      assertThat(destination.values.get(entity)).isEqualTo("value" + entity);
+    }
+    // table writers are closed after each batch of value sets
+    assertThat(destination.openedWriters.get()).isGreaterThanOrEqualTo(NB_ENTITIES / 7);
+    assertThat(destination.closedWriters.get()).isEqualTo(destination.openedWriters.get());
+  }
+
+  /**
+   * Records the value sets written by concurrent table writers.
+   */
+  private static class RecordingDatasource extends StaticDatasource {
+
+    private final ConcurrentMap<String, AtomicInteger> written = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, String> values = new ConcurrentHashMap<>();
+
+    private final AtomicInteger openedWriters = new AtomicInteger();
+
+    private final AtomicInteger closedWriters = new AtomicInteger();
+
+    private RecordingDatasource() {
+      super("destination");
+    }
+
+    @NotNull
+    @Override
+    public ValueTableWriter createWriter(@NotNull String tableName, @NotNull String entityType) {
+      openedWriters.incrementAndGet();
+      return new ConcurrentValueTableWriter() {
+
+        @Override
+        public VariableWriter writeVariables() {
+          throw new UnsupportedOperationException();
+        }
+
+        @NotNull
+        @Override
+        public ValueSetWriter writeValueSet(@NotNull final VariableEntity entity) {
+          AtomicInteger count = written.putIfAbsent(entity.getIdentifier(), new AtomicInteger(1));
+          if(count != null) count.incrementAndGet();
+          return new ValueSetWriter() {
+            @Override
+            public void writeValue(@NotNull Variable variable, Value value) {
+              values.put(entity.getIdentifier(), value.toString());
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+          };
+        }
+
+        @Override
+        public void close() {
+          closedWriters.incrementAndGet();
+        }
+      };
+    }
+  }
+
+}
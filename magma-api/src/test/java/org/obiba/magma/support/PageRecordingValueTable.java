@@ -0,0 +1,47 @@
+package org.obiba.magma.support;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.type.TextType;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A static table of entities "1" to "n", in this order, with a VAR variable which value is "value" followed by the
+ * entity identifier. Records the size of the pages of value sets it is asked for.
+ */
+public class PageRecordingValueTable extends StaticValueTable {
+
+  private final List<Integer> pageSizes = Collections.synchronizedList(Lists.<Integer>newArrayList());
+
+  public PageRecordingValueTable(String name, int nbEntities) {
+    super(new StaticDatasource("source"), name, entityIdentifiers(nbEntities));
+    addVariables(TextType.get(), "VAR");
+    for(String entity : entityIdentifiers(nbEntities)) {
+      addValues(entity, "VAR", "value" + entity);
+    }
+  }
+
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    pageSizes.add(entities.size());
+    return super.getValueSets(entities);
+  }
+
+  public List<Integer> getPageSizes() {
+    return pageSizes;
+  }
+
+  public static List<String> entityIdentifiers(int nbEntities) {
+    List<String> entities = Lists.newArrayList();
+    for(int i = 1; i <= nbEntities; i++) {
+      entities.add(String.valueOf(i));
+    }
+    return entities;
+  }
+
+}
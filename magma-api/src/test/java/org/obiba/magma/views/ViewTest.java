@@ -3,6 +3,7 @@ package org.obiba.magma.views;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Test;
@@ -17,6 +18,7 @@ import org.obiba.magma.ValueType;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.support.PageRecordingValueTable;
 import org.obiba.magma.support.ValueSetBean;
 import org.obiba.magma.support.VariableEntityBean;
 import org.obiba.magma.test.AbstractMagmaTest;
@@ -437,6 +439,35 @@ public class ViewTest extends AbstractMagmaTest {
     manager.addView("datasource", view, null, null);
   }
 
+  @Test
+  public void test_where_clause_evaluated_by_pages_in_entities_order() {
+    PageRecordingValueTable table = new PageRecordingValueTable("table", 101);
+    WhereClause oddClause = new WhereClause() {
+      @Override
+      public boolean where(ValueSet valueSet) {
+        return Integer.parseInt(valueSet.getVariableEntity().getIdentifier()) % 2 == 1;
+      }
+
+      @Override
+      public boolean where(ValueSet valueSet, View view) {
+        return where(valueSet);
+      }
+    };
+    View view = View.Builder.newView("view", table).where(oddClause).build();
+
+    List<String> expected = new ArrayList<>();
+    for(int i = 1; i <= 101; i += 2) {
+      expected.add(String.valueOf(i));
+    }
+    List<String> identifiers = new ArrayList<>();
+    for(VariableEntity entity : view.getVariableEntities()) {
+      identifiers.add(entity.getIdentifier());
+    }
+    // the order of the wrapped table entities is kept, value sets are loaded by pages
+    assertThat(identifiers).isEqualTo(expected);
+    assertThat(table.getPageSizes()).containsExactly(100, 1);
+  }
+
   //
   // Helper Methods
   //
@@ -0,0 +1,52 @@
+package org.obiba.magma.datasource.crypt;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.crypto.Cipher;
+
+/**
+ * Base cipher factory that reuses the {@code Cipher} instances that are released, instead of looking
+ * up a new instance from the security providers for every entry. Released instances are kept by thread, so that they
+ * are never shared, and they are initialised again before being handed out.
+ */
+abstract class AbstractDatasourceCipherFactory implements PooledCipherFactory {
+
+  /**
+   * Maximum number of released ciphers kept by thread.
+   */
+  private static final int POOL_SIZE = 4;
+
+  private final String transformation;
+
+  private final ThreadLocal<Deque<Cipher>> pool = new ThreadLocal<Deque<Cipher>>() {
+    @Override
+    protected Deque<Cipher> initialValue() {
+      return new ArrayDeque<>(POOL_SIZE);
+    }
+  };
+
+  AbstractDatasourceCipherFactory(String transformation) {
+    this.transformation = transformation;
+  }
+
+  @Override
+  public void releaseCipher(Cipher cipher) {
+    Deque<Cipher> ciphers = pool.get();
+    if(ciphers.size() < POOL_SIZE && transformation.equals(cipher.getAlgorithm())) ciphers.push(cipher);
+  }
+
+  /**
+   * Gets a released {@code Cipher} of this thread or a new one, to be initialised by the caller.
+   */
+  protected Cipher getCipher() throws GeneralSecurityException {
+    Cipher cipher = pool.get().poll();
+    return cipher == null ? Cipher.getInstance(transformation) : cipher;
+  }
+
+  protected String getTransformation() {
+    return transformation;
+  }
+
+}
@@ -47,6 +47,14 @@ final class CipherAttributeConstants {
    */
   static final String CIPHER_IV = "magma.crypt.iv";
 
+  /**
+   * The key value for the entry IV length attribute. Stores the length of the IV that is written at the beginning of
+   * each entry, when entries are encrypted with their own IV.
+   *
+   * @see EntryDatasourceCipherFactory
+   */
+  static final String CIPHER_ENTRY_IV_LENGTH = "magma.crypt.entryIvLength";
+
   /**
    * The key value for the transformation string attribute. Stores the transformation used by the {@code Cipher}.
    *
@@ -12,16 +12,14 @@ import org.obiba.magma.crypt.MagmaCryptRuntimeException;
  * A default implementation of {@code DatasourceCipherProvider} that uses the specified {@code transformation}, {@code
  * SecretKey} and {@code AlgorithmParameters} instances to initialise {@code Cipher} instances.
  */
-class DefaultDatasourceCipherFactory implements DatasourceCipherFactory {
-
-  private final String transformation;
+class DefaultDatasourceCipherFactory extends AbstractDatasourceCipherFactory implements DatasourceCipherFactory {
 
   private final SecretKey secretKey;
 
   private final AlgorithmParameters algorithmParameters;
 
   DefaultDatasourceCipherFactory(String transformation, SecretKey secretKey, AlgorithmParameters parameters) {
-    this.transformation = transformation;
+    super(transformation);
     this.secretKey = secretKey;
     algorithmParameters = parameters;
   }
@@ -29,7 +27,7 @@ class DefaultDatasourceCipherFactory implements DatasourceCipherFactory {
   @Override
   public Cipher createDecryptingCipher() {
     try {
-      Cipher cipher = Cipher.getInstance(transformation);
+      Cipher cipher = getCipher();
       cipher.init(Cipher.DECRYPT_MODE, secretKey, algorithmParameters);
       return cipher;
     } catch(GeneralSecurityException e) {
@@ -40,7 +38,7 @@ class DefaultDatasourceCipherFactory implements DatasourceCipherFactory {
   @Override
   public Cipher createEncryptingCipher() {
     try {
-      Cipher cipher = Cipher.getInstance(transformation);
+      Cipher cipher = getCipher();
       cipher.init(Cipher.ENCRYPT_MODE, secretKey, algorithmParameters);
       return cipher;
     } catch(GeneralSecurityException e) {
@@ -13,6 +13,7 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 
+import javax.annotation.Nullable;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 
@@ -39,10 +40,12 @@ import org.obiba.magma.crypt.NoSuchKeyException;
  * <li>{@link CipherAttributeConstants#PUBLIC_KEY_FORMAT}</li>
  * <li>{@link CipherAttributeConstants#PUBLIC_KEY_ALGORITHM}</li>
  * </ul>
+ * When the {@link CipherAttributeConstants#CIPHER_ENTRY_IV_LENGTH} attribute is present, each entry is decrypted with
+ * the IV found at its beginning, by the {@link EntryDatasourceCipherFactory} of this strategy.
  *
  * @see GeneratedSecretKeyDatasourceEncryptionStrategy
  */
-public class EncryptedSecretKeyDatasourceEncryptionStrategy implements DatasourceEncryptionStrategy {
+public class EncryptedSecretKeyDatasourceEncryptionStrategy implements EntryDatasourceEncryptionStrategy {
 
   private static final String PKCS8_KEYSPEC_FORMAT = "PKCS#8";
 
@@ -66,15 +69,17 @@ public class EncryptedSecretKeyDatasourceEncryptionStrategy implements Datasourc
 
   @Override
   public DatasourceCipherFactory createDatasourceCipherFactory(Datasource ds) {
+    if(ds.hasAttribute(CipherAttributeConstants.CIPHER_ENTRY_IV_LENGTH)) {
+      throw new MagmaCryptRuntimeException("Entries of Datasource '" + ds.getName() +
+          "' are encrypted with their own IV and require an EntryDatasourceCipherFactory.");
+    }
     try {
       SecretKey secretKey = getSecretKey(ds);
       String transformation = ds.getAttributeStringValue(CipherAttributeConstants.CIPHER_TRANSFORMATION);
       return new DefaultDatasourceCipherFactory(transformation, secretKey,
           getAlgorithmParameters(ds, secretKey.getAlgorithm()));
     } catch(NoSuchAttributeException e) {
-      throw new MagmaCryptRuntimeException(
-          "Missing metadata in Datasource '" + ds.getName() + "' to extract secret key. Expected attribute '" +
-              e.getAttributeName() + "' is absent.", e);
+      throw newMissingAttributeException(ds, e);
     } catch(GeneralSecurityException e) {
       throw new MagmaCryptRuntimeException("Unable to decrypt Datasource '" + ds.getName() + "' secret key", e);
     } catch(IOException e) {
@@ -83,10 +88,33 @@ public class EncryptedSecretKeyDatasourceEncryptionStrategy implements Datasourc
     }
   }
 
+  @Nullable
+  @Override
+  public EntryDatasourceCipherFactory createEntryDatasourceCipherFactory(Datasource ds) {
+    if(!ds.hasAttribute(CipherAttributeConstants.CIPHER_ENTRY_IV_LENGTH)) return null;
+    try {
+      SecretKey secretKey = getSecretKey(ds);
+      String transformation = ds.getAttributeStringValue(CipherAttributeConstants.CIPHER_TRANSFORMATION);
+      Value ivLength = ds.getAttribute(CipherAttributeConstants.CIPHER_ENTRY_IV_LENGTH).getValue();
+      //noinspection ConstantConditions
+      return new EntryIvDatasourceCipherFactory(transformation, secretKey, ((Number) ivLength.getValue()).intValue());
+    } catch(NoSuchAttributeException e) {
+      throw newMissingAttributeException(ds, e);
+    } catch(GeneralSecurityException e) {
+      throw new MagmaCryptRuntimeException("Unable to decrypt Datasource '" + ds.getName() + "' secret key", e);
+    }
+  }
+
   //
   // Methods
   //
 
+  private MagmaCryptRuntimeException newMissingAttributeException(Datasource ds, NoSuchAttributeException e) {
+    return new MagmaCryptRuntimeException(
+        "Missing metadata in Datasource '" + ds.getName() + "' to extract secret key. Expected attribute '" +
+            e.getAttributeName() + "' is absent.", e);
+  }
+
   private AlgorithmParameters getAlgorithmParameters(AttributeAware datasource, String algorithm)
       throws IOException, NoSuchAlgorithmException {
     AlgorithmParameters algorithmParameters = null;
@@ -0,0 +1,45 @@
+package org.obiba.magma.datasource.crypt;
+
+import javax.crypto.Cipher;
+
+/**
+ * A {@code Cipher} factory that initialises the cipher of each entry with its own initialisation vector, so that
+ * entries can be decrypted independently of each other. The IV of an encrypting {@code Cipher} is freshly generated:
+ * it is to be written in clear at the beginning of the entry, before the encrypted bytes, and read back to create the
+ * decrypting {@code Cipher} of the entry.
+ *
+ * @see EntryDatasourceEncryptionStrategy
+ */
+public interface EntryDatasourceCipherFactory {
+
+  /**
+   * Returns the number of bytes of the IV found at the beginning of each entry.
+   *
+   * @return the length of the IV
+   */
+  int getIvLength();
+
+  /**
+   * Returns true when the ciphers authenticate the entries, in which case a decrypting {@code Cipher} only detects an
+   * altered entry when {@code doFinal} is called with its last bytes.
+   *
+   * @return true if the entries are authenticated
+   */
+  boolean isAuthenticating();
+
+  /**
+   * Returns a newly initialised instance of a {@code Cipher} configured for encrypting an entry with a new IV.
+   *
+   * @return a new encrypting {@code Cipher} instance, which IV is returned by {@code Cipher#getIV()}.
+   */
+  Cipher createEncryptingCipher();
+
+  /**
+   * Returns a newly initialised instance of a {@code Cipher} configured for decrypting an entry.
+   *
+   * @param iv the IV read at the beginning of the entry
+   * @return a new decrypting {@code Cipher} instance.
+   */
+  Cipher createDecryptingCipher(byte[] iv);
+
+}
@@ -0,0 +1,23 @@
+package org.obiba.magma.datasource.crypt;
+
+import javax.annotation.Nullable;
+
+import org.obiba.magma.Datasource;
+
+/**
+ * A {@link DatasourceEncryptionStrategy} that may encrypt each entry of a {@code Datasource} with its own
+ * initialisation vector.
+ */
+public interface EntryDatasourceEncryptionStrategy extends DatasourceEncryptionStrategy {
+
+  /**
+   * Creates a new instance of {@code EntryDatasourceCipherFactory} when the entries of the datasource are encrypted
+   * with their own IV.
+   *
+   * @param ds
+   * @return null when the entries are encrypted by the ciphers of {@link #createDatasourceCipherFactory(Datasource)}
+   */
+  @Nullable
+  EntryDatasourceCipherFactory createEntryDatasourceCipherFactory(Datasource ds);
+
+}
@@ -0,0 +1,77 @@
+package org.obiba.magma.datasource.crypt;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.obiba.magma.crypt.MagmaCryptRuntimeException;
+
+/**
+ * An {@code EntryDatasourceCipherFactory} for counter based modes (CTR or GCM) that initialises every encrypting
+ * {@code Cipher} with a random IV, since a key and IV pair must never be used twice with these modes.
+ */
+class EntryIvDatasourceCipherFactory extends AbstractDatasourceCipherFactory implements EntryDatasourceCipherFactory {
+
+  static final int GCM_IV_LENGTH = 12;
+
+  static final int GCM_TAG_LENGTH = 128;
+
+  private final SecretKey secretKey;
+
+  private final int ivLength;
+
+  private final boolean gcm;
+
+  private final SecureRandom random = new SecureRandom();
+
+  EntryIvDatasourceCipherFactory(String transformation, SecretKey secretKey, int ivLength) {
+    super(transformation);
+    this.secretKey = secretKey;
+    this.ivLength = ivLength;
+    gcm = transformation.toUpperCase().contains("/GCM/");
+  }
+
+  @Override
+  public int getIvLength() {
+    return ivLength;
+  }
+
+  @Override
+  public boolean isAuthenticating() {
+    return gcm;
+  }
+
+  @Override
+  public Cipher createEncryptingCipher() {
+    byte[] iv = new byte[ivLength];
+    random.nextBytes(iv);
+    try {
+      Cipher cipher = getCipher();
+      cipher.init(Cipher.ENCRYPT_MODE, secretKey, getParameterSpec(iv));
+      return cipher;
+    } catch(GeneralSecurityException e) {
+      throw new MagmaCryptRuntimeException("Invalid parameters for encrypting Datasource.", e);
+    }
+  }
+
+  @Override
+  public Cipher createDecryptingCipher(byte[] iv) {
+    try {
+      Cipher cipher = getCipher();
+      cipher.init(Cipher.DECRYPT_MODE, secretKey, getParameterSpec(iv));
+      return cipher;
+    } catch(GeneralSecurityException e) {
+      throw new MagmaCryptRuntimeException("Invalid parameters for decrypting Datasource.", e);
+    }
+  }
+
+  private AlgorithmParameterSpec getParameterSpec(byte... iv) {
+    return gcm ? new GCMParameterSpec(GCM_TAG_LENGTH, iv) : new IvParameterSpec(iv);
+  }
+
+}
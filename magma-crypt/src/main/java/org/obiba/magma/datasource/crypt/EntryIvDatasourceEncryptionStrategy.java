@@ -0,0 +1,65 @@
+package org.obiba.magma.datasource.crypt;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.obiba.magma.Datasource;
+import org.obiba.magma.crypt.MagmaCryptRuntimeException;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.type.TextType;
+
+/**
+ * Creates an {@link EntryDatasourceCipherFactory} that encrypts each entry with a newly generated {@code SecretKey} in
+ * a counter based mode of AES (CTR by default, or GCM) and a random IV by entry. The IV is written in clear at the
+ * beginning of the entry, so that entries can be decrypted independently and in parallel. These modes are
+ * accelerated by the AES instructions of the processors. GCM also authenticates each entry, which must then be
+ * decrypted at once to be verified, and requires a provider that supports it, such as the JCE of Java 8.
+ * <p/>
+ * The attributes of {@link GeneratedSecretKeyDatasourceEncryptionStrategy} are added to the datasource, except for
+ * the algorithm parameters and the IV which are replaced by
+ * {@link CipherAttributeConstants#CIPHER_ENTRY_IV_LENGTH}. The datasource is decrypted using
+ * {@link EncryptedSecretKeyDatasourceEncryptionStrategy}.
+ */
+public class EntryIvDatasourceEncryptionStrategy extends GeneratedSecretKeyDatasourceEncryptionStrategy
+    implements EntryDatasourceEncryptionStrategy {
+
+  public EntryIvDatasourceEncryptionStrategy() {
+    setAlgorithm("AES");
+    setMode("CTR");
+    setPadding("NoPadding");
+  }
+
+  @Override
+  public EntryDatasourceCipherFactory createEntryDatasourceCipherFactory(Datasource ds) {
+    SecretKey sk = generateSecretKey(ds);
+    String transformation = getTransformation();
+    int ivLength = transformation.toUpperCase().contains("/GCM/")
+        ? EntryIvDatasourceCipherFactory.GCM_IV_LENGTH
+        : getBlockSize(transformation);
+    ds.setAttributeValue(CipherAttributeConstants.CIPHER_TRANSFORMATION, TextType.get().valueOf(transformation));
+    ds.setAttributeValue(CipherAttributeConstants.CIPHER_ENTRY_IV_LENGTH, IntegerType.get().valueOf(ivLength));
+    return new EntryIvDatasourceCipherFactory(transformation, sk, ivLength);
+  }
+
+  /**
+   * Not supported: the entries are encrypted with their own IV, which a {@code DatasourceCipherFactory} cannot handle.
+   *
+   * @throws MagmaCryptRuntimeException always
+   */
+  @Override
+  public DatasourceCipherFactory createDatasourceCipherFactory(Datasource ds) {
+    throw new MagmaCryptRuntimeException("Entries of Datasource '" + ds.getName() +
+        "' are encrypted with their own IV and require an EntryDatasourceCipherFactory.");
+  }
+
+  private static int getBlockSize(String transformation) {
+    try {
+      return Cipher.getInstance(transformation).getBlockSize();
+    } catch(GeneralSecurityException e) {
+      throw new MagmaCryptRuntimeException("Unsupported transformation " + transformation, e);
+    }
+  }
+
+}
@@ -67,17 +67,11 @@ public class GeneratedSecretKeyDatasourceEncryptionStrategy implements Datasourc
 
   @Override
   public DatasourceCipherFactory createDatasourceCipherFactory(Datasource ds) {
-    // If there's already a secret key in the datasource, then stop. We cannot read the contents.
-    if(ds.hasAttribute(CipherAttributeConstants.SECRET_KEY)) {
-      throw new MagmaCryptRuntimeException(
-          "Datasource '" + ds.getName() + "' is encrypted and cannot be read without the proper decryption key.");
-    }
-
+    SecretKey sk = generateSecretKey(ds);
     try {
 
       String transformation = getTransformation();
 
-      SecretKey sk = getSecretKey(ds);
       AlgorithmParameters parameters = initialiseParameters(ds, transformation, sk);
 
       return new DefaultDatasourceCipherFactory(transformation, sk, parameters);
@@ -90,6 +84,23 @@ public class GeneratedSecretKeyDatasourceEncryptionStrategy implements Datasourc
   // Methods
   //
 
+  /**
+   * Generates the {@code SecretKey} of a new datasource and adds it, wrapped by the {@code PublicKey}, to the
+   * datasource attributes.
+   */
+  protected SecretKey generateSecretKey(Datasource ds) {
+    // If there's already a secret key in the datasource, then stop. We cannot read the contents.
+    if(ds.hasAttribute(CipherAttributeConstants.SECRET_KEY)) {
+      throw new MagmaCryptRuntimeException(
+          "Datasource '" + ds.getName() + "' is encrypted and cannot be read without the proper decryption key.");
+    }
+    try {
+      return getSecretKey(ds);
+    } catch(NoSuchAlgorithmException e) {
+      throw new MagmaRuntimeException(e);
+    }
+  }
+
   public void setMode(String mode) {
     this.mode = mode;
   }
@@ -0,0 +1,19 @@
+package org.obiba.magma.datasource.crypt;
+
+import javax.crypto.Cipher;
+
+/**
+ * A {@code Cipher} factory that reuses the instances handed back once their entry is processed. Callers check whether
+ * a cipher factory implements this interface to release the ciphers they obtained from it.
+ */
+public interface PooledCipherFactory {
+
+  /**
+   * Hands back a {@code Cipher} obtained from this factory once the entry it was used for is entirely processed, so
+   * that the instance may be reused by the calling thread. Ciphers that are not released are simply not reused.
+   *
+   * @param cipher a cipher created by this factory, that is no longer used
+   */
+  void releaseCipher(Cipher cipher);
+
+}
@@ -0,0 +1,144 @@
+package org.obiba.magma.datasource.crypt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.Datasource;
+import org.obiba.magma.crypt.KeyProvider;
+import org.obiba.magma.crypt.MagmaCryptRuntimeException;
+import org.obiba.magma.crypt.support.GeneratedKeyPairProvider;
+import org.obiba.magma.support.StaticDatasource;
+import org.obiba.magma.test.AbstractMagmaTest;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class EntryIvDatasourceEncryptionStrategyTest extends AbstractMagmaTest {
+
+  private static final byte[] ENTRY = "an entry of the datasource".getBytes(StandardCharsets.UTF_8);
+
+  private KeyProvider keyProvider;
+
+  private Datasource datasource;
+
+  @Before
+  public void setUp() throws GeneralSecurityException {
+    keyProvider = new GeneratedKeyPairProvider();
+    datasource = new StaticDatasource("ds");
+  }
+
+  @Test
+  public void test_ctr_round_trip() throws GeneralSecurityException {
+    assertRoundTrip("CTR");
+  }
+
+  @Test
+  public void test_gcm_round_trip() throws GeneralSecurityException {
+    assumeTrue(isGcmSupported());
+    assertRoundTrip("GCM");
+  }
+
+  @Test(expected = AEADBadTagException.class)
+  public void test_gcm_altered_entry() throws GeneralSecurityException {
+    assumeTrue(isGcmSupported());
+    Cipher cipher = createEncryptingFactory("GCM").createEncryptingCipher();
+    byte[] iv = cipher.getIV();
+    byte[] encrypted = cipher.doFinal(ENTRY);
+    encrypted[0] ^= 1;
+    createDecryptingFactory().createDecryptingCipher(iv).doFinal(encrypted);
+  }
+
+  @Test
+  public void test_released_cipher_is_reused() throws GeneralSecurityException {
+    EntryDatasourceCipherFactory encryptingFactory = createEncryptingFactory("CTR");
+    Cipher cipher = encryptingFactory.createEncryptingCipher();
+    byte[] firstIv = cipher.getIV();
+    byte[] firstEntry = cipher.doFinal(ENTRY);
+    ((PooledCipherFactory) encryptingFactory).releaseCipher(cipher);
+
+    // the same instance encrypts the next entry with another IV
+    Cipher reused = encryptingFactory.createEncryptingCipher();
+    assertThat(reused).isSameAs(cipher);
+    byte[] secondIv = reused.getIV();
+    assertThat(secondIv).isNotEqualTo(firstIv);
+    byte[] secondEntry = reused.doFinal(ENTRY);
+    assertThat(secondEntry).isNotEqualTo(firstEntry);
+
+    EntryDatasourceCipherFactory decryptingFactory = createDecryptingFactory();
+    Cipher decrypting = decryptingFactory.createDecryptingCipher(firstIv);
+    assertThat(decrypting.doFinal(firstEntry)).isEqualTo(ENTRY);
+    ((PooledCipherFactory) decryptingFactory).releaseCipher(decrypting);
+    Cipher reusedDecrypting = decryptingFactory.createDecryptingCipher(secondIv);
+    assertThat(reusedDecrypting).isSameAs(decrypting);
+    assertThat(reusedDecrypting.doFinal(secondEntry)).isEqualTo(ENTRY);
+  }
+
+  @Test
+  public void test_datasource_without_entry_iv() throws GeneralSecurityException {
+    DatasourceEncryptionStrategy encryption = new GeneratedSecretKeyDatasourceEncryptionStrategy();
+    encryption.setKeyProvider(keyProvider);
+    byte[] encrypted = encryption.createDatasourceCipherFactory(datasource).createEncryptingCipher().doFinal(ENTRY);
+
+    EncryptedSecretKeyDatasourceEncryptionStrategy decryption = new EncryptedSecretKeyDatasourceEncryptionStrategy();
+    decryption.setKeyProvider(keyProvider);
+    assertThat(decryption.createEntryDatasourceCipherFactory(datasource)).isNull();
+    assertThat(decryption.createDatasourceCipherFactory(datasource).createDecryptingCipher().doFinal(encrypted))
+        .isEqualTo(ENTRY);
+  }
+
+  @Test(expected = MagmaCryptRuntimeException.class)
+  public void test_entry_iv_datasource_requires_entry_cipher_factory() {
+    createEncryptingFactory("CTR");
+    EncryptedSecretKeyDatasourceEncryptionStrategy decryption = new EncryptedSecretKeyDatasourceEncryptionStrategy();
+    decryption.setKeyProvider(keyProvider);
+    decryption.createDatasourceCipherFactory(datasource);
+  }
+
+  /**
+   * GCM is provided by the JCE of Java 8 only.
+   */
+  static boolean isGcmSupported() {
+    try {
+      Cipher.getInstance("AES/GCM/NoPadding");
+      return true;
+    } catch(GeneralSecurityException e) {
+      return false;
+    }
+  }
+
+  private void assertRoundTrip(String mode) throws GeneralSecurityException {
+    Cipher cipher = createEncryptingFactory(mode).createEncryptingCipher();
+    byte[] iv = cipher.getIV();
+    byte[] encrypted = cipher.doFinal(ENTRY);
+    assertThat(encrypted).isNotEqualTo(ENTRY);
+
+    EntryDatasourceCipherFactory decryptingFactory = createDecryptingFactory();
+    assertThat(decryptingFactory.getIvLength()).isEqualTo(iv.length);
+    assertThat(decryptingFactory.isAuthenticating()).isEqualTo("GCM".equals(mode));
+    assertThat(decryptingFactory.createDecryptingCipher(iv).doFinal(encrypted)).isEqualTo(ENTRY);
+  }
+
+  private EntryDatasourceCipherFactory createEncryptingFactory(String mode) {
+    EntryIvDatasourceEncryptionStrategy encryption = new EntryIvDatasourceEncryptionStrategy();
+    encryption.setKeyProvider(keyProvider);
+    encryption.setMode(mode);
+    return encryption.createEntryDatasourceCipherFactory(datasource);
+  }
+
+  /**
+   * Reads the secret key and the IV length back from the attributes of the datasource.
+   */
+  private EntryDatasourceCipherFactory createDecryptingFactory() {
+    EncryptedSecretKeyDatasourceEncryptionStrategy decryption = new EncryptedSecretKeyDatasourceEncryptionStrategy();
+    decryption.setKeyProvider(keyProvider);
+    EntryDatasourceCipherFactory factory = decryption.createEntryDatasourceCipherFactory(datasource);
+    assertThat(factory).isNotNull();
+    return factory;
+  }
+
+}
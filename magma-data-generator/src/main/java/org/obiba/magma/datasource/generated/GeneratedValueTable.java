@@ -38,7 +38,7 @@ public class GeneratedValueTable implements ValueTable {
 
   private final Set<Variable> dictionary;
 
-  private final Set<VariableEntity> entities;
+  private final SortedSet<VariableEntity> entities;
 
   private final RandomGenerator randomGenerator;
 
@@ -120,6 +120,16 @@ public class GeneratedValueTable implements ValueTable {
     throw new NoSuchValueSetException(this, entity);
   }
 
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    return Iterables.transform(entities, new Function<VariableEntity, ValueSet>() {
+      @Override
+      public ValueSet apply(VariableEntity from) {
+        return getValueSet(from);
+      }
+    });
+  }
+
   @Override
   public boolean canDropValueSets() {
     return false;
@@ -148,14 +158,7 @@ public class GeneratedValueTable implements ValueTable {
 
   @Override
   public Iterable<ValueSet> getValueSets() {
-    return Iterables.transform(entities, new Function<VariableEntity, ValueSet>() {
-
-      @Override
-      public ValueSet apply(VariableEntity from) {
-        return new GeneratedValueSet(GeneratedValueTable.this, from);
-      }
-    });
-
+    return getValueSets(entities);
   }
 
   @Override
@@ -55,6 +55,8 @@ public class CsvDatasource extends AbstractDatasource {
 
   private int firstRow = 1;
 
+  private boolean indexFileEnabled = false;
+
   public CsvDatasource(String name) {
     super(name, TYPE);
   }
@@ -225,4 +227,16 @@ public class CsvDatasource extends AbstractDatasource {
     return firstRow;
   }
 
+  /**
+   * Whether the index of each data file is stored in a file next to it, so that it is not parsed again the next time
+   * the datasource is initialised.
+   */
+  public void setIndexFileEnabled(boolean indexFileEnabled) {
+    this.indexFileEnabled = indexFileEnabled;
+  }
+
+  public boolean isIndexFileEnabled() {
+    return indexFileEnabled;
+  }
+
 }
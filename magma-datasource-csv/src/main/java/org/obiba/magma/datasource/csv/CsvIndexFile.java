@@ -0,0 +1,180 @@
+package org.obiba.magma.datasource.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.support.VariableEntityBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Binary index of a csv data file, stored next to it, so that the data file does not have to be parsed again when the
+ * table is initialised. The index file is identified by the size, the last modification time and a hash of the first
+ * block of the data file, as well as by the parsing settings of the datasource: it is ignored when any of these have
+ * changed.
+ */
+class CsvIndexFile {
+
+  private static final Logger log = LoggerFactory.getLogger(CsvIndexFile.class);
+
+  static final String SUFFIX = ".idx";
+
+  private static final int MAGIC = 0x4d434958; // MCIX
+
+  private static final int VERSION = 1;
+
+  private static final int FIRST_BLOCK_SIZE = 65536;
+
+  private final File dataFile;
+
+  private final File indexFile;
+
+  private final CsvDatasource datasource;
+
+  CsvIndexFile(File dataFile, CsvDatasource datasource) {
+    this.dataFile = dataFile;
+    this.datasource = datasource;
+    indexFile = new File(dataFile.getParentFile(), dataFile.getName() + SUFFIX);
+  }
+
+  File getFile() {
+    return indexFile;
+  }
+
+  /**
+   * Reads the header and the entity index of the data file from the memory mapped index file.
+   *
+   * @param dataHeaderMap
+   * @param entityIndex
+   * @param entityType
+   * @return false if there is no index file or if it does not match the data file, in which case nothing is read
+   */
+  boolean read(Map<String, Integer> dataHeaderMap, Map<VariableEntity, CsvIndexEntry> entityIndex,
+      String entityType) {
+    if(!indexFile.exists() || !dataFile.exists()) return false;
+    try(RandomAccessFile raf = new RandomAccessFile(indexFile, "r"); FileChannel channel = raf.getChannel()) {
+      if(channel.size() > Integer.MAX_VALUE) return false;
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !readKey(buffer)) {
+        log.debug("Index file {} is out of date", indexFile);
+        return false;
+      }
+      int headerSize = buffer.getInt();
+      for(int i = 0; i < headerSize; i++) {
+        String name = getString(buffer);
+        dataHeaderMap.put(name, buffer.getInt());
+      }
+      int nbEntities = buffer.getInt();
+      for(int i = 0; i < nbEntities; i++) {
+        String identifier = getString(buffer);
+        entityIndex.put(new VariableEntityBean(entityType, identifier),
+            new CsvIndexEntry(buffer.getLong(), buffer.getLong()));
+      }
+      return true;
+    } catch(IOException | BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+      log.warn("Unable to read index file {}: {}", indexFile, e.getMessage());
+      dataHeaderMap.clear();
+      entityIndex.clear();
+      return false;
+    }
+  }
+
+  /**
+   * Writes the header and the entity index of the data file. The index is written to a temporary file that is then
+   * renamed, so that an incomplete index file is never read.
+   *
+   * @param dataHeaderMap
+   * @param entityIndex
+   */
+  void write(Map<String, Integer> dataHeaderMap, Map<VariableEntity, CsvIndexEntry> entityIndex) {
+    File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+    try {
+      try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeKey(out);
+        out.writeInt(dataHeaderMap.size());
+        for(Map.Entry<String, Integer> entry : dataHeaderMap.entrySet()) {
+          writeString(out, entry.getKey());
+          out.writeInt(entry.getValue());
+        }
+        out.writeInt(entityIndex.size());
+        for(Map.Entry<VariableEntity, CsvIndexEntry> entry : entityIndex.entrySet()) {
+          writeString(out, entry.getKey().getIdentifier());
+          out.writeLong(entry.getValue().getStart());
+          out.writeLong(entry.getValue().getEnd());
+        }
+      }
+      delete();
+      if(!tmpFile.renameTo(indexFile)) throw new IOException("cannot rename " + tmpFile);
+    } catch(IOException e) {
+      log.warn("Unable to write index file {}: {}", indexFile, e.getMessage());
+      if(tmpFile.exists() && !tmpFile.delete()) tmpFile.deleteOnExit();
+    }
+  }
+
+  /**
+   * Deletes the index file, when the data file is modified.
+   */
+  void delete() {
+    if(indexFile.exists() && !indexFile.delete()) {
+      log.warn("Unable to delete index file {}", indexFile);
+    }
+  }
+
+  private void writeKey(DataOutputStream out) throws IOException {
+    out.writeLong(dataFile.length());
+    out.writeLong(dataFile.lastModified());
+    out.writeLong(hashFirstBlock());
+    writeString(out, datasource.getCharacterSet());
+    out.writeChar(datasource.getSeparator().getCharacter());
+    out.writeChar(datasource.getQuote().getCharacter());
+    out.writeInt(datasource.getFirstRow());
+  }
+
+  private boolean readKey(MappedByteBuffer buffer) throws IOException {
+    return buffer.getLong() == dataFile.length() && buffer.getLong() == dataFile.lastModified() &&
+        buffer.getLong() == hashFirstBlock() && getString(buffer).equals(datasource.getCharacterSet()) &&
+        buffer.getChar() == datasource.getSeparator().getCharacter() &&
+        buffer.getChar() == datasource.getQuote().getCharacter() && buffer.getInt() == datasource.getFirstRow();
+  }
+
+  private long hashFirstBlock() throws IOException {
+    byte[] block = new byte[FIRST_BLOCK_SIZE];
+    try(InputStream in = new FileInputStream(dataFile)) {
+      CRC32 crc = new CRC32();
+      crc.update(block, 0, ByteStreams.read(in, block, 0, block.length));
+      return crc.getValue();
+    }
+  }
+
+  private static void writeString(DataOutputStream out, @Nullable String str) throws IOException {
+    byte[] bytes = (str == null ? "" : str).getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String getString(MappedByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,60 @@
+package org.obiba.magma.datasource.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Read-only memory mapping of a csv file, from which the portions given by byte offsets are decoded. The file is mapped
+ * by segments as a single mapping cannot exceed 2GB.
+ */
+class CsvMappedFile {
+
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  private final MappedByteBuffer[] segments;
+
+  private final long length;
+
+  private final Charset charset;
+
+  CsvMappedFile(File file, Charset charset) throws IOException {
+    this.charset = charset;
+    try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      length = channel.size();
+      segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+      for(int i = 0; i < segments.length; i++) {
+        long position = i * SEGMENT_SIZE;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, length - position));
+      }
+    }
+  }
+
+  long length() {
+    return length;
+  }
+
+  /**
+   * Decodes the bytes from {@code start} (inclusive) to {@code end} (exclusive), or to the end of the file if it is
+   * reached before.
+   */
+  String read(long start, long end) {
+    byte[] bytes = new byte[(int) Math.max(0, Math.min(end, length) - start)];
+    int read = 0;
+    while(read < bytes.length) {
+      long position = start + read;
+      // duplicate the segment so that concurrent reads do not share its position
+      ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)].duplicate();
+      segment.position((int) (position % SEGMENT_SIZE));
+      int count = Math.min(bytes.length - read, segment.remaining());
+      segment.get(bytes, read, count);
+      read += count;
+    }
+    return new String(bytes, charset);
+  }
+
+}
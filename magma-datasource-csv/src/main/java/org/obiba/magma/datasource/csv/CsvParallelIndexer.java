@@ -0,0 +1,232 @@
+package org.obiba.magma.datasource.csv;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import javax.annotation.Nullable;
+
+import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.datasource.csv.support.ByteLineReader;
+import org.obiba.magma.datasource.csv.support.LineReader;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Longs;
+
+import au.com.bytecode.opencsv.CSVParser;
+
+/**
+ * Indexes the records of a csv data file in parallel. The file is split in chunks that start at the beginning of a
+ * line, the chunks are indexed on a fork-join pool and they are to be merged in file order. Splitting on line
+ * boundaries is only safe when no quoted value spans several lines: if such a record is found, or if a record has no
+ * identifier, the file is to be indexed sequentially.
+ */
+class CsvParallelIndexer {
+
+  /**
+   * Files smaller than this are indexed sequentially.
+   */
+  static final long MIN_FILE_SIZE = 32L * 1024 * 1024;
+
+  static final long DEFAULT_CHUNK_SIZE = 8L * 1024 * 1024;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final File file;
+
+  private final Charset charset;
+
+  private final CsvDatasource datasource;
+
+  private final int parallelism;
+
+  private final long chunkSize;
+
+  CsvParallelIndexer(File file, Charset charset, CsvDatasource datasource, int parallelism, long chunkSize) {
+    this.file = file;
+    this.charset = charset;
+    this.datasource = datasource;
+    this.parallelism = parallelism;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Indexes the chunks of the file.
+   *
+   * @return the indexed chunks in file order, null if the file must be indexed sequentially
+   * @throws IOException
+   */
+  @Nullable
+  List<Chunk> index() throws IOException {
+    long[] boundaries = split();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      List<ForkJoinTask<Chunk>> tasks = new ArrayList<>(boundaries.length - 1);
+      for(int i = 0; i < boundaries.length - 1; i++) {
+        tasks.add(pool.submit(new ChunkTask(i == 0, boundaries[i], boundaries[i + 1])));
+      }
+      List<Chunk> chunks = new ArrayList<>(tasks.size());
+      for(ForkJoinTask<Chunk> task : tasks) {
+        Chunk chunk = task.join();
+        if(!chunk.safe) return null;
+        chunks.add(chunk);
+      }
+      return chunks;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Gets the boundaries of the chunks, from the beginning to the end of the file.
+   */
+  private long[] split() throws IOException {
+    long length = file.length();
+    List<Long> boundaries = new ArrayList<>();
+    boundaries.add(0L);
+    try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      long boundary = 0;
+      while(boundary + chunkSize < length) {
+        boundary = nextLineStart(raf, boundary + chunkSize);
+        if(boundary < length) boundaries.add(boundary);
+      }
+    }
+    boundaries.add(length);
+    return Longs.toArray(boundaries);
+  }
+
+  /**
+   * Gets the position of the beginning of the first line that starts after the given position, or the length of the
+   * file if there is none.
+   */
+  private static long nextLineStart(RandomAccessFile raf, long position) throws IOException {
+    raf.seek(position);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    boolean eol = false;
+    long cursor = position;
+    int n;
+    while((n = raf.read(buffer)) > 0) {
+      for(int i = 0; i < n; i++, cursor++) {
+        boolean isEol = buffer[i] == '\n' || buffer[i] == '\r';
+        if(eol && !isEol) return cursor;
+        eol |= isEol;
+      }
+    }
+    return cursor;
+  }
+
+  /**
+   * The records of a chunk of the file.
+   */
+  static class Chunk {
+
+    private boolean safe = true;
+
+    private int lines;
+
+    private int firstDataLine;
+
+    @Nullable
+    private String[] header;
+
+    private final List<String> identifiers = new ArrayList<>();
+
+    private final List<CsvIndexEntry> entries = new ArrayList<>();
+
+    /**
+     * Number of lines in the chunk, header lines included.
+     */
+    int getLines() {
+      return lines;
+    }
+
+    /**
+     * Line number of the first record in the chunk, relative to the beginning of the chunk.
+     */
+    int getFirstDataLine() {
+      return firstDataLine;
+    }
+
+    /**
+     * The values of the header line, if the chunk is the first one.
+     */
+    @Nullable
+    String[] getHeader() {
+      return header;
+    }
+
+    List<String> getIdentifiers() {
+      return identifiers;
+    }
+
+    List<CsvIndexEntry> getEntries() {
+      return entries;
+    }
+  }
+
+  private class ChunkTask extends RecursiveTask<Chunk> {
+
+    private static final long serialVersionUID = 5474625373613466211L;
+
+    private final boolean first;
+
+    private final long start;
+
+    private final long end;
+
+    private ChunkTask(boolean first, long start, long end) {
+      this.first = first;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected Chunk compute() {
+      Chunk chunk = new Chunk();
+      int firstRow = first ? datasource.getFirstRow() : 0;
+      chunk.firstDataLine = firstRow;
+      CSVParser parser = datasource.getCsvParser();
+      try(FileInputStream in = new FileInputStream(file)) {
+        in.getChannel().position(start);
+        try(LineReader reader = new ByteLineReader(ByteStreams.limit(in, end - start), charset)) {
+          long recordStart = start;
+          String line;
+          while((line = reader.readLine()) != null) {
+            String[] values = parser.parseLineMulti(line);
+            if(parser.isPending()) {
+              // a quoted value spans several lines, chunks may not start at the beginning of a record
+              chunk.safe = false;
+              return chunk;
+            }
+            long recordEnd = start + reader.getCursorPosition();
+            if(chunk.lines < firstRow) {
+              if(chunk.header == null) chunk.header = values;
+            } else if(Strings.isNullOrEmpty(values[0])) {
+              chunk.safe = false;
+              return chunk;
+            } else {
+              chunk.identifiers.add(values[0]);
+              chunk.entries.add(new CsvIndexEntry(recordStart, recordEnd));
+            }
+            chunk.lines++;
+            recordStart = recordEnd;
+          }
+        }
+      } catch(IOException e) {
+        throw new MagmaRuntimeException(e);
+      }
+      // the header lines must all be in the first chunk
+      if(chunk.lines < firstRow) chunk.safe = false;
+      return chunk;
+    }
+  }
+
+}
@@ -1,19 +1,23 @@
 package org.obiba.magma.datasource.csv;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
 
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
@@ -22,15 +26,19 @@ import org.obiba.magma.Datasource;
 import org.obiba.magma.Disposable;
 import org.obiba.magma.Initialisable;
 import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.MultiVectorSource;
 import org.obiba.magma.NoSuchValueSetException;
 import org.obiba.magma.NoSuchVariableException;
 import org.obiba.magma.Timestamps;
+import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.datasource.csv.converter.VariableConverter;
 import org.obiba.magma.datasource.csv.support.BufferedReaderEolSupport;
+import org.obiba.magma.datasource.csv.support.ByteLineReader;
+import org.obiba.magma.datasource.csv.support.LineReader;
 import org.obiba.magma.support.AbstractValueTable;
 import org.obiba.magma.support.DatasourceParsingException;
 import org.obiba.magma.support.VariableEntityBean;
@@ -40,14 +48,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
 
 import au.com.bytecode.opencsv.CSVParser;
 import au.com.bytecode.opencsv.CSVReader;
 import au.com.bytecode.opencsv.CSVWriter;
 
 @SuppressWarnings({ "OverlyCoupledClass", "OverlyComplexClass" })
-public class CsvValueTable extends AbstractValueTable implements Initialisable, Disposable {
+public class CsvValueTable extends AbstractValueTable implements Initialisable, Disposable, MultiVectorSource {
 
   public static final String DEFAULT_ENTITY_TYPE = "Participant";
 
@@ -91,6 +101,9 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
 
   private final CsvTimestamps timestamps;
 
+  @Nullable
+  private volatile CsvMappedFile mappedDataFile;
+
   public CsvValueTable(Datasource datasource, String name, File dataFile, String entityType) {
     this(datasource, name, null, dataFile, entityType);
   }
@@ -129,15 +142,168 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     if(indexEntry == null) {
       throw new NoSuchValueSetException(this, entity);
     }
+    try {
+      CsvMappedFile mappedFile = getMappedDataFile();
+      if(mappedFile != null) {
+        CSVParser parser = getCsvDatasource().getCsvParser();
+        return new CsvValueSet(this, entity, dataHeaderMap, parseRow(parser, mappedFile, indexEntry));
+      }
+      try(Reader reader = getCsvDatasource().getReader(dataFile)) {
+        CSVReader csvReader = getCsvDatasource().getCsvReader(reader);
+        skipSafely(reader, indexEntry.getStart());
+        return new CsvValueSet(this, entity, dataHeaderMap, csvReader.readNext());
+      }
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads the rows of the requested entities in a single pass over the data file, in file order.
+   */
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    final ValueSet[] valueSets = new ValueSet[entities.size()];
+    readRows(getRowsInFileOrder(entities, false), new RowHandler() {
+      @Override
+      public void handle(Row row, String... line) {
+        valueSets[row.position] = new CsvValueSet(CsvValueTable.this, row.entity, dataHeaderMap, line);
+      }
+    });
+    return Arrays.asList(valueSets);
+  }
+
+  /**
+   * Reads the values of several variables for the requested entities in a single pass over the data file. Rows are
+   * read in file order and only the columns of the requested variables are converted to values. Entities that are not
+   * in the table get null values.
+   *
+   * @param variables
+   * @param entities
+   * @return the values of each variable by variable name, in the order of the requested entities
+   */
+  @Override
+  public Map<String, List<Value>> getValues(final List<Variable> variables, SortedSet<VariableEntity> entities) {
+    final Value[][] columns = new Value[variables.size()][entities.size()];
+    readRows(getRowsInFileOrder(entities, true), new RowHandler() {
+      @Override
+      public void handle(Row row, String... line) {
+        CsvValueSet valueSet = new CsvValueSet(CsvValueTable.this, row.entity, dataHeaderMap, line);
+        for(int i = 0; i < columns.length; i++) {
+          columns[i][row.position] = valueSet.getValue(variables.get(i));
+        }
+      }
+    });
+
+    Map<String, List<Value>> values = Maps.newLinkedHashMap();
+    for(int i = 0; i < columns.length; i++) {
+      Value nullValue = variables.get(i).getValueType().nullValue();
+      for(int j = 0; j < columns[i].length; j++) {
+        if(columns[i][j] == null) columns[i][j] = nullValue;
+      }
+      values.put(variables.get(i).getName(), Arrays.asList(columns[i]));
+    }
+    return values;
+  }
+
+  /**
+   * Gets the rows of the requested entities, sorted by their position in the data file.
+   *
+   * @param entities
+   * @param skipUnknown whether entities that are not in the table are ignored instead of being reported
+   * @throws NoSuchValueSetException if an entity is not in the table and unknown ones are not skipped
+   */
+  private List<Row> getRowsInFileOrder(Iterable<VariableEntity> entities, boolean skipUnknown) {
+    List<Row> rows = new ArrayList<>();
+    int position = 0;
+    for(VariableEntity entity : entities) {
+      CsvIndexEntry indexEntry = entityIndex.get(entity);
+      if(indexEntry != null) {
+        rows.add(new Row(position, entity, indexEntry));
+      } else if(!skipUnknown) {
+        throw new NoSuchValueSetException(this, entity);
+      }
+      position++;
+    }
+    Collections.sort(rows, new Comparator<Row>() {
+      @Override
+      public int compare(Row o1, Row o2) {
+        return Long.compare(o1.indexEntry.getStart(), o2.indexEntry.getStart());
+      }
+    });
+    return rows;
+  }
+
+  /**
+   * Reads the given rows, sorted in file order, from the mapped data file or in a single pass over the data file.
+   */
+  private void readRows(List<Row> rows, RowHandler handler) {
+    if(rows.isEmpty()) return;
+    CSVParser parser = getCsvDatasource().getCsvParser();
+    try {
+      CsvMappedFile mappedFile = getMappedDataFile();
+      if(mappedFile != null) {
+        for(Row row : rows) {
+          handler.handle(row, parseRow(parser, mappedFile, row.indexEntry));
+        }
+        return;
+      }
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    }
+
     try(Reader reader = getCsvDatasource().getReader(dataFile)) {
-      CSVReader csvReader = getCsvDatasource().getCsvReader(reader);
-      skipSafely(reader, indexEntry.getStart());
-      return new CsvValueSet(this, entity, dataHeaderMap, csvReader.readNext());
+      long position = 0;
+      for(Row row : rows) {
+        CsvIndexEntry indexEntry = row.indexEntry;
+        skipSafely(reader, indexEntry.getStart() - position);
+        String line = readSafely(reader, (int) (indexEntry.getEnd() - indexEntry.getStart()));
+        position = indexEntry.getEnd();
+        handler.handle(row, parser.parseLine(CharMatcher.anyOf("\r\n").trimTrailingFrom(line)));
+      }
     } catch(IOException e) {
       throw new MagmaRuntimeException(e);
     }
   }
 
+  private String[] parseRow(CSVParser parser, CsvMappedFile mappedFile, CsvIndexEntry indexEntry)
+      throws IOException {
+    String row = mappedFile.read(indexEntry.getStart(), indexEntry.getEnd());
+    return parser.parseLine(CharMatcher.anyOf("\r\n").trimTrailingFrom(row));
+  }
+
+  /**
+   * Gets the memory mapping of the data file, mapping it if it was not or if it has changed since. Index entries are
+   * byte offsets in the data file when its character set is supported by {@link ByteLineReader}.
+   *
+   * @return null if index entries are character offsets
+   * @throws IOException
+   */
+  @Nullable
+  private CsvMappedFile getMappedDataFile() throws IOException {
+    if(!isByteIndexed()) return null;
+    CsvMappedFile mappedFile = mappedDataFile;
+    if(mappedFile == null) {
+      synchronized(this) {
+        if(mappedDataFile == null) {
+          mappedDataFile = new CsvMappedFile(dataFile, getCharset());
+        }
+        mappedFile = mappedDataFile;
+      }
+    }
+    return mappedFile;
+  }
+
+  private boolean isByteIndexed() {
+    return ByteLineReader.supports(getCharset());
+  }
+
+  private LineReader getLineReader(File file) throws IOException {
+    return isByteIndexed()
+        ? new ByteLineReader(new FileInputStream(file), getCharset())
+        : new BufferedReaderEolSupport(getCsvDatasource().getReader(file));
+  }
+
   @Override
   public void initialise() {
     try {
@@ -173,7 +339,7 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
           // skip first header as it's the participant ID
           for(int i = 1; i < line.length; i++) {
             String variableName = line[i].trim();
-            addVariableValueSource(new CsvVariableValueSource(Variable.Builder
+            addVariableValueSource(new CsvVariableValueSource(this, Variable.Builder
                 .newVariable(variableName, TextType.get(), entityType == null ? DEFAULT_ENTITY_TYPE : entityType)
                 .build()));
           }
@@ -230,7 +396,7 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
       // update only variable that was in data file
       if(hasVariable(variableName)) {
         removeVariableValueSource(variableName);
-        addVariableValueSource(new CsvVariableValueSource(var));
+        addVariableValueSource(new CsvVariableValueSource(this, var));
       }
       nextLine = variableReader.readNext();
     }
@@ -242,7 +408,7 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
       // update only variable that was in data file
       if(hasVariable(var.getName())) {
         removeVariableValueSource(var.getName());
-        addVariableValueSource(new CsvVariableValueSource(var));
+        addVariableValueSource(new CsvVariableValueSource(this, var));
       }
     }
     missingVariableNames = getMissingVariableNames();
@@ -264,7 +430,26 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
   }
 
   private void initialiseData() throws IOException {
+    CsvIndexFile indexFile = getIndexFile();
+    if(indexFile != null && indexFile.read(dataHeaderMap, entityIndex, entityType)) {
+      isDataFileEmpty = dataFile.length() == 0;
+      dataHeaderMapInitialized = !isDataFileEmpty && getCsvDatasource().getFirstRow() > 0;
+      return;
+    }
     buildDataLineIndex();
+    if(indexFile != null && !isDataFileEmpty) {
+      indexFile.write(dataHeaderMap, entityIndex);
+    }
+  }
+
+  /**
+   * Gets the index file of the data file, if index files are enabled.
+   */
+  @Nullable
+  private CsvIndexFile getIndexFile() {
+    return dataFile != null && getCsvDatasource().isIndexFileEnabled()
+        ? new CsvIndexFile(dataFile, getCsvDatasource())
+        : null;
   }
 
   @NotNull
@@ -278,7 +463,7 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     }
 
     CSVParser parser = getCsvDatasource().getCsvParser();
-    try(BufferedReaderEolSupport reader = new BufferedReaderEolSupport(getCsvDatasource().getReader(variableFile))) {
+    try(LineReader reader = getLineReader(variableFile)) {
       int line = 0;
       int innerline = 0;
       long start = 0;
@@ -317,9 +502,20 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
       return lineNumberMap;
     }
 
+    if(isParallelIndexed()) {
+      List<CsvParallelIndexer.Chunk> chunks = new CsvParallelIndexer(dataFile, getCharset(), getCsvDatasource(),
+          Runtime.getRuntime().availableProcessors(), CsvParallelIndexer.DEFAULT_CHUNK_SIZE).index();
+      if(chunks != null) {
+        mergeDataChunks(chunks, lineNumberMap);
+        if(log.isTraceEnabled()) traceLineNumberMap(lineNumberMap, dataFile);
+        return lineNumberMap;
+      }
+      log.debug("Data file {} has multi-line records, indexing it sequentially", dataFile.getName());
+    }
+
     CSVParser parser = getCsvDatasource().getCsvParser();
 
-    try(BufferedReaderEolSupport reader = new BufferedReaderEolSupport(getCsvDatasource().getReader(dataFile))) {
+    try(LineReader reader = getLineReader(dataFile)) {
       int line = 0;
       int innerline = 0;
       long start = 0;
@@ -344,15 +540,9 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
               throw new MagmaRuntimeException(
                   "Cannot find identifier for line " + line + " in file " + dataFile.getName());
             }
-            CsvIndexEntry indexEntry = new CsvIndexEntry(start, cursorPosition);
-            lineNumberMap.put(lineNumber, indexEntry);
-            entityIndex.put(new VariableEntityBean(entityType, identifier), indexEntry);
+            indexEntity(lineNumber, identifier, new CsvIndexEntry(start, cursorPosition), lineNumberMap);
           } else if(!dataHeaderMapInitialized) {
-            // first line(s) is headers = entity_id + variable names
-            for(int i = 1; i < values.length; i++) {
-              dataHeaderMap.put(values[i].trim(), i);
-            }
-            dataHeaderMapInitialized = true;
+            initialiseDataHeader(values);
           }
           multiLineValues.clear();
           innerline = 0;
@@ -367,6 +557,52 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     return lineNumberMap;
   }
 
+  /**
+   * Data files that are large enough are indexed in parallel if their line-termination characters are single bytes.
+   */
+  private boolean isParallelIndexed() {
+    return isByteIndexed() && Runtime.getRuntime().availableProcessors() > 1 &&
+        dataFile.length() >= CsvParallelIndexer.MIN_FILE_SIZE;
+  }
+
+  /**
+   * Merges the chunks of the data file indexed in parallel, in file order.
+   */
+  private void mergeDataChunks(Iterable<CsvParallelIndexer.Chunk> chunks, Map<Integer, CsvIndexEntry> lineNumberMap) {
+    isDataFileEmpty = false;
+    int lineOffset = 0;
+    for(CsvParallelIndexer.Chunk chunk : chunks) {
+      if(chunk.getHeader() != null && !dataHeaderMapInitialized) {
+        initialiseDataHeader(chunk.getHeader());
+      }
+      List<String> identifiers = chunk.getIdentifiers();
+      List<CsvIndexEntry> entries = chunk.getEntries();
+      for(int i = 0; i < identifiers.size(); i++) {
+        indexEntity(lineOffset + chunk.getFirstDataLine() + i, identifiers.get(i), entries.get(i), lineNumberMap);
+      }
+      lineOffset += chunk.getLines();
+    }
+  }
+
+  private void indexEntity(int lineNumber, String identifier, CsvIndexEntry indexEntry,
+      Map<Integer, CsvIndexEntry> lineNumberMap) {
+    lineNumberMap.put(lineNumber, indexEntry);
+    if(entityIndex.put(new VariableEntityBean(entityType, identifier), indexEntry) != null) {
+      log.warn("Duplicate identifier {} at line {} in file {}, the last record is used", identifier, lineNumber,
+          dataFile.getName());
+    }
+  }
+
+  /**
+   * First line(s) is headers = entity_id + variable names.
+   */
+  private void initialiseDataHeader(String... values) {
+    for(int i = 1; i < values.length; i++) {
+      dataHeaderMap.put(values[i].trim(), i);
+    }
+    dataHeaderMapInitialized = true;
+  }
+
   private <T extends CsvIndexEntry> void traceLineNumberMap(Map<Integer, T> lineNumberMap, File file) {
 
     if(!log.isTraceEnabled()) return;
@@ -402,6 +638,7 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     if(indexEntry != null) {
       clear(dataFile, indexEntry);
       entityIndex.remove(entity);
+      dataChanged();
     }
   }
 
@@ -418,6 +655,32 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     }
   }
 
+  /**
+   * A requested entity, with its position in the request and the index entry of its row in the data file.
+   */
+  private static class Row {
+
+    private final int position;
+
+    private final VariableEntity entity;
+
+    private final CsvIndexEntry indexEntry;
+
+    private Row(int position, VariableEntity entity, CsvIndexEntry indexEntry) {
+      this.position = position;
+      this.entity = entity;
+      this.indexEntry = indexEntry;
+    }
+  }
+
+  private interface RowHandler {
+
+    void handle(Row row, String... line);
+  }
+
+  /**
+   * The values of several variables for the same entities, read in one pass over the data file.
+   */
   private class CSVVariableEntityProvider implements VariableEntityProvider {
 
     @NotNull
@@ -526,13 +789,34 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
   }
 
   public void updateDataIndex(VariableEntity entity, long lastByte, String... line) {
+    updateDataIndex(entity, lastByte, lastByte + lineLength(line));
+  }
+
+  /**
+   * Indexes the row of an entity that was appended to the data file.
+   *
+   * @param entity
+   * @param start byte offset of the row
+   * @param end byte offset following the row
+   */
+  public void updateDataIndex(VariableEntity entity, long start, long end) {
     log.trace("entityIndex: {}", entityIndex);
-    entityIndex.put(entity, new CsvIndexEntry(lastByte, lastByte + lineLength(line)));
+    entityIndex.put(entity, new CsvIndexEntry(start, end));
+    dataChanged();
+  }
+
+  /**
+   * Discards what was read from the data file before it was written.
+   */
+  private void dataChanged() {
+    mappedDataFile = null;
+    CsvIndexFile indexFile = getIndexFile();
+    if(indexFile != null) indexFile.delete();
   }
 
   public void updateVariableIndex(Variable variable, long lastByte, String... line) {
     variableNameIndex.put(variable.getName(), new CsvIndexEntry(lastByte, lastByte + lineLength(line)));
-    addVariableValueSource(new CsvVariableValueSource(variable));
+    addVariableValueSource(new CsvVariableValueSource(this, variable));
   }
 
   private int lineLength(String... line) {
@@ -617,6 +901,10 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     return getCsvDatasource().getCharacterSet();
   }
 
+  private Charset getCharset() {
+    return Charset.forName(getCharacterSet());
+  }
+
   /**
    * Skips {@code skip} bytes in {@code reader} and tests that that amount of byte were effectively skipped. This method
    * throws an IOException if the number of bytes actually skipped is not identical to the number of requested bytes to
@@ -626,6 +914,20 @@ public class CsvValueTable extends AbstractValueTable implements Initialisable,
     if(reader.skip(skip) != skip) throw new IOException("error seeking in file");
   }
 
+  /**
+   * Reads {@code length} characters from {@code reader}, or less if the end of the stream is reached.
+   */
+  private String readSafely(Reader reader, int length) throws IOException {
+    char[] buffer = new char[length];
+    int read = 0;
+    while(read < length) {
+      int count = reader.read(buffer, read, length - read);
+      if(count < 0) break;
+      read += count;
+    }
+    return new String(buffer, 0, read);
+  }
+
   /**
    * Returns missing {@link Variable}s. All variables will be of the default value "text". Missing variables are created
    * for variables names specified in a csv data file that are not provided with associated {@link Variable}s when the
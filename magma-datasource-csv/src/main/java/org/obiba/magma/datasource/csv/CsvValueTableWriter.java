@@ -143,7 +143,7 @@ public class CsvValueTableWriter implements ValueTableWriter {
         String[] line = csvLine.getLine();
         writeValueToCsv(line);
         // Update index
-        valueTable.updateDataIndex(entity, lastByte, line);
+        valueTable.updateDataIndex(entity, lastByte, valueTable.getDataLastByte());
       } catch(IOException e) {
         throw new RuntimeException(e);
       }
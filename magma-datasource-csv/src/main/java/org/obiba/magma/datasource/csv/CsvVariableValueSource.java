@@ -1,5 +1,8 @@
 package org.obiba.magma.datasource.csv;
 
+import java.util.SortedSet;
+
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
 import org.obiba.magma.AbstractVariableValueSource;
@@ -7,10 +10,13 @@ import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueType;
 import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
 import org.obiba.magma.VectorSource;
 import org.obiba.magma.VectorSourceNotSupportedException;
 
+import com.google.common.collect.ImmutableList;
+
 /**
  * Used in two cases:
  * <ol>
@@ -18,11 +24,23 @@ import org.obiba.magma.VectorSourceNotSupportedException;
  * <li>When the variables provided are a reference from another table</li>
  * </ol>
  */
-public class CsvVariableValueSource extends AbstractVariableValueSource implements VariableValueSource {
+public class CsvVariableValueSource extends AbstractVariableValueSource implements VariableValueSource, VectorSource {
+
+  @Nullable
+  private final CsvValueTable table;
 
   private final Variable variable;
 
   public CsvVariableValueSource(Variable variable) {
+    this(null, variable);
+  }
+
+  /**
+   * @param table the table from which the value vectors are read, null if vectors are not supported
+   * @param variable
+   */
+  public CsvVariableValueSource(@Nullable CsvValueTable table, Variable variable) {
+    this.table = table;
     this.variable = variable;
   }
 
@@ -46,13 +64,23 @@ public class CsvVariableValueSource extends AbstractVariableValueSource implemen
 
   @Override
   public boolean supportVectorSource() {
-    return false;
+    return table != null;
   }
 
   @NotNull
   @Override
   public VectorSource asVectorSource() {
-    throw new VectorSourceNotSupportedException(getClass());
+    if(table == null) throw new VectorSourceNotSupportedException(getClass());
+    return this;
+  }
+
+  /**
+   * Values are read in a single pass over the data file, converting only the column of this variable.
+   */
+  @Override
+  public Iterable<Value> getValues(SortedSet<VariableEntity> entities) {
+    if(table == null) throw new VectorSourceNotSupportedException(getClass());
+    return table.getValues(ImmutableList.of(variable), entities).get(variable.getName());
   }
 
   @Override
@@ -21,7 +21,7 @@ import javax.annotation.Nullable;
 @SuppressWarnings({ "OverlyLongMethod", "FieldCanBeLocal", "SynchronizeOnNonFinalField", "UnusedLabel",
     "UnnecessaryLabelOnBreakStatement", "ParameterHidesMemberVariable", "StaticNonFinalField", "FieldMayBeFinal",
     "MagicNumber", "PMD.NcssMethodCount" })
-public class BufferedReaderEolSupport extends Reader {
+public class BufferedReaderEolSupport extends Reader implements LineReader {
 
   private Reader in;
 
@@ -267,6 +267,7 @@ public class BufferedReaderEolSupport extends Reader {
    * @see java.io.LineNumberReader#readLine()
    */
   @Nullable
+  @Override
   public String readLine() throws IOException {
     StringBuffer s = null;
     int startChar;
@@ -462,6 +463,7 @@ public class BufferedReaderEolSupport extends Reader {
     }
   }
 
+  @Override
   public long getCursorPosition() {
     return bufferOffset + nextChar;
   }
@@ -0,0 +1,113 @@
+package org.obiba.magma.datasource.csv.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads the lines of a stream of bytes and decodes them, the cursor position being a byte offset in the stream. Lines
+ * are split on the line feed and carriage return bytes, which requires an ASCII compatible character set: see
+ * {@link #supports(Charset)}.
+ */
+public class ByteLineReader implements LineReader {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final InputStream in;
+
+  private final Charset charset;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  private int count;
+
+  private int next;
+
+  private long bufferOffset;
+
+  private byte[] line = new byte[BUFFER_SIZE];
+
+  public ByteLineReader(InputStream in, Charset charset) {
+    if(!supports(charset)) throw new IllegalArgumentException("Unsupported character set: " + charset);
+    this.in = in;
+    this.charset = charset;
+  }
+
+  /**
+   * Whether the line-termination characters of the character set are single ASCII bytes, that cannot be found inside
+   * the encoding of another character.
+   */
+  public static boolean supports(Charset charset) {
+    return charset.canEncode() && Arrays.equals("\n\r".getBytes(charset), new byte[] { '\n', '\r' });
+  }
+
+  @Nullable
+  @Override
+  public String readLine() throws IOException {
+    int length = 0;
+    while(true) {
+      if(next >= count && !fill()) {
+        return length == 0 ? null : new String(line, 0, length, charset);
+      }
+      int i = next;
+      while(i < count && !isEol(buffer[i])) {
+        i++;
+      }
+      length = append(length, i);
+      if(i < count) {
+        skipEol();
+        return new String(line, 0, length, charset);
+      }
+    }
+  }
+
+  @Override
+  public long getCursorPosition() {
+    return bufferOffset + next;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private int append(int length, int end) {
+    int appended = end - next;
+    if(length + appended > line.length) {
+      line = Arrays.copyOf(line, Math.max(line.length * 2, length + appended));
+    }
+    System.arraycopy(buffer, next, line, length, appended);
+    next = end;
+    return length + appended;
+  }
+
+  /**
+   * Skips the line-termination characters, including the ones of following empty lines.
+   */
+  private void skipEol() throws IOException {
+    while(next < count || fill()) {
+      if(!isEol(buffer[next])) return;
+      next++;
+    }
+  }
+
+  private boolean fill() throws IOException {
+    bufferOffset += count;
+    next = 0;
+    count = 0;
+    int n;
+    do {
+      n = in.read(buffer);
+    } while(n == 0);
+    if(n < 0) return false;
+    count = n;
+    return true;
+  }
+
+  private static boolean isEol(byte b) {
+    return b == '\n' || b == '\r';
+  }
+}
@@ -0,0 +1,27 @@
+package org.obiba.magma.datasource.csv.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads the lines of a csv file and tells the position of the cursor in the file, so that records can be indexed.
+ */
+public interface LineReader extends Closeable {
+
+  /**
+   * Reads a line, without its line-termination characters. The line-termination characters that follow are skipped.
+   *
+   * @return the line or null if the end of the file has been reached
+   * @throws IOException
+   */
+  @Nullable
+  String readLine() throws IOException;
+
+  /**
+   * Position of the next character to be read.
+   */
+  long getCursorPosition();
+
+}
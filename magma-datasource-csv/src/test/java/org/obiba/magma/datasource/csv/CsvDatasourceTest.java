@@ -2,12 +2,15 @@ package org.obiba.magma.datasource.csv;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.SortedSet;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import org.obiba.magma.Category;
+import org.obiba.magma.MultiVectorSource;
 import org.obiba.magma.NoSuchValueSetException;
 import org.obiba.magma.NoSuchVariableException;
 import org.obiba.magma.Value;
@@ -16,6 +19,7 @@ import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VectorSource;
 import org.obiba.magma.datasource.csv.support.Quote;
 import org.obiba.magma.datasource.csv.support.Separator;
 import org.obiba.magma.support.DatasourceParsingException;
@@ -28,6 +32,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
@@ -141,6 +147,53 @@ public class CsvDatasourceTest extends AbstractMagmaTest {
     assertThat(var.getAttribute("ns2", "attr", Locale.ENGLISH).getValue().toString()).isEqualTo("ns2");
   }
 
+  @Test
+  public void test_table_value_sets_read() {
+    CsvDatasource datasource = new CsvDatasource("csv-datasource").addValueTable("Table1", //
+        getFileFromResource("org/obiba/magma/datasource/csv/Table1/variables.csv"), //
+        getFileFromResource("org/obiba/magma/datasource/csv/Table1/data.csv"));
+    datasource.initialise();
+
+    ValueTable table = datasource.getValueTable("Table1");
+    Variable var = table.getVariable("var1");
+    SortedSet<VariableEntity> entities = Sets.newTreeSet(table.getVariableEntities());
+
+    List<String> identifiers = Lists.newArrayList();
+    for(ValueSet valueSet : table.getValueSets(entities)) {
+      identifiers.add(valueSet.getVariableEntity().getIdentifier());
+      assertThat(table.getValue(var, valueSet))
+          .isEqualTo(table.getValue(var, table.getValueSet(valueSet.getVariableEntity())));
+    }
+    assertThat(identifiers).containsExactly("1", "2", "3", "4");
+  }
+
+  @Test
+  public void test_vector_source_read() {
+    CsvDatasource datasource = new CsvDatasource("csv-datasource").addValueTable("Table1", //
+        getFileFromResource("org/obiba/magma/datasource/csv/Table1/variables.csv"), //
+        getFileFromResource("org/obiba/magma/datasource/csv/Table1/data.csv"));
+    datasource.initialise();
+
+    ValueTable table = datasource.getValueTable("Table1");
+    assertThat(table.getVariableValueSource("var1").supportVectorSource()).isTrue();
+    VectorSource var1 = table.getVariableValueSource("var1").asVectorSource();
+    VectorSource var2 = table.getVariableValueSource("var2").asVectorSource();
+
+    SortedSet<VariableEntity> entities = Sets.<VariableEntity>newTreeSet(
+        Lists.newArrayList(new VariableEntityBean(DEFAULT_ENTITY_TYPE, "3"),
+            new VariableEntityBean(DEFAULT_ENTITY_TYPE, "1"), new VariableEntityBean(DEFAULT_ENTITY_TYPE, "5")));
+    assertThat(Lists.newArrayList(var1.getValues(entities)))
+        .containsExactly(TextType.get().valueOf("Y"), TextType.get().valueOf("PNA"), TextType.get().nullValue());
+    assertThat(Lists.newArrayList(var2.getValues(entities)))
+        .containsExactly(IntegerType.get().valueOf(11), IntegerType.get().valueOf(13), IntegerType.get().nullValue());
+
+    Map<String, List<Value>> values = ((MultiVectorSource) table)
+        .getValues(Lists.newArrayList(table.getVariable("var2"), table.getVariable("var1")), entities);
+    assertThat(values.keySet()).containsOnly("var1", "var2");
+    assertThat(values.get("var1")).isEqualTo(Lists.newArrayList(var1.getValues(entities)));
+    assertThat(values.get("var2")).isEqualTo(Lists.newArrayList(var2.getValues(entities)));
+  }
+
   @Test
   public void test_table_data_read() {
     CsvDatasource datasource = new CsvDatasource("csv-datasource").addValueTable("Table1", //
@@ -557,6 +610,58 @@ public class CsvDatasourceTest extends AbstractMagmaTest {
     assertEolValue(table, "5", "Nero", "NERO CLAVDIVS CAESAR AVGVSTVS GERMANICVS");
   }
 
+  @Test
+  public void test_multibyte_characters_random_read() throws IOException {
+    File dataFile = File.createTempFile("magma", "test-multibyte");
+    dataFile.deleteOnExit();
+    FileUtils.writeStringToFile(dataFile, "entity_id,Name\n" + //
+        "1,\"Ren\u00e9e \u00c9lo\u00efse\"\n" + //
+        "2,\u65e5\u672c\u8a9e\r\n" + //
+        "3,Zo\u00eb\n", "utf-8");
+
+    CsvDatasource datasource = new CsvDatasource("csv-datasource")
+        .addValueTable("Table1", dataFile, DEFAULT_ENTITY_TYPE);
+    datasource.initialise();
+
+    ValueTable table = datasource.getValueTable("Table1");
+    Variable variable = table.getVariable("Name");
+    assertThat(table.getValue(variable, table.getValueSet(new VariableEntityBean(DEFAULT_ENTITY_TYPE, "3"))))
+        .isEqualTo(TextType.get().valueOf("Zo\u00eb"));
+    assertThat(table.getValue(variable, table.getValueSet(new VariableEntityBean(DEFAULT_ENTITY_TYPE, "2"))))
+        .isEqualTo(TextType.get().valueOf("\u65e5\u672c\u8a9e"));
+    assertThat(table.getValue(variable, table.getValueSet(new VariableEntityBean(DEFAULT_ENTITY_TYPE, "1"))))
+        .isEqualTo(TextType.get().valueOf("Ren\u00e9e \u00c9lo\u00efse"));
+  }
+
+  @Test
+  public void test_index_file() throws IOException {
+    File dataFile = File.createTempFile("magma", "test-index");
+    dataFile.deleteOnExit();
+    FileUtils.writeStringToFile(dataFile, "entity_id,Name\n1,Augustus\n2,Tiberius\n3,Caligula\n", "utf-8");
+    File indexFile = new File(dataFile.getParentFile(), dataFile.getName() + CsvIndexFile.SUFFIX);
+    indexFile.deleteOnExit();
+
+    CsvDatasource datasource = new CsvDatasource("csv-datasource")
+        .addValueTable("Table1", dataFile, DEFAULT_ENTITY_TYPE);
+    datasource.setIndexFileEnabled(true);
+    datasource.initialise();
+    assertThat(indexFile.exists()).isTrue();
+
+    CsvDatasource indexedDatasource = new CsvDatasource("csv-datasource")
+        .addValueTable("Table1", dataFile, DEFAULT_ENTITY_TYPE);
+    indexedDatasource.setIndexFileEnabled(true);
+    indexedDatasource.initialise();
+    CsvValueTable table = (CsvValueTable) indexedDatasource.getValueTable("Table1");
+    assertThat(table.getVariableEntities()).hasSize(3);
+    assertThat(table.getDataHeaderMap()).isEqualTo(ImmutableMap.of("Name", 1));
+    VariableEntity entity = new VariableEntityBean(DEFAULT_ENTITY_TYPE, "2");
+    assertThat(table.getValue(table.getVariable("Name"), table.getValueSet(entity)))
+        .isEqualTo(TextType.get().valueOf("Tiberius"));
+
+    table.clearEntity(entity);
+    assertThat(indexFile.exists()).isFalse();
+  }
+
   private void assertEolVariable(ValueTable table, String name) {
     Variable variable = table.getVariable(name);
     assertThat(variable).isNotNull();
@@ -0,0 +1,66 @@
+package org.obiba.magma.datasource.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class CsvParallelIndexerTest {
+
+  @Test
+  public void test_index_chunks() throws IOException {
+    StringBuilder data = new StringBuilder("entity_id,var1,var2\n");
+    for(int i = 0; i < 100; i++) {
+      data.append(i).append(",\"value ").append(i).append("\",").append(i * 2).append(i % 3 == 0 ? "\r\n" : "\n");
+    }
+    File dataFile = createDataFile(data.toString());
+
+    List<CsvParallelIndexer.Chunk> chunks = newIndexer(dataFile).index();
+    assertThat(chunks).isNotNull();
+    //noinspection ConstantConditions
+    assertThat(chunks.size()).isGreaterThan(1);
+    assertThat(chunks.get(0).getHeader()).containsOnly("entity_id", "var1", "var2");
+
+    CsvMappedFile mappedFile = new CsvMappedFile(dataFile, Charsets.UTF_8);
+    List<String> identifiers = Lists.newArrayList();
+    for(CsvParallelIndexer.Chunk chunk : chunks) {
+      for(int i = 0; i < chunk.getIdentifiers().size(); i++) {
+        String identifier = chunk.getIdentifiers().get(i);
+        CsvIndexEntry entry = chunk.getEntries().get(i);
+        assertThat(mappedFile.read(entry.getStart(), entry.getEnd())).startsWith(identifier + ",\"value " + identifier);
+        identifiers.add(identifier);
+      }
+    }
+    assertThat(identifiers).hasSize(100);
+    assertThat(identifiers.get(0)).isEqualTo("0");
+    assertThat(identifiers.get(99)).isEqualTo("99");
+  }
+
+  @Test
+  public void test_multiline_records_are_not_split() throws IOException {
+    StringBuilder data = new StringBuilder("entity_id,var1\n");
+    for(int i = 0; i < 100; i++) {
+      data.append(i).append(",\"line ").append(i).append("\nnext line\"\n");
+    }
+    assertThat(newIndexer(createDataFile(data.toString())).index()).isNull();
+  }
+
+  private CsvParallelIndexer newIndexer(File dataFile) {
+    return new CsvParallelIndexer(dataFile, Charsets.UTF_8, new CsvDatasource("csv-datasource"), 4, 64);
+  }
+
+  private File createDataFile(String data) throws IOException {
+    File dataFile = File.createTempFile("magma", "test-parallel");
+    dataFile.deleteOnExit();
+    FileUtils.writeStringToFile(dataFile, data, "utf-8");
+    return dataFile;
+  }
+
+}
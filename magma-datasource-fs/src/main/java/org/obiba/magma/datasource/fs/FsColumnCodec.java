@@ -0,0 +1,110 @@
+package org.obiba.magma.datasource.fs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueType;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+/**
+ * Binary encoding of the values of a column entry. Each value is a kind byte followed, for non null values, by the
+ * UTF-8 encoding of its string representation, as written in the value set entries. Values which string representation
+ * is empty are null values, as they are read from the value set entries.
+ */
+final class FsColumnCodec {
+
+  static final byte NULL_VALUE = 0;
+
+  static final byte VALUE = 1;
+
+  static final byte SEQUENCE = 2;
+
+  static final byte NULL_SEQUENCE = 3;
+
+  private FsColumnCodec() {}
+
+  static void writeValue(DataOutput out, Value value) throws IOException {
+    if(!value.isSequence()) {
+      writeElement(out, value);
+    } else if(value.isNull()) {
+      out.writeByte(NULL_SEQUENCE);
+    } else {
+      List<Value> values = value.asSequence().getValues();
+      out.writeByte(SEQUENCE);
+      out.writeInt(values.size());
+      for(Value element : values) {
+        writeElement(out, element);
+      }
+    }
+  }
+
+  static Value readValue(DataInput in, ValueType valueType) throws IOException {
+    byte kind = in.readByte();
+    switch(kind) {
+      case NULL_VALUE:
+        return valueType.nullValue();
+      case VALUE:
+        return valueType.valueOf(readString(in));
+      case NULL_SEQUENCE:
+        return valueType.nullSequence();
+      case SEQUENCE:
+        int size = in.readInt();
+        List<Value> values = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+          values.add(in.readByte() == VALUE ? valueType.valueOf(readString(in)) : valueType.nullValue());
+        }
+        return valueType.sequenceOf(values);
+      default:
+        throw new IOException("Unexpected value kind in column: " + kind);
+    }
+  }
+
+  /**
+   * Skips a value without decoding it.
+   */
+  static void skipValue(DataInput in) throws IOException {
+    byte kind = in.readByte();
+    if(kind == VALUE) {
+      skipString(in);
+    } else if(kind == SEQUENCE) {
+      int size = in.readInt();
+      for(int i = 0; i < size; i++) {
+        if(in.readByte() == VALUE) skipString(in);
+      }
+    }
+  }
+
+  static void writeString(DataOutput out, String str) throws IOException {
+    byte[] bytes = str.getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  private static void writeElement(DataOutput out, Value value) throws IOException {
+    String str = value.isNull() ? null : Strings.emptyToNull(value.toString());
+    if(str == null) {
+      out.writeByte(NULL_VALUE);
+    } else {
+      out.writeByte(VALUE);
+      writeString(out, str);
+    }
+  }
+
+  private static void skipString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if(in.skipBytes(length) != length) throw new IOException("Unexpected end of column");
+  }
+
+}
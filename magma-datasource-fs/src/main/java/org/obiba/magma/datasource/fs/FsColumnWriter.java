@@ -0,0 +1,149 @@
+package org.obiba.magma.datasource.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+
+import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.Value;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.datasource.fs.FsDatasource.OutputCallback;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Writes the values of the value sets written to a table by variable, in compressed column entries. A column holds one
+ * value per row, rows being the entities in the order of the entity dictionary entry. Columns are held compressed in
+ * memory until the writer is closed.
+ */
+class FsColumnWriter {
+
+  private final FsValueTable valueTable;
+
+  private final List<String> identifiers = Lists.newArrayList();
+
+  private final Set<String> identifierSet = Sets.newHashSet();
+
+  private final Map<String, Column> columns = Maps.newLinkedHashMap();
+
+  /**
+   * Pads column entry names with zeroes
+   */
+  private final NumberFormat entryFilenameFormat = new DecimalFormat("0000000");
+
+  private boolean valid = true;
+
+  FsColumnWriter(FsValueTable valueTable) {
+    this.valueTable = valueTable;
+  }
+
+  /**
+   * Adds the values of an entity as a new row.
+   *
+   * @param entity
+   * @param values the values by variable name
+   */
+  synchronized void writeRow(VariableEntity entity, Map<String, Value> values) {
+    if(!valid) return;
+    if(!identifierSet.add(entity.getIdentifier())) {
+      // an entity written twice would have two rows, columns are not written
+      valid = false;
+      columns.clear();
+      return;
+    }
+    int row = identifiers.size();
+    identifiers.add(entity.getIdentifier());
+    try {
+      for(Map.Entry<String, Value> entry : values.entrySet()) {
+        Column column = columns.get(entry.getKey());
+        if(column == null) {
+          columns.put(entry.getKey(), column = new Column());
+        }
+        column.write(row, entry.getValue());
+      }
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes the entity dictionary, the column entries and the index of the columns by variable name.
+   */
+  synchronized void close() {
+    if(!valid) return;
+    final Map<String, String> columnEntries = Maps.newLinkedHashMap();
+    try {
+      try(DataOutputStream out = new DataOutputStream(
+          new DeflaterOutputStream(valueTable.createOutputStream(FsValueTable.COLUMN_ENTITIES_NAME)))) {
+        out.writeInt(identifiers.size());
+        for(String identifier : identifiers) {
+          FsColumnCodec.writeString(out, identifier);
+        }
+      }
+      for(Map.Entry<String, Column> entry : columns.entrySet()) {
+        String entryName = FsValueTable.COLUMNS_DIRECTORY + "/" +
+            entryFilenameFormat.format(columnEntries.size() + 1) + ".col";
+        try(OutputStream out = valueTable.createOutputStream(entryName)) {
+          out.write(entry.getValue().finish(identifiers.size()));
+        }
+        columnEntries.put(entry.getKey(), entryName);
+      }
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    }
+
+    valueTable.writeEntry(FsValueTable.COLUMNS_NAME, new OutputCallback<Void>() {
+      @Override
+      public Void writeEntry(Writer writer) throws IOException {
+        try(ObjectOutputStream oos = valueTable.getDatasource().getXStreamInstance()
+            .createObjectOutputStream(writer, "columns")) {
+          oos.writeObject(columnEntries);
+          return null;
+        }
+      }
+    });
+    valueTable.setColumns(columnEntries);
+  }
+
+  private static class Column {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+
+    private int rows;
+
+    private void write(int row, Value value) throws IOException {
+      pad(row);
+      FsColumnCodec.writeValue(out, value);
+      rows++;
+    }
+
+    /**
+     * Adds null values to the rows of the entities that had no value for this column.
+     */
+    private void pad(int row) throws IOException {
+      for(; rows < row; rows++) {
+        out.writeByte(FsColumnCodec.NULL_VALUE);
+      }
+    }
+
+    private byte[] finish(int nbRows) throws IOException {
+      pad(nbRows);
+      out.close();
+      return bytes.toByteArray();
+    }
+  }
+
+}
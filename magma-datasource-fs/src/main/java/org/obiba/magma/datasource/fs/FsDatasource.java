@@ -3,13 +3,17 @@ package org.obiba.magma.datasource.fs;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
@@ -22,6 +26,8 @@ import org.obiba.magma.ValueTable;
 import org.obiba.magma.ValueTableWriter;
 import org.obiba.magma.datasource.crypt.DatasourceCipherFactory;
 import org.obiba.magma.datasource.crypt.DatasourceEncryptionStrategy;
+import org.obiba.magma.datasource.crypt.EntryDatasourceCipherFactory;
+import org.obiba.magma.datasource.crypt.EntryDatasourceEncryptionStrategy;
 import org.obiba.magma.datasource.fs.input.CipherInputStreamWrapper;
 import org.obiba.magma.datasource.fs.input.NullInputStreamWrapper;
 import org.obiba.magma.datasource.fs.output.ChainedOutputStreamWrapper;
@@ -32,9 +38,11 @@ import org.obiba.magma.support.AbstractDatasource;
 import org.obiba.magma.type.BooleanType;
 import org.obiba.magma.type.TextType;
 import org.obiba.magma.xstream.MagmaXStreamExtension;
+import org.obiba.magma.xstream.XStreamValueSetCodec;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.thoughtworks.xstream.XStream;
 
 import de.schlichtherle.io.ArchiveException;
@@ -54,6 +62,8 @@ public class FsDatasource extends AbstractDatasource {
    */
   private static final Charset CHARSET = Charset.availableCharsets().get("UTF-8");
 
+  private static final String XML_SUFFIX = "xml";
+
   private final File datasourceArchive;
 
   @Nullable
@@ -65,6 +75,21 @@ public class FsDatasource extends AbstractDatasource {
 
   private boolean instanceAttributesModified = false;
 
+  private boolean columnar = false;
+
+  private boolean streaming = false;
+
+  @Nullable
+  private String valueSetCodec;
+
+  @Nullable
+  private FsStreamingArchive streamingArchive;
+
+  private int decodingThreads = 1;
+
+  @Nullable
+  private ExecutorService decodingExecutor;
+
   public FsDatasource(String name, java.io.File outputFile,
       @Nullable DatasourceEncryptionStrategy datasourceEncryptionStrategy) {
     this(name, outputFile);
@@ -80,14 +105,80 @@ public class FsDatasource extends AbstractDatasource {
     this.datasourceEncryptionStrategy = datasourceEncryptionStrategy;
   }
 
+  /**
+   * Whether the values written to new tables are also stored by variable, in compressed column entries next to the
+   * value set entries. The values of a variable can then be read without reading all the value sets. Archives written
+   * this way remain readable by readers that do not know about columns.
+   */
+  public void setColumnar(boolean columnar) {
+    this.columnar = columnar;
+  }
+
+  public boolean isColumnar() {
+    return columnar;
+  }
+
+  /**
+   * Whether a new archive is written sequentially as a zip stream, each entry being appended to the archive as soon as
+   * it is written, instead of being staged and committed when the datasource is disposed. Only new archives can be
+   * streamed, the variables and entities of the tables are written when the datasource is disposed, other entries
+   * cannot be rewritten and the archive cannot be read back before the datasource is disposed.
+   */
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * Name of the codec, registered in the {@code MagmaXStreamExtension}, that the value sets of new entities are written
+   * with, null to write them as XML. The entries are named after their codec, so that an archive may hold value sets
+   * written both ways.
+   *
+   * @throws IllegalArgumentException if no codec is registered with this name
+   */
+  public void setValueSetCodec(@Nullable String valueSetCodec) {
+    if(valueSetCodec == null || XML_SUFFIX.equals(valueSetCodec)) {
+      this.valueSetCodec = null;
+    } else if(getXStreamExtension().getValueSetCodec(valueSetCodec) == null) {
+      throw new IllegalArgumentException("No value set codec named " + valueSetCodec);
+    } else {
+      this.valueSetCodec = valueSetCodec;
+    }
+  }
+
+  @Nullable
+  public String getValueSetCodec() {
+    return valueSetCodec;
+  }
+
+  /**
+   * Number of threads that read, decrypt and parse value set entries ahead of the scans of the tables, 1 (the default)
+   * to read them on the calling thread.
+   */
+  public void setDecodingThreads(int decodingThreads) {
+    if(decodingThreads < 1) throw new IllegalArgumentException("decodingThreads must be at least 1");
+    this.decodingThreads = decodingThreads;
+  }
+
+  public int getDecodingThreads() {
+    return decodingThreads;
+  }
+
   @Override
   protected void onInitialise() {
 
     boolean newDatasource = true;
     if(datasourceArchive.exists()) {
+      if(streaming) {
+        throw new MagmaRuntimeException("Datasource '" + getName() + "' cannot be streamed to an existing archive.");
+      }
       readAttributes();
       newDatasource = false;
     } else {
+      if(streaming) openStreamingArchive();
       setAttributeValue("magma.datasource.fs.version", TextType.get().valueOf("1"));
       setAttributeValue("magma.datasource.fs.encrypted",
           hasEncryptionStrategy() ? BooleanType.get().trueValue() : BooleanType.get().falseValue());
@@ -102,10 +193,17 @@ public class FsDatasource extends AbstractDatasource {
       // Make sure our strategy is able to read an existing datasource.
       if(datasourceEncryptionStrategy != null &&
           (newDatasource || datasourceEncryptionStrategy.canDecryptExistingDatasource())) {
-        DatasourceCipherFactory cipherFactory = datasourceEncryptionStrategy.createDatasourceCipherFactory(this);
-        inputStreamWrapper = new CipherInputStreamWrapper(cipherFactory);
-        outputStreamWrapper = new ChainedOutputStreamWrapper(new CipherOutputStreamWrapper(cipherFactory),
-            new DigestOutputStreamWrapper());
+        EntryDatasourceCipherFactory entryCipherFactory = createEntryDatasourceCipherFactory();
+        if(entryCipherFactory == null) {
+          DatasourceCipherFactory cipherFactory = datasourceEncryptionStrategy.createDatasourceCipherFactory(this);
+          inputStreamWrapper = new CipherInputStreamWrapper(cipherFactory);
+          outputStreamWrapper = new ChainedOutputStreamWrapper(new CipherOutputStreamWrapper(cipherFactory),
+              newDigestOutputStreamWrapper());
+        } else {
+          inputStreamWrapper = new CipherInputStreamWrapper(entryCipherFactory);
+          outputStreamWrapper = new ChainedOutputStreamWrapper(new CipherOutputStreamWrapper(entryCipherFactory),
+              newDigestOutputStreamWrapper());
+        }
       } else {
         throw new MagmaRuntimeException(
             "Existing Datasource '" + getName() + "' cannot be decrypted using the specified encryption strategy.");
@@ -116,6 +214,34 @@ public class FsDatasource extends AbstractDatasource {
     }
   }
 
+  /**
+   * Gets the cipher factory of the entries, when they are each encrypted with their own IV.
+   */
+  @Nullable
+  private EntryDatasourceCipherFactory createEntryDatasourceCipherFactory() {
+    return datasourceEncryptionStrategy instanceof EntryDatasourceEncryptionStrategy
+        ? ((EntryDatasourceEncryptionStrategy) datasourceEncryptionStrategy).createEntryDatasourceCipherFactory(this)
+        : null;
+  }
+
+  private void openStreamingArchive() {
+    try {
+      streamingArchive = new FsStreamingArchive(datasourceArchive);
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    }
+  }
+
+  private DigestOutputStreamWrapper newDigestOutputStreamWrapper() {
+    if(streamingArchive == null) return new DigestOutputStreamWrapper();
+    return new DigestOutputStreamWrapper() {
+      @Override
+      protected void writeDigest(File digestEntry, byte[] digest) throws IOException {
+        streamingArchive.putEntry(digestEntry.getEnclEntryName(), digest, digest.length);
+      }
+    };
+  }
+
   @Override
   @NotNull
   public ValueTableWriter createWriter(@NotNull String name, @NotNull String entityType) {
@@ -135,8 +261,11 @@ public class FsDatasource extends AbstractDatasource {
         writeAttributes();
       }
     } finally {
+      shutdownDecodingExecutor();
       try {
-        File.umount(datasourceArchive);
+        closeStreamingArchive();
+        // a streamed archive was written without TrueZIP
+        if(!streaming) File.umount(datasourceArchive);
       } catch(ArchiveWarningException e) {
         // ArchiveWarningException are non-fatal. We choose to ignore them.
       } catch(ArchiveException e) {
@@ -145,6 +274,17 @@ public class FsDatasource extends AbstractDatasource {
     }
   }
 
+  private void closeStreamingArchive() {
+    if(streamingArchive == null) return;
+    try {
+      streamingArchive.close();
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    } finally {
+      streamingArchive = null;
+    }
+  }
+
   @Override
   public void setAttributeValue(String name, Value value) {
     getInstanceAttributes().put(name, Attribute.Builder.newAttribute(name).withValue(value).build());
@@ -178,7 +318,9 @@ public class FsDatasource extends AbstractDatasource {
   }
 
   protected void writeAttributes() {
-    try(Writer writer = new OutputStreamWriter(new FileOutputStream(new File(datasourceArchive, "metadata.xml")),
+    File entry = new File(datasourceArchive, "metadata.xml");
+    try(Writer writer = new OutputStreamWriter(
+        streamingArchive == null ? new FileOutputStream(entry) : streamingArchive.newEntry(entry.getEnclEntryName()),
         CHARSET)) {
       getXStreamInstance().toXML(new LinkedList<>(getInstanceAttributes().values()), writer);
       instanceAttributesModified = false;
@@ -189,7 +331,8 @@ public class FsDatasource extends AbstractDatasource {
 
   @Override
   protected Set<String> getValueTableNames() {
-    if(datasourceArchive.exists()) {
+    // a streamed archive is new, it has no table to read
+    if(!streaming && datasourceArchive.exists()) {
       java.io.File[] files = datasourceArchive.listFiles(new FileFilter() {
         @Override
         public boolean accept(java.io.File pathname) {
@@ -214,9 +357,47 @@ public class FsDatasource extends AbstractDatasource {
     return new File(datasourceArchive, name);
   }
 
+  synchronized ExecutorService getDecodingExecutor() {
+    if(decodingExecutor == null) {
+      decodingExecutor = Executors.newFixedThreadPool(decodingThreads,
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fs-datasource-decoder-%d").build());
+    }
+    return decodingExecutor;
+  }
+
+  private synchronized void shutdownDecodingExecutor() {
+    if(decodingExecutor != null) {
+      decodingExecutor.shutdownNow();
+      decodingExecutor = null;
+    }
+  }
+
   XStream getXStreamInstance() {
     // TODO: Use the FsDatasource version to obtain the proper XStream instance
-    return MagmaEngine.get().getExtension(MagmaXStreamExtension.class).getXStreamFactory().createXStream();
+    return getXStreamExtension().getXStreamFactory().createXStream();
+  }
+
+  private MagmaXStreamExtension getXStreamExtension() {
+    return MagmaEngine.get().getExtension(MagmaXStreamExtension.class);
+  }
+
+  String getValueSetEntrySuffix() {
+    return "." + (valueSetCodec == null ? XML_SUFFIX : valueSetCodec);
+  }
+
+  /**
+   * Gets the codec of a value set entry from its name.
+   *
+   * @param entryName
+   * @return null if the entry is XML
+   */
+  @Nullable
+  XStreamValueSetCodec getValueSetCodec(String entryName) {
+    String suffix = entryName.substring(entryName.lastIndexOf('.') + 1);
+    if(XML_SUFFIX.equals(suffix)) return null;
+    XStreamValueSetCodec codec = getXStreamExtension().getValueSetCodec(suffix);
+    if(codec == null) throw new MagmaRuntimeException("No value set codec for entry " + entryName);
+    return codec;
   }
 
   @Nullable
@@ -240,16 +421,27 @@ public class FsDatasource extends AbstractDatasource {
   }
 
   Reader createReader(File entry) {
+    return new InputStreamReader(createInputStream(entry), CHARSET);
+  }
+
+  Writer createWriter(File entry) {
+    return new OutputStreamWriter(createOutputStream(entry), CHARSET);
+  }
+
+  InputStream createInputStream(File entry) {
     try {
-      return new InputStreamReader(inputStreamWrapper.wrap(new FileInputStream(entry), entry), CHARSET);
+      return inputStreamWrapper.wrap(new FileInputStream(entry), entry);
     } catch(FileNotFoundException e) {
       throw new MagmaRuntimeException(e);
     }
   }
 
-  Writer createWriter(File entry) {
+  OutputStream createOutputStream(File entry) {
+    if(streamingArchive != null) {
+      return outputStreamWrapper.wrap(streamingArchive.newEntry(entry.getEnclEntryName()), entry);
+    }
     try {
-      return new OutputStreamWriter(outputStreamWrapper.wrap(new FileOutputStream(entry), entry), CHARSET);
+      return outputStreamWrapper.wrap(new FileOutputStream(entry), entry);
     } catch(FileNotFoundException e) {
       throw new MagmaRuntimeException(e);
     }
@@ -0,0 +1,70 @@
+package org.obiba.magma.datasource.fs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the entries of a new archive sequentially in a zip stream, instead of staging them in the virtual file system
+ * of TrueZIP which rewrites the whole archive when it is unmounted. An entry is buffered until it is closed and then
+ * appended to the archive, so that several entries can be written concurrently. Entries cannot be overwritten.
+ */
+class FsStreamingArchive implements Closeable {
+
+  private final File archive;
+
+  private final ZipOutputStream zip;
+
+  private final Set<String> entryNames = new HashSet<>();
+
+  FsStreamingArchive(File archive) throws IOException {
+    this.archive = archive;
+    File parent = archive.getAbsoluteFile().getParentFile();
+    if(parent != null && !parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Unable to create the directory of the archive " + archive);
+    }
+    zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archive)));
+  }
+
+  /**
+   * Opens an entry of the archive, which is appended to it when the returned stream is closed.
+   *
+   * @param name path of the entry in the archive
+   */
+  OutputStream newEntry(final String name) {
+    return new ByteArrayOutputStream() {
+
+      private boolean closed;
+
+      @Override
+      public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        putEntry(name, buf, count);
+      }
+    };
+  }
+
+  synchronized void putEntry(String name, byte[] bytes, int length) throws IOException {
+    if(!entryNames.add(name)) {
+      throw new IOException("Entry " + name + " cannot be written twice to the archive " + archive);
+    }
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(bytes, 0, length);
+    zip.closeEntry();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    zip.close();
+  }
+
+}
@@ -1,11 +1,31 @@
 package org.obiba.magma.datasource.fs;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
-
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
 import org.obiba.magma.AbstractVariableValueSource;
@@ -27,13 +47,30 @@ import org.obiba.magma.datasource.fs.FsDatasource.OutputCallback;
 import org.obiba.magma.support.AbstractValueTable;
 import org.obiba.magma.support.ValueSetBean;
 import org.obiba.magma.xstream.XStreamValueSet;
+import org.obiba.magma.xstream.XStreamValueSetCodec;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.thoughtworks.xstream.XStream;
 
 import de.schlichtherle.io.File;
 
 class FsValueTable extends AbstractValueTable implements Initialisable, Disposable {
 
+  static final String COLUMNS_DIRECTORY = "columns";
+
+  static final String COLUMNS_NAME = COLUMNS_DIRECTORY + "/columns.xml";
+
+  static final String COLUMN_ENTITIES_NAME = COLUMNS_DIRECTORY + "/entities.bin";
+
+  /**
+   * Number of value sets read ahead of a scan, per decoding thread
+   */
+  private static final int PREFETCH_PER_THREAD = 4;
+
   /**
    * The directory of this {@code ValueTable}
    */
@@ -49,6 +86,22 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
    */
   private final FsVariableEntityProvider variableEntityProvider;
 
+  /**
+   * The column entries by variable name, empty if the values are not stored by column
+   */
+  private volatile Map<String, String> columnEntries = ImmutableMap.of();
+
+  /**
+   * The rows of the columns by entity identifier, read when a column is first read
+   */
+  @Nullable
+  private volatile Map<String, Integer> columnRows;
+
+  /**
+   * Whether variables were written since the table was read, the variables entry being written when it is disposed
+   */
+  private boolean variablesModified;
+
   FsValueTable(FsDatasource datasource, String name) {
     super(datasource, name);
     valueTableEntry = datasource.getEntry(name);
@@ -69,6 +122,7 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
     try {
       variableEntityProvider.initialise();
       readVariables();
+      readColumns();
     } catch(RuntimeException e) {
       throw e;
     } catch(Exception e) {
@@ -78,6 +132,7 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
 
   @Override
   public void dispose() {
+    if(variablesModified) writeVariables();
     variableEntityProvider.dispose();
   }
 
@@ -92,6 +147,87 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
     return new LazyValueSet(this, entity);
   }
 
+  /**
+   * Value sets are read ahead of the consumer: their entries are read, decrypted and parsed on the decoding threads of
+   * the datasource, in the order of the requested entities. Without decoding threads, value sets are read eagerly in
+   * the order of their entries in the archive.
+   */
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    final List<Map.Entry<VariableEntity, String>> entries = Lists.newArrayListWithCapacity(entities.size());
+    for(VariableEntity entity : entities) {
+      String entryName = variableEntityProvider.getEntityFile(entity);
+      if(entryName == null) {
+        throw new NoSuchValueSetException(this, entity);
+      }
+      entries.add(Maps.immutableEntry(entity, entryName));
+    }
+    if(getDatasource().getDecodingThreads() < 2) {
+      return readValueSetsInEntryOrder(entries);
+    }
+    return new Iterable<ValueSet>() {
+      @Override
+      public Iterator<ValueSet> iterator() {
+        return new PrefetchingIterator(entries.iterator());
+      }
+    };
+  }
+
+  private Iterable<ValueSet> readValueSetsInEntryOrder(List<Map.Entry<VariableEntity, String>> entries) {
+    SortedMap<String, VariableEntity> entitiesByEntry = new TreeMap<>();
+    for(Map.Entry<VariableEntity, String> entry : entries) {
+      entitiesByEntry.put(entry.getValue(), entry.getKey());
+    }
+    Map<VariableEntity, ValueSet> valueSets = Maps.newHashMapWithExpectedSize(entries.size());
+    for(Map.Entry<String, VariableEntity> entry : entitiesByEntry.entrySet()) {
+      valueSets.put(entry.getValue(), new LazyValueSet(this, entry.getValue(), readValueSet(entry.getKey())));
+    }
+    List<ValueSet> orderedValueSets = Lists.newArrayListWithCapacity(entries.size());
+    for(Map.Entry<VariableEntity, String> entry : entries) {
+      orderedValueSets.add(valueSets.get(entry.getKey()));
+    }
+    return orderedValueSets;
+  }
+
+  @Nullable
+  private XStreamValueSet readValueSet(String entryName) {
+    XStreamValueSetCodec codec = getDatasource().getValueSetCodec(entryName);
+    if(codec == null) {
+      return readEntry(entryName, new InputCallback<XStreamValueSet>() {
+        @Override
+        public XStreamValueSet readEntry(Reader reader) throws IOException {
+          return (XStreamValueSet) xstream.fromXML(reader);
+        }
+      });
+    }
+    File entry = getEntry(entryName);
+    if(!entry.exists()) return null;
+    try(InputStream in = getDatasource().createInputStream(entry)) {
+      return codec.read(in);
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    }
+  }
+
+  void writeValueSet(String entryName, final XStreamValueSet valueSet) {
+    XStreamValueSetCodec codec = getDatasource().getValueSetCodec(entryName);
+    if(codec == null) {
+      writeEntry(entryName, new OutputCallback<Void>() {
+        @Override
+        public Void writeEntry(Writer writer) throws IOException {
+          xstream.toXML(valueSet, writer);
+          return null;
+        }
+      });
+      return;
+    }
+    try(OutputStream out = createOutputStream(entryName)) {
+      codec.write(valueSet, out);
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    }
+  }
+
   @NotNull
   @Override
   public FsVariableEntityProvider getVariableEntityProvider() {
@@ -114,6 +250,145 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
     return getDatasource().createWriter(getEntry(name));
   }
 
+  OutputStream createOutputStream(String name) {
+    return getDatasource().createOutputStream(getEntry(name));
+  }
+
+  /**
+   * Reads the index of the column entries, if the values of this table are stored by column.
+   */
+  @SuppressWarnings("unchecked")
+  void readColumns() {
+    setColumns(readEntry(COLUMNS_NAME, new InputCallback<Map<String, String>>() {
+      @Override
+      public Map<String, String> readEntry(Reader reader) throws IOException {
+        try {
+          return (Map<String, String>) xstream.createObjectInputStream(reader).readObject();
+        } catch(ClassNotFoundException e) {
+          throw new MagmaRuntimeException(e);
+        }
+      }
+    }));
+  }
+
+  /**
+   * Sets the index of the column entries, null if the values of this table are not stored by column.
+   */
+  void setColumns(@Nullable Map<String, String> entries) {
+    columnEntries = entries == null ? ImmutableMap.<String, String>of() : ImmutableMap.copyOf(entries);
+    columnRows = null;
+  }
+
+  boolean hasColumns() {
+    return !columnEntries.isEmpty();
+  }
+
+  /**
+   * Deletes the column entries, when value sets are written without updating them.
+   */
+  synchronized void dropColumns() {
+    if(!hasColumns()) return;
+    if(getDatasource().isStreaming()) {
+      throw new MagmaRuntimeException(
+          "The columns of table " + getName() + " cannot be dropped from a streamed archive");
+    }
+    columnEntries = ImmutableMap.of();
+    columnRows = null;
+    File columns = getEntry(COLUMNS_DIRECTORY);
+    if(columns.exists() && !columns.deleteAll()) {
+      throw new MagmaRuntimeException("Unable to delete the columns of table " + getName());
+    }
+  }
+
+  /**
+   * Reads the values of a variable from its column entry, decoding only the values of the requested entities.
+   *
+   * @param variable
+   * @param entities
+   * @return the values in the order of the requested entities, null for the entities that are not in the column
+   */
+  private List<Value> readColumn(Variable variable, SortedSet<VariableEntity> entities) {
+    String entryName = columnEntries.get(variable.getName());
+    Map<String, Integer> rows = getColumnRows();
+    int[] positions = new int[rows.size()];
+    Arrays.fill(positions, -1);
+    int remaining = 0;
+    int position = 0;
+    for(VariableEntity entity : entities) {
+      Integer row = rows.get(entity.getIdentifier());
+      if(row != null) {
+        positions[row] = position;
+        remaining++;
+      }
+      position++;
+    }
+
+    Value[] values = new Value[entities.size()];
+    if(entryName != null && remaining > 0) {
+      try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new InflaterInputStream(getDatasource().createInputStream(getEntry(entryName)))))) {
+        for(int row = 0; row < positions.length && remaining > 0; row++) {
+          if(positions[row] < 0) {
+            FsColumnCodec.skipValue(in);
+          } else {
+            values[positions[row]] = FsColumnCodec.readValue(in, variable.getValueType());
+            remaining--;
+          }
+        }
+      } catch(IOException e) {
+        throw new MagmaRuntimeException(e);
+      }
+    }
+    for(int i = 0; i < values.length; i++) {
+      if(values[i] == null) values[i] = variable.getValueType().nullValue();
+    }
+    return Arrays.asList(values);
+  }
+
+  private Map<String, Integer> getColumnRows() {
+    Map<String, Integer> rows = columnRows;
+    if(rows == null) {
+      try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new InflaterInputStream(getDatasource().createInputStream(getEntry(COLUMN_ENTITIES_NAME)))))) {
+        int nbRows = in.readInt();
+        rows = Maps.newHashMapWithExpectedSize(nbRows);
+        for(int row = 0; row < nbRows; row++) {
+          rows.put(FsColumnCodec.readString(in), row);
+        }
+      } catch(IOException e) {
+        throw new MagmaRuntimeException(e);
+      }
+      columnRows = rows;
+    }
+    return rows;
+  }
+
+  /**
+   * Adds a variable to this table, or replaces the variable with the same name. The variables entry is written when
+   * the table is disposed, so that variables can be written several times, including to a streamed archive.
+   */
+  synchronized void addVariable(Variable variable) {
+    addVariableValueSource(new FsVariableValueSource(variable));
+    variablesModified = true;
+  }
+
+  @edu.umd.cs.findbugs.annotations.SuppressWarnings(value = "DMI_NONSERIALIZABLE_OBJECT_WRITTEN",
+      justification = "XStream implementation of ObjectOutputStream does not expect or require objects to implement the Serializable marker interface. http://xstream.codehaus.org/faq.html#Serialization")
+  private synchronized void writeVariables() {
+    writeEntry("variables.xml", new OutputCallback<Void>() {
+      @Override
+      public Void writeEntry(Writer writer) throws IOException {
+        try(ObjectOutputStream oos = xstream.createObjectOutputStream(writer, "variables")) {
+          for(Variable variable : getVariables()) {
+            oos.writeObject(variable);
+          }
+        }
+        return null;
+      }
+    });
+    variablesModified = false;
+  }
+
   private void readVariables() {
     readEntry("variables.xml", new InputCallback<Void>() {
       @SuppressWarnings("InfiniteLoopStatement")
@@ -136,7 +411,7 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
 
   }
 
-  private static class FsVariableValueSource extends AbstractVariableValueSource implements VariableValueSource {
+  private class FsVariableValueSource extends AbstractVariableValueSource implements VariableValueSource, VectorSource {
 
     private final Variable variable;
 
@@ -162,15 +437,24 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
       return ((LazyValueSet) valueSet).getValueSet().getValue(variable);
     }
 
+    /**
+     * Vectors are supported when the values of the table are stored by column.
+     */
     @Override
     public boolean supportVectorSource() {
-      return false;
+      return hasColumns();
     }
 
     @NotNull
     @Override
     public VectorSource asVectorSource() {
-      throw new MagmaRuntimeException("FS Datasource does not support vector source");
+      if(!hasColumns()) throw new MagmaRuntimeException("FS Datasource table has no columns for vector source");
+      return this;
+    }
+
+    @Override
+    public Iterable<Value> getValues(SortedSet<VariableEntity> entities) {
+      return readColumn(variable, entities);
     }
 
   }
@@ -184,6 +468,11 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
       super(table, entity);
     }
 
+    LazyValueSet(ValueTable table, VariableEntity entity, XStreamValueSet valueSet) {
+      super(table, entity);
+      this.valueSet = valueSet;
+    }
+
     XStreamValueSet getValueSet() {
       if(valueSet == null) {
         valueSet = readValueSet(getVariableEntity());
@@ -196,14 +485,62 @@ class FsValueTable extends AbstractValueTable implements Initialisable, Disposab
       if(entryName == null) {
         throw new NoSuchValueSetException(FsValueTable.this, entity);
       }
-      return readEntry(entryName, new InputCallback<XStreamValueSet>() {
-        @Override
-        public XStreamValueSet readEntry(Reader reader) throws IOException {
-          return (XStreamValueSet) xstream.fromXML(reader);
-        }
-      });
+      return FsValueTable.this.readValueSet(entryName);
+    }
+
+  }
+
+  /**
+   * Submits the reading of the next value sets to the decoding threads, keeping a bounded number of them ahead of the
+   * consumer, and returns them in order.
+   */
+  private class PrefetchingIterator extends AbstractIterator<ValueSet> {
+
+    private final Iterator<Map.Entry<VariableEntity, String>> pending;
+
+    private final Deque<Map.Entry<VariableEntity, Future<XStreamValueSet>>> prefetched = new ArrayDeque<>();
+
+    private final ExecutorService executor;
+
+    private final int prefetchSize;
+
+    private PrefetchingIterator(Iterator<Map.Entry<VariableEntity, String>> pending) {
+      this.pending = pending;
+      executor = getDatasource().getDecodingExecutor();
+      prefetchSize = getDatasource().getDecodingThreads() * PREFETCH_PER_THREAD;
     }
 
+    @Override
+    protected ValueSet computeNext() {
+      while(prefetched.size() < prefetchSize && pending.hasNext()) {
+        final Map.Entry<VariableEntity, String> entry = pending.next();
+        prefetched.add(Maps.immutableEntry(entry.getKey(), executor.submit(new Callable<XStreamValueSet>() {
+          @Override
+          public XStreamValueSet call() throws Exception {
+            return readValueSet(entry.getValue());
+          }
+        })));
+      }
+      Map.Entry<VariableEntity, Future<XStreamValueSet>> next = prefetched.poll();
+      if(next == null) return endOfData();
+      try {
+        return new LazyValueSet(FsValueTable.this, next.getKey(), next.getValue().get());
+      } catch(InterruptedException e) {
+        cancel();
+        Thread.currentThread().interrupt();
+        throw new MagmaRuntimeException(e);
+      } catch(ExecutionException e) {
+        cancel();
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+
+    private void cancel() {
+      for(Map.Entry<VariableEntity, Future<XStreamValueSet>> entry : prefetched) {
+        entry.getValue().cancel(true);
+      }
+      prefetched.clear();
+    }
   }
 
   @NotNull
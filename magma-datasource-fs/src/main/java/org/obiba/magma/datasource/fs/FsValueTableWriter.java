@@ -1,9 +1,8 @@
 package org.obiba.magma.datasource.fs;
 
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.Writer;
+import java.util.Map;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
 import org.obiba.magma.Value;
@@ -12,6 +11,7 @@ import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.xstream.XStreamValueSet;
 
+import com.google.common.collect.Maps;
 import com.thoughtworks.xstream.XStream;
 
 class FsValueTableWriter implements ValueTableWriter {
@@ -20,62 +20,53 @@ class FsValueTableWriter implements ValueTableWriter {
 
   private final XStream xstream;
 
+  /**
+   * Writes the values by column, when the datasource is columnar and the table has no value sets yet
+   */
+  @Nullable
+  private final FsColumnWriter columnWriter;
+
   FsValueTableWriter(FsValueTable valueTable, XStream xstream) {
     this.valueTable = valueTable;
     this.xstream = xstream;
+    columnWriter = valueTable.getDatasource().isColumnar() && valueTable.getVariableEntities().isEmpty()
+        ? new FsColumnWriter(valueTable)
+        : null;
   }
 
   @NotNull
   @Override
   public ValueSetWriter writeValueSet(@NotNull VariableEntity entity) {
-    String entry = valueTable.getVariableEntityProvider().addEntity(entity);
-    try {
-      return new XStreamValueSetWriter(valueTable.createWriter(entry),
-          new XStreamValueSet(valueTable.getName(), entity));
-    } catch(IOException e) {
-      throw new RuntimeException(e);
+    if(columnWriter == null) {
+      // existing columns would not have the values written now
+      valueTable.dropColumns();
     }
+    String entry = valueTable.getVariableEntityProvider().addEntity(entity);
+    return new XStreamValueSetWriter(entry, new XStreamValueSet(valueTable.getName(), entity), entity);
   }
 
   @Override
   public VariableWriter writeVariables() {
-    try {
-      return new XStreamVariableWriter(valueTable.createWriter("variables.xml"));
-    } catch(IOException e) {
-      throw new RuntimeException(e);
-    }
+    return new XStreamVariableWriter();
   }
 
   @Override
   public void close() {
+    if(columnWriter != null) columnWriter.close();
   }
 
+  /**
+   * Adds the variables to the table, which writes them when it is disposed.
+   */
   private class XStreamVariableWriter implements VariableWriter {
 
-    ObjectOutputStream oos;
-
-    XStreamVariableWriter(Writer os) throws IOException {
-      oos = xstream.createObjectOutputStream(os, "variables");
-    }
-
     @Override
     public void close() {
-      try {
-        oos.close();
-      } catch(IOException e) {
-        throw new RuntimeException(e);
-      }
     }
 
-    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value = "DMI_NONSERIALIZABLE_OBJECT_WRITTEN",
-        justification = "XStream implementation of ObjectOutputStream does not expect or require objects to implement the Serializable marker interface. http://xstream.codehaus.org/faq.html#Serialization")
     @Override
     public void writeVariable(@NotNull Variable variable) {
-      try {
-        oos.writeObject(variable);
-      } catch(IOException e) {
-        throw new RuntimeException(e);
-      }
+      valueTable.addVariable(variable);
     }
 
     @Override
@@ -86,30 +77,30 @@ class FsValueTableWriter implements ValueTableWriter {
 
   private class XStreamValueSetWriter implements ValueSetWriter {
 
-    private final Writer os;
+    private final String entry;
 
     private final XStreamValueSet valueSet;
 
-    private XStreamValueSetWriter(Writer os, XStreamValueSet valueSet) throws IOException {
-      this.os = os;
+    private final VariableEntity entity;
+
+    private final Map<String, Value> columnValues = Maps.newLinkedHashMap();
+
+    private XStreamValueSetWriter(String entry, XStreamValueSet valueSet, VariableEntity entity) {
+      this.entry = entry;
       this.valueSet = valueSet;
+      this.entity = entity;
     }
 
     @Override
     public void close() {
-      try {
-        xstream.toXML(valueSet, os);
-      } finally {
-        try {
-          os.close();
-        } catch(IOException ignored) {
-        }
-      }
+      valueTable.writeValueSet(entry, valueSet);
+      if(columnWriter != null) columnWriter.writeRow(entity, columnValues);
     }
 
     @Override
     public void writeValue(@NotNull Variable variable, Value value) {
       valueSet.setValue(variable, value);
+      if(columnWriter != null) columnValues.put(variable.getName(), value);
     }
 
     @Override
@@ -76,9 +76,14 @@ class FsVariableEntityProvider implements VariableEntityProvider, Initialisable,
     });
   }
 
+  /**
+   * Writes the entities entry when it was modified or does not exist yet. It is always written to a streamed archive,
+   * which entries cannot be read before it is complete.
+   */
   @Override
   public void dispose() {
-    if(entityToFileMapModified || !valueTable.getEntry(ENTITIES_NAME).exists()) {
+    if(entityToFileMapModified || valueTable.getDatasource().isStreaming() ||
+        !valueTable.getEntry(ENTITIES_NAME).exists()) {
       valueTable.writeEntry(ENTITIES_NAME, new OutputCallback<Void>() {
         @Override
         public Void writeEntry(Writer writer) throws IOException {
@@ -115,7 +120,8 @@ class FsVariableEntityProvider implements VariableEntityProvider, Initialisable,
 
   String addEntity(VariableEntity entity) {
     if(!entityToFile.containsKey(entity)) {
-      entityToFile.put(entity, entryFilenameFormat.format(entityToFile.size() + 1) + ".xml");
+      entityToFile.put(entity, entryFilenameFormat.format(entityToFile.size() + 1) +
+          valueTable.getDatasource().getValueSetEntrySuffix());
       entityToFileMapModified = true;
     }
     return getEntityFile(entity);
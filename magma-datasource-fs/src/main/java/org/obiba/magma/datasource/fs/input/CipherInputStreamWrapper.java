@@ -1,25 +1,99 @@
 package org.obiba.magma.datasource.fs.input;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
 
+import javax.annotation.Nullable;
+import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 
+import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.crypt.MagmaCryptRuntimeException;
 import org.obiba.magma.datasource.crypt.DatasourceCipherFactory;
+import org.obiba.magma.datasource.crypt.EntryDatasourceCipherFactory;
+import org.obiba.magma.datasource.crypt.PooledCipherFactory;
 import org.obiba.magma.datasource.fs.InputStreamWrapper;
 
+import com.google.common.io.ByteStreams;
+
 import de.schlichtherle.io.File;
 
 public class CipherInputStreamWrapper implements InputStreamWrapper {
 
+  @Nullable
   private final DatasourceCipherFactory cipherProvider;
 
+  @Nullable
+  private final EntryDatasourceCipherFactory entryCipherProvider;
+
   public CipherInputStreamWrapper(DatasourceCipherFactory cipherProvider) {
     this.cipherProvider = cipherProvider;
+    entryCipherProvider = null;
+  }
+
+  /**
+   * Decrypts each entry with the IV found at its beginning.
+   */
+  public CipherInputStreamWrapper(EntryDatasourceCipherFactory entryCipherProvider) {
+    cipherProvider = null;
+    this.entryCipherProvider = entryCipherProvider;
   }
 
+  @SuppressWarnings("ConstantConditions")
   @Override
   public InputStream wrap(InputStream is, File file) {
-    return new CipherInputStream(is, cipherProvider.createDecryptingCipher());
+    if(entryCipherProvider == null) return newCipherInputStream(is, cipherProvider.createDecryptingCipher());
+
+    byte[] iv = new byte[entryCipherProvider.getIvLength()];
+    try {
+      ByteStreams.readFully(is, iv);
+    } catch(IOException e) {
+      throw new MagmaRuntimeException("Unable to read the IV of entry " + file, e);
+    }
+    Cipher cipher = entryCipherProvider.createDecryptingCipher(iv);
+    if(entryCipherProvider.isAuthenticating()) return decryptAuthenticated(is, cipher, file);
+    return newCipherInputStream(is, cipher);
+  }
+
+  private InputStream newCipherInputStream(InputStream is, final Cipher cipher) {
+    return new CipherInputStream(is, cipher) {
+
+      private boolean closed;
+
+      @Override
+      public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        try {
+          super.close();
+        } finally {
+          releaseCipher(cipher);
+        }
+      }
+    };
+  }
+
+  /**
+   * Decrypts the whole entry at once: {@code CipherInputStream} ignores the failure to authenticate an altered entry,
+   * so its bytes are only returned once {@code doFinal} has verified them.
+   */
+  private InputStream decryptAuthenticated(InputStream is, Cipher cipher, File file) {
+    try(InputStream in = is) {
+      return new ByteArrayInputStream(cipher.doFinal(ByteStreams.toByteArray(in)));
+    } catch(GeneralSecurityException e) {
+      throw new MagmaCryptRuntimeException("Unable to authenticate entry " + file, e);
+    } catch(IOException e) {
+      throw new MagmaRuntimeException("Unable to read entry " + file, e);
+    } finally {
+      releaseCipher(cipher);
+    }
+  }
+
+  private void releaseCipher(Cipher cipher) {
+    Object factory = entryCipherProvider == null ? cipherProvider : entryCipherProvider;
+    if(factory instanceof PooledCipherFactory) ((PooledCipherFactory) factory).releaseCipher(cipher);
   }
 
 }
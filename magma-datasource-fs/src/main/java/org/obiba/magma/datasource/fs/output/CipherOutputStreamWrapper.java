@@ -1,25 +1,75 @@
 package org.obiba.magma.datasource.fs.output;
 
+import java.io.IOException;
 import java.io.OutputStream;
 
+import javax.annotation.Nullable;
+import javax.crypto.Cipher;
 import javax.crypto.CipherOutputStream;
 
+import org.obiba.magma.MagmaRuntimeException;
 import org.obiba.magma.datasource.crypt.DatasourceCipherFactory;
+import org.obiba.magma.datasource.crypt.EntryDatasourceCipherFactory;
+import org.obiba.magma.datasource.crypt.PooledCipherFactory;
 import org.obiba.magma.datasource.fs.OutputStreamWrapper;
 
 import de.schlichtherle.io.File;
 
 public class CipherOutputStreamWrapper implements OutputStreamWrapper {
 
+  @Nullable
   private final DatasourceCipherFactory cipherProvider;
 
+  @Nullable
+  private final EntryDatasourceCipherFactory entryCipherProvider;
+
   public CipherOutputStreamWrapper(DatasourceCipherFactory cipherProvider) {
     this.cipherProvider = cipherProvider;
+    entryCipherProvider = null;
+  }
+
+  /**
+   * Encrypts each entry with its own IV, written in clear before the encrypted bytes.
+   */
+  public CipherOutputStreamWrapper(EntryDatasourceCipherFactory entryCipherProvider) {
+    cipherProvider = null;
+    this.entryCipherProvider = entryCipherProvider;
   }
 
+  @SuppressWarnings("ConstantConditions")
   @Override
   public OutputStream wrap(OutputStream os, File file) {
-    return new CipherOutputStream(os, cipherProvider.createEncryptingCipher());
+    final Cipher cipher;
+    if(entryCipherProvider == null) {
+      cipher = cipherProvider.createEncryptingCipher();
+    } else {
+      cipher = entryCipherProvider.createEncryptingCipher();
+      try {
+        os.write(cipher.getIV());
+      } catch(IOException e) {
+        throw new MagmaRuntimeException("Unable to write the IV of entry " + file, e);
+      }
+    }
+    return new CipherOutputStream(os, cipher) {
+
+      private boolean closed;
+
+      @Override
+      public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        try {
+          super.close();
+        } finally {
+          releaseCipher(cipher);
+        }
+      }
+    };
+  }
+
+  private void releaseCipher(Cipher cipher) {
+    Object factory = entryCipherProvider == null ? cipherProvider : entryCipherProvider;
+    if(factory instanceof PooledCipherFactory) ((PooledCipherFactory) factory).releaseCipher(cipher);
   }
 
 }
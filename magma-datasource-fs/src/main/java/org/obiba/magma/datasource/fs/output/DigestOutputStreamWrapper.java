@@ -53,6 +53,20 @@ public class DigestOutputStreamWrapper implements OutputStreamWrapper {
     }
   }
 
+  /**
+   * Writes the digest of an entry once the entry has been written.
+   *
+   * @param digestEntry
+   * @param digest
+   * @throws IOException
+   */
+  @SuppressWarnings("ResultOfMethodCallIgnored")
+  protected void writeDigest(File digestEntry, byte[] digest) throws IOException {
+    try(ByteArrayInputStream bais = new ByteArrayInputStream(digest)) {
+      digestEntry.catFrom(bais);
+    }
+  }
+
   /**
    * A {@code DigestOutputStream} that writes the digest to a file when the stream is closed.
    */
@@ -66,12 +80,9 @@ public class DigestOutputStreamWrapper implements OutputStreamWrapper {
     }
 
     @Override
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     public void close() throws IOException {
       super.close();
-      try(ByteArrayInputStream bais = new ByteArrayInputStream(getMessageDigest().digest())) {
-        digestEntry.catFrom(bais);
-      }
+      writeDigest(digestEntry, getMessageDigest().digest());
     }
   }
 }
@@ -15,6 +15,12 @@ public class FsDatasourceFactory extends AbstractDatasourceFactory {
 
   private DatasourceEncryptionStrategy encryptionStrategy;
 
+  private boolean columnar;
+
+  private boolean streaming;
+
+  private String valueSetCodec;
+
   public void setFile(File file) {
     this.file = file;
   }
@@ -23,10 +29,25 @@ public class FsDatasourceFactory extends AbstractDatasourceFactory {
     this.encryptionStrategy = encryptionStrategy;
   }
 
+  public void setColumnar(boolean columnar) {
+    this.columnar = columnar;
+  }
+
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  public void setValueSetCodec(String valueSetCodec) {
+    this.valueSetCodec = valueSetCodec;
+  }
+
   @NotNull
   @Override
   protected Datasource internalCreate() {
     FsDatasource datasource = new FsDatasource(getName(), file);
+    datasource.setColumnar(columnar);
+    datasource.setStreaming(streaming);
+    datasource.setValueSetCodec(valueSetCodec);
     if(encryptionStrategy != null) {
       datasource.setEncryptionStrategy(encryptionStrategy);
     }
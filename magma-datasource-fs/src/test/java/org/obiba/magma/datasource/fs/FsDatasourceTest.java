@@ -0,0 +1,325 @@
+package org.obiba.magma.datasource.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.ValueTableWriter;
+import org.obiba.magma.ValueTableWriter.ValueSetWriter;
+import org.obiba.magma.ValueTableWriter.VariableWriter;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.crypt.KeyProvider;
+import org.obiba.magma.crypt.support.GeneratedKeyPairProvider;
+import org.obiba.magma.datasource.crypt.DatasourceEncryptionStrategy;
+import org.obiba.magma.datasource.crypt.EncryptedSecretKeyDatasourceEncryptionStrategy;
+import org.obiba.magma.datasource.crypt.EntryIvDatasourceEncryptionStrategy;
+import org.obiba.magma.datasource.crypt.GeneratedSecretKeyDatasourceEncryptionStrategy;
+import org.obiba.magma.support.Disposables;
+import org.obiba.magma.support.Initialisables;
+import org.obiba.magma.support.Values;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.test.AbstractMagmaTest;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.type.TextType;
+import org.obiba.magma.xstream.MagmaXStreamExtension;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@SuppressWarnings("ResultOfMethodCallIgnored")
+public class FsDatasourceTest extends AbstractMagmaTest {
+
+  private static final String TABLE = "table";
+
+  private static final String PARTICIPANT = "Participant";
+
+  private Variable textVariable;
+
+  private Variable sequenceVariable;
+
+  private Variable noColumnVariable;
+
+  private File archive;
+
+  @Before
+  public void setUp() throws IOException {
+    // value types are looked up in the engine created before each test
+    MagmaEngine.get().extend(new MagmaXStreamExtension());
+    textVariable = Variable.Builder.newVariable("TEXT", TextType.get(), PARTICIPANT).build();
+    sequenceVariable = Variable.Builder.newVariable("SEQUENCE", IntegerType.get(), PARTICIPANT).repeatable().build();
+    noColumnVariable = Variable.Builder.newVariable("NO_COLUMN", TextType.get(), PARTICIPANT).build();
+    archive = File.createTempFile("magma", "-fs.zip");
+    archive.delete();
+  }
+
+  @After
+  public void tearDown() {
+    if(archive != null) archive.delete();
+  }
+
+  @Test
+  public void test_columnar_vectors_match_value_sets() {
+    FsDatasource datasource = new FsDatasource("fs", archive);
+    datasource.setColumnar(true);
+    Initialisables.initialise(datasource);
+    writeTable(datasource, 5);
+    Disposables.dispose(datasource);
+
+    FsDatasource reader = new FsDatasource("fs", archive);
+    Initialisables.initialise(reader);
+    ValueTable table = reader.getValueTable(TABLE);
+    SortedSet<VariableEntity> entities = Sets.newTreeSet(table.getVariableEntities());
+    assertThat(entities).hasSize(5);
+    for(Variable variable : table.getVariables()) {
+      assertThat(table.getVariableValueSource(variable.getName()).supportVectorSource()).isTrue();
+      List<Value> values = Lists.newArrayList(
+          table.getVariableValueSource(variable.getName()).asVectorSource().getValues(entities));
+      int i = 0;
+      for(VariableEntity entity : entities) {
+        assertThat(values.get(i++)).isEqualTo(table.getValue(variable, table.getValueSet(entity)));
+      }
+    }
+    Disposables.dispose(reader);
+  }
+
+  @Test
+  public void test_binary_value_sets_added_to_xml_value_sets() throws IOException {
+    FsDatasource datasource = new FsDatasource("fs", archive);
+    Initialisables.initialise(datasource);
+    writeTable(datasource, 3);
+    Disposables.dispose(datasource);
+
+    datasource = new FsDatasource("fs", archive);
+    datasource.setValueSetCodec("bin");
+    Initialisables.initialise(datasource);
+    try(ValueTableWriter tableWriter = datasource.createWriter(TABLE, PARTICIPANT)) {
+      writeValueSets(tableWriter, 4, 6);
+    }
+    Disposables.dispose(datasource);
+
+    List<String> suffixes = Lists.newArrayList();
+    try(ZipFile zipFile = new ZipFile(archive)) {
+      for(ZipEntry entry : Collections.list(zipFile.entries())) {
+        String name = entry.getName();
+        if(name.matches(".*/\\d+\\.\\w+")) suffixes.add(name.substring(name.lastIndexOf('.') + 1));
+      }
+    }
+    assertThat(suffixes).containsOnly("xml", "bin");
+    assertThat(suffixes).hasSize(6);
+
+    FsDatasource reader = new FsDatasource("fs", archive);
+    Initialisables.initialise(reader);
+    try {
+      ValueTable table = reader.getValueTable(TABLE);
+      assertThat(table.getVariableEntities()).hasSize(6);
+      for(int i = 1; i <= 6; i++) {
+        ValueSet valueSet = table.getValueSet(new VariableEntityBean(PARTICIPANT, "" + i));
+        assertThat(table.getValue(textVariable, valueSet)).isEqualTo(getReadText(i));
+        assertThat(table.getValue(sequenceVariable, valueSet)).isEqualTo(getSequence(i));
+      }
+    } finally {
+      Disposables.dispose(reader);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_unknown_value_set_codec() {
+    new FsDatasource("fs", archive).setValueSetCodec("unknown");
+  }
+
+  @Test
+  public void test_parallel_decoding() {
+    assertParallelDecoding(null, null);
+  }
+
+  @Test
+  public void test_parallel_decoding_encrypted() throws NoSuchAlgorithmException {
+    KeyProvider keyProvider = new GeneratedKeyPairProvider();
+    DatasourceEncryptionStrategy encryption = new GeneratedSecretKeyDatasourceEncryptionStrategy();
+    encryption.setKeyProvider(keyProvider);
+    DatasourceEncryptionStrategy decryption = new EncryptedSecretKeyDatasourceEncryptionStrategy();
+    decryption.setKeyProvider(keyProvider);
+    assertParallelDecoding(encryption, decryption);
+  }
+
+  @Test
+  public void test_streaming() {
+    assertStreaming(null, null);
+  }
+
+  @Test
+  public void test_streaming_encrypted() throws NoSuchAlgorithmException {
+    KeyProvider keyProvider = new GeneratedKeyPairProvider();
+    DatasourceEncryptionStrategy encryption = new GeneratedSecretKeyDatasourceEncryptionStrategy();
+    encryption.setKeyProvider(keyProvider);
+    DatasourceEncryptionStrategy decryption = new EncryptedSecretKeyDatasourceEncryptionStrategy();
+    decryption.setKeyProvider(keyProvider);
+    assertStreaming(encryption, decryption);
+  }
+
+  /**
+   * Streams a table with two writers, each one writing variables and entities, then reads it back as a usual archive.
+   */
+  private void assertStreaming(@Nullable DatasourceEncryptionStrategy encryption,
+      @Nullable DatasourceEncryptionStrategy decryption) {
+    FsDatasource datasource = new FsDatasource("fs", archive, encryption);
+    datasource.setStreaming(true);
+    Initialisables.initialise(datasource);
+    try(ValueTableWriter tableWriter = datasource.createWriter(TABLE, PARTICIPANT)) {
+      try(VariableWriter variableWriter = tableWriter.writeVariables()) {
+        variableWriter.writeVariable(textVariable);
+        variableWriter.writeVariable(sequenceVariable);
+      }
+      writeValueSets(tableWriter, 1, 3);
+    }
+    try(ValueTableWriter tableWriter = datasource.createWriter(TABLE, PARTICIPANT)) {
+      try(VariableWriter variableWriter = tableWriter.writeVariables()) {
+        variableWriter.writeVariable(noColumnVariable);
+      }
+      writeValueSets(tableWriter, 4, 6);
+    }
+    Disposables.dispose(datasource);
+
+    FsDatasource reader = new FsDatasource("fs", archive, decryption);
+    Initialisables.initialise(reader);
+    try {
+      ValueTable table = reader.getValueTable(TABLE);
+      List<String> variableNames = Lists.newArrayList();
+      for(Variable variable : table.getVariables()) {
+        variableNames.add(variable.getName());
+      }
+      assertThat(variableNames).containsOnly("TEXT", "SEQUENCE", "NO_COLUMN");
+      assertThat(table.getVariableEntities()).hasSize(6);
+      for(int i = 1; i <= 6; i++) {
+        ValueSet valueSet = table.getValueSet(new VariableEntityBean(PARTICIPANT, "" + i));
+        assertThat(table.getValue(table.getVariable("TEXT"), valueSet)).isEqualTo(getReadText(i));
+        assertThat(table.getValue(table.getVariable("SEQUENCE"), valueSet)).isEqualTo(getSequence(i));
+        assertThat(table.getValue(table.getVariable("NO_COLUMN"), valueSet).isNull()).isTrue();
+      }
+    } finally {
+      Disposables.dispose(reader);
+    }
+  }
+
+  @Test
+  public void test_parallel_decoding_entry_iv() throws NoSuchAlgorithmException {
+    KeyProvider keyProvider = new GeneratedKeyPairProvider();
+    DatasourceEncryptionStrategy encryption = new EntryIvDatasourceEncryptionStrategy();
+    encryption.setKeyProvider(keyProvider);
+    DatasourceEncryptionStrategy decryption = new EncryptedSecretKeyDatasourceEncryptionStrategy();
+    decryption.setKeyProvider(keyProvider);
+    assertParallelDecoding(encryption, decryption);
+  }
+
+  private void assertParallelDecoding(@Nullable DatasourceEncryptionStrategy encryption,
+      @Nullable DatasourceEncryptionStrategy decryption) {
+    FsDatasource datasource = new FsDatasource("fs", archive, encryption);
+    Initialisables.initialise(datasource);
+    writeTable(datasource, 50);
+    Disposables.dispose(datasource);
+
+    List<List<Value>> sequential = readValueSets(new FsDatasource("fs", archive, decryption), 1);
+    List<List<Value>> parallel = readValueSets(new FsDatasource("fs", archive, decryption), 4);
+    assertThat(sequential).hasSize(50);
+    assertThat(parallel).isEqualTo(sequential);
+  }
+
+  /**
+   * Reads the values of all the value sets, checking that they are returned in the order of the entities.
+   */
+  private List<List<Value>> readValueSets(FsDatasource datasource, int decodingThreads) {
+    datasource.setDecodingThreads(decodingThreads);
+    Initialisables.initialise(datasource);
+    try {
+      ValueTable table = datasource.getValueTable(TABLE);
+      SortedSet<VariableEntity> entities = Sets.newTreeSet(table.getVariableEntities());
+      Iterator<VariableEntity> expectedEntities = entities.iterator();
+      List<List<Value>> rows = Lists.newArrayList();
+      for(ValueSet valueSet : table.getValueSets(entities)) {
+        assertThat(valueSet.getVariableEntity()).isEqualTo(expectedEntities.next());
+        List<Value> row = Lists.newArrayList();
+        for(Variable variable : table.getVariables()) {
+          row.add(table.getValue(variable, valueSet));
+        }
+        rows.add(row);
+      }
+      assertThat(expectedEntities.hasNext()).isFalse();
+      return rows;
+    } finally {
+      Disposables.dispose(datasource);
+    }
+  }
+
+  /**
+   * Writes entities "1" to "n": the text values of the second one are empty and of the third one are null, the
+   * sequence of the fourth one has a null element and no value at all is written for the NO_COLUMN variable.
+   */
+  private void writeTable(FsDatasource datasource, int nbEntities) {
+    try(ValueTableWriter tableWriter = datasource.createWriter(TABLE, PARTICIPANT)) {
+      try(VariableWriter variableWriter = tableWriter.writeVariables()) {
+        variableWriter.writeVariable(textVariable);
+        variableWriter.writeVariable(sequenceVariable);
+        variableWriter.writeVariable(noColumnVariable);
+      }
+      writeValueSets(tableWriter, 1, nbEntities);
+    }
+  }
+
+  private void writeValueSets(ValueTableWriter tableWriter, int from, int to) {
+    for(int i = from; i <= to; i++) {
+      try(ValueSetWriter valueSetWriter = tableWriter.writeValueSet(new VariableEntityBean(PARTICIPANT, "" + i))) {
+        valueSetWriter.writeValue(textVariable, getText(i));
+        valueSetWriter.writeValue(sequenceVariable, getSequence(i));
+      }
+    }
+  }
+
+  private Value getText(int i) {
+    switch(i) {
+      case 2:
+        return TextType.get().valueOf("");
+      case 3:
+        return TextType.get().nullValue();
+      default:
+        return TextType.get().valueOf("text " + i);
+    }
+  }
+
+  /**
+   * Text value read back from a value set entry, where an empty text is read as null.
+   */
+  private Value getReadText(int i) {
+    Value text = getText(i);
+    return text.isNull() || !text.toString().isEmpty() ? text : TextType.get().nullValue();
+  }
+
+  private Value getSequence(int i) {
+    switch(i) {
+      case 3:
+        return IntegerType.get().nullSequence();
+      case 4:
+        return Values.asSequence(IntegerType.get(), i, null, i + 1);
+      default:
+        return Values.asSequence(IntegerType.get(), i, i * 10);
+    }
+  }
+
+}
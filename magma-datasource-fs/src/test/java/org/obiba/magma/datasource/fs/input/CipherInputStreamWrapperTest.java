@@ -0,0 +1,91 @@
+package org.obiba.magma.datasource.fs.input;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+
+import org.junit.Test;
+import org.obiba.magma.crypt.MagmaCryptRuntimeException;
+import org.obiba.magma.crypt.support.GeneratedKeyPairProvider;
+import org.obiba.magma.datasource.crypt.EntryDatasourceCipherFactory;
+import org.obiba.magma.datasource.crypt.EntryIvDatasourceEncryptionStrategy;
+import org.obiba.magma.datasource.fs.output.CipherOutputStreamWrapper;
+import org.obiba.magma.support.StaticDatasource;
+import org.obiba.magma.test.AbstractMagmaTest;
+
+import com.google.common.io.ByteStreams;
+
+import de.schlichtherle.io.File;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class CipherInputStreamWrapperTest extends AbstractMagmaTest {
+
+  private static final byte[] ENTRY = "an entry of the archive".getBytes(StandardCharsets.UTF_8);
+
+  private final File file = new File("entry.xml");
+
+  @Test
+  public void test_ctr_round_trip() throws Exception {
+    EntryDatasourceCipherFactory cipherFactory = createCipherFactory("CTR");
+    assertThat(decrypt(cipherFactory, encrypt(cipherFactory))).isEqualTo(ENTRY);
+  }
+
+  @Test
+  public void test_gcm_round_trip() throws Exception {
+    assumeTrue(isGcmSupported());
+    EntryDatasourceCipherFactory cipherFactory = createCipherFactory("GCM");
+    assertThat(decrypt(cipherFactory, encrypt(cipherFactory))).isEqualTo(ENTRY);
+  }
+
+  @Test(expected = MagmaCryptRuntimeException.class)
+  public void test_gcm_altered_entry_fails() throws Exception {
+    assumeTrue(isGcmSupported());
+    EntryDatasourceCipherFactory cipherFactory = createCipherFactory("GCM");
+    byte[] encrypted = encrypt(cipherFactory);
+    // alter the last byte of the tag
+    encrypted[encrypted.length - 1] ^= 1;
+    decrypt(cipherFactory, encrypted);
+  }
+
+  private byte[] encrypt(EntryDatasourceCipherFactory cipherFactory) throws IOException {
+    ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+    try(OutputStream out = new CipherOutputStreamWrapper(cipherFactory).wrap(encrypted, file)) {
+      out.write(ENTRY);
+    }
+    return encrypted.toByteArray();
+  }
+
+  private byte[] decrypt(EntryDatasourceCipherFactory cipherFactory, byte... encrypted) throws IOException {
+    try(InputStream in = new CipherInputStreamWrapper(cipherFactory).wrap(new ByteArrayInputStream(encrypted), file)) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  private EntryDatasourceCipherFactory createCipherFactory(String mode) throws GeneralSecurityException {
+    EntryIvDatasourceEncryptionStrategy encryption = new EntryIvDatasourceEncryptionStrategy();
+    encryption.setKeyProvider(new GeneratedKeyPairProvider());
+    encryption.setMode(mode);
+    return encryption.createEntryDatasourceCipherFactory(new StaticDatasource("ds"));
+  }
+
+  /**
+   * GCM is provided by the JCE of Java 8 only.
+   */
+  private static boolean isGcmSupported() {
+    try {
+      Cipher.getInstance("AES/GCM/NoPadding");
+      return true;
+    } catch(GeneralSecurityException e) {
+      return false;
+    }
+  }
+
+}
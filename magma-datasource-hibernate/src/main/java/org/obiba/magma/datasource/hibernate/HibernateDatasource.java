@@ -12,9 +12,12 @@ import java.util.concurrent.ConcurrentMap;
 
 import javax.validation.constraints.NotNull;
 
+import org.hibernate.CacheMode;
 import org.hibernate.HibernateException;
 import org.hibernate.LockMode;
 import org.hibernate.LockOptions;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
@@ -31,8 +34,10 @@ import org.obiba.magma.datasource.hibernate.converter.AttributeAwareConverter;
 import org.obiba.magma.datasource.hibernate.converter.HibernateMarshallingContext;
 import org.obiba.magma.datasource.hibernate.domain.AttributeState;
 import org.obiba.magma.datasource.hibernate.domain.DatasourceState;
+import org.obiba.magma.datasource.hibernate.domain.ValueSetValue;
 import org.obiba.magma.datasource.hibernate.domain.ValueTableState;
 import org.obiba.magma.datasource.hibernate.domain.VariableState;
+import org.obiba.magma.datasource.hibernate.type.EncodedValueHibernateType;
 import org.obiba.magma.support.AbstractDatasource;
 import org.obiba.magma.support.UnionTimestamps;
 import org.slf4j.Logger;
@@ -53,6 +58,8 @@ public class HibernateDatasource extends AbstractDatasource {
 
   public static final String TYPE = "hibernate";
 
+  private static final int REENCODE_FLUSH_INTERVAL = 500;
+
   private final SessionFactory sessionFactory;
 
   private Serializable datasourceId;
@@ -108,6 +115,23 @@ public class HibernateDatasource extends AbstractDatasource {
     return valueTableTransaction.getTransactionWriter();
   }
 
+  /**
+   * Creates a writer for loading the value sets of entities that have no value set in the table yet, such as an initial
+   * import into an empty table or an append-only load. Existing value sets are neither looked up nor locked and the
+   * session is flushed every {@code flushInterval} value sets; the table last update is updated when the writer is
+   * closed. The bulk load mode applies to the table writer of the current transaction. Inserts are grouped in JDBC
+   * batches when the session factory is configured so, see
+   * {@link org.obiba.magma.datasource.hibernate.support.LocalSessionFactoryProvider#setJdbcBatchSize(int)}.
+   * <p/>
+   * Note that a Hibernate transaction must be active for this method to return an instance of {@code ValueTableWriter}
+   */
+  @NotNull
+  public ValueTableWriter createBulkWriter(@NotNull String tableName, @NotNull String entityType, int flushInterval) {
+    HibernateValueTableWriter writer = (HibernateValueTableWriter) createWriter(tableName, entityType);
+    writer.setBulkLoad(flushInterval);
+    return writer;
+  }
+
   /**
    * Returns true if a value table exists for the specified name or that a create table transaction is active for that
    * tableName.
@@ -280,6 +304,42 @@ public class HibernateDatasource extends AbstractDatasource {
     updateDatasourceLastUpdate();
   }
 
+  /**
+   * Rewrites the values of a table with the value encoding of the session factory (see
+   * {@link EncodedValueHibernateType#VALUE_ENCODING}), for instance after switching an existing database to the binary
+   * encoding. Both encodings are always read, so this migration is optional. Note that the rewritten values get a new
+   * update timestamp.
+   *
+   * @param tableName
+   */
+  public void reencodeValues(@NotNull String tableName) {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    HibernateValueTable valueTable = (HibernateValueTable) getValueTable(tableName);
+    Session session = sessionFactory.getCurrentSession();
+    ScrollableResults results = session.getNamedQuery("findValuesByTable") //
+        .setParameter("valueTableId", valueTable.getValueTableState().getId()) //
+        .setCacheMode(CacheMode.IGNORE) //
+        .scroll(ScrollMode.FORWARD_ONLY);
+    int count = 0;
+    try {
+      while(results.next()) {
+        ValueSetValue value = (ValueSetValue) results.get(0);
+        // a detached value is updated whether it is dirty or not
+        session.evict(value);
+        session.update(value);
+        if(++count % REENCODE_FLUSH_INTERVAL == 0) {
+          session.flush();
+          session.clear();
+        }
+      }
+    } finally {
+      results.close();
+    }
+    session.flush();
+    session.clear();
+    log.info("Re-encoded {} values of table {} in {}", count, getName() + "." + tableName, stopwatch);
+  }
+
   /**
    * Adds the specified {@code ValueTable} to the set of value tables this datasource holds. This method is used by
    * {@code HibernateValueTableTransaction} to add value tables that are created within a transaction.
@@ -4,10 +4,8 @@ import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -48,22 +46,25 @@ import org.obiba.magma.support.AbstractValueTable;
 import org.obiba.magma.support.AbstractVariableEntityProvider;
 import org.obiba.magma.support.NullTimestamps;
 import org.obiba.magma.support.ValueSetBean;
-import org.obiba.magma.support.VariableEntityBean;
 import org.obiba.magma.type.DateTimeType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Predicate;
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 @SuppressWarnings("OverlyCoupledClass")
 class HibernateValueTable extends AbstractValueTable {
 
   private static final Logger log = LoggerFactory.getLogger(HibernateValueTable.class);
 
+  private static final int VALUE_SETS_PAGE_SIZE = 500;
+
   private final Serializable valueTableId;
 
   private final HibernateVariableEntityProvider variableEntityProvider;
@@ -103,6 +104,53 @@ class HibernateValueTable extends AbstractValueTable {
     return new HibernateValueSet(entity, criteria.getCriteria().setFetchMode("values", FetchMode.JOIN));
   }
 
+  /**
+   * Value sets are loaded by pages: the value set states and their values are fetched with one query per page.
+   */
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    return Iterables.concat(Iterables.transform(Iterables.partition(entities, VALUE_SETS_PAGE_SIZE),
+        new Function<List<VariableEntity>, Iterable<ValueSet>>() {
+          @Override
+          public Iterable<ValueSet> apply(List<VariableEntity> page) {
+            return loadValueSets(page);
+          }
+        }));
+  }
+
+  @SuppressWarnings("unchecked")
+  private Iterable<ValueSet> loadValueSets(List<VariableEntity> entities) {
+    List<String> identifiers = Lists.newArrayListWithCapacity(entities.size());
+    for(VariableEntity entity : entities) {
+      if(!hasValueSet(entity)) {
+        throw new NoSuchValueSetException(this, entity);
+      }
+      identifiers.add(entity.getIdentifier());
+    }
+    Session session = getDatasource().getSessionFactory().getCurrentSession();
+    List<ValueSetState> states = session.createCriteria(ValueSetState.class) //
+        .createAlias("variableEntity", "ve") //
+        .add(Restrictions.eq("valueTable.id", valueTableId)) //
+        .add(Restrictions.eq("ve.type", getEntityType())) //
+        .add(Restrictions.in("ve.identifier", identifiers)) //
+        .setFetchMode("values", FetchMode.JOIN) //
+        .setResultTransformer(Criteria.DISTINCT_ROOT_ENTITY) //
+        .list();
+    Map<String, ValueSetState> statesByIdentifier = Maps.newHashMapWithExpectedSize(states.size());
+    for(ValueSetState state : states) {
+      // do not let them accumulate in the session
+      session.evict(state);
+      statesByIdentifier.put(state.getVariableEntity().getIdentifier(), state);
+    }
+    ImmutableList.Builder<ValueSet> valueSets = ImmutableList.builder();
+    for(VariableEntity entity : entities) {
+      ValueSetState state = statesByIdentifier.get(entity.getIdentifier());
+      // value set may not be committed yet
+      valueSets.add(state == null ? getValueSet(entity) : new HibernateValueSet(entity, state));
+    }
+    return valueSets.build();
+  }
+
   @Override
   public boolean canDropValueSets() {
     return true;
@@ -154,15 +202,17 @@ class HibernateValueTable extends AbstractValueTable {
     };
   }
 
-  void dropValueSet(VariableEntity entity, Serializable valueSetId) {
+  /**
+   * Deletes a value set. Its entity is removed from the table when the transaction is committed, see
+   * {@link HibernateValueTableTransaction#removeEntity(VariableEntity)}.
+   */
+  void dropValueSet(Serializable valueSetId) {
     Session session = getDatasource().getSessionFactory().getCurrentSession();
 
     getDatasource()
         .deleteValueSets(getDatasource().getName() + "." + getName(), session, Collections.singleton(valueSetId));
 
     session.buildLockRequest(new LockOptions(LockMode.PESSIMISTIC_FORCE_INCREMENT)).lock(getValueTableState());
-
-    variableEntityProvider.remove(entity);
   }
 
   @SuppressWarnings("unchecked")
@@ -244,28 +294,32 @@ class HibernateValueTable extends AbstractValueTable {
     };
   }
 
+  /**
+   * Overridden to include the uncommitted sources when a transaction exists on this table and is visible in the
+   * current session. Committed sources take precedence over uncommitted ones.
+   */
   @Override
-  public VariableValueSource getVariableValueSource(final String variableName) throws NoSuchVariableException {
-    try {
-      return Iterables.find(getSources(), new Predicate<VariableValueSource>() {
-        @Override
-        public boolean apply(VariableValueSource variableValueSource) {
-          return variableValueSource.getVariable().getName().equals(variableName);
-        }
-      });
-    } catch(NoSuchElementException e) {
+  public VariableValueSource getVariableValueSource(String variableName) throws NoSuchVariableException {
+    if(super.hasVariable(variableName)) {
+      return super.getVariableValueSource(variableName);
+    }
+    VariableValueSource source = getUncommittedSource(variableName);
+    if(source == null) {
       throw new NoSuchVariableException(getName(), variableName);
     }
+    return source;
   }
 
   @Override
   public boolean hasVariable(String variableName) {
-    for(VariableValueSource source : getSources()) {
-      if(source.getVariable().getName().equals(variableName)) {
-        return true;
-      }
-    }
-    return false;
+    return super.hasVariable(variableName) || getUncommittedSource(variableName) != null;
+  }
+
+  @Nullable
+  private VariableValueSource getUncommittedSource(String variableName) {
+    return getDatasource().hasTableTransaction(getName()) //
+        ? getDatasource().getTableTransaction(getName()).getUncommittedSource(variableName) //
+        : null;
   }
 
   /**
@@ -298,11 +352,18 @@ class HibernateValueTable extends AbstractValueTable {
   }
 
   void commitEntities(Collection<VariableEntity> newEntities) {
-    variableEntityProvider.entities.addAll(newEntities);
+    variableEntityProvider.add(newEntities);
+  }
+
+  void commitRemovedEntities(Collection<VariableEntity> removedEntities) {
+    variableEntityProvider.remove(removedEntities);
   }
 
   void commitSources(Collection<VariableValueSource> uncommittedSources) {
-    addVariableValueSources(uncommittedSources);
+    // sources are equal by variable name: replace them in place or append them
+    for(VariableValueSource source : uncommittedSources) {
+      addVariableValueSource(source);
+    }
   }
 
   void commitRemovedSources(Iterable<VariableValueSource> uncommittedRemovedSources) {
@@ -315,6 +376,18 @@ class HibernateValueTable extends AbstractValueTable {
     return variableValueSource.getVariableState();
   }
 
+  /**
+   * Looks up the state of a variable by the id cached in its source.
+   *
+   * @param variableName
+   * @return null if there is no such variable or if it is not flushed yet
+   */
+  @Nullable
+  VariableState findVariableState(String variableName) {
+    if(!hasVariable(variableName)) return null;
+    return ((HibernateVariableValueSource) getVariableValueSource(variableName)).findVariableState();
+  }
+
   private void readVariables() {
     log.debug("Populating variable cache for table {}", getName());
     VariableValueSourceFactory factory = new HibernateVariableValueSourceFactory(this);
@@ -328,6 +401,7 @@ class HibernateValueTable extends AbstractValueTable {
 
   class HibernateValueSet extends ValueSetBean {
 
+    @Nullable
     private final Criteria valueSetCriteria;
 
     private ValueSetState valueSetState;
@@ -337,6 +411,12 @@ class HibernateValueTable extends AbstractValueTable {
       this.valueSetCriteria = valueSetCriteria;
     }
 
+    HibernateValueSet(VariableEntity entity, @NotNull ValueSetState valueSetState) {
+      super(HibernateValueTable.this, entity);
+      valueSetCriteria = null;
+      this.valueSetState = valueSetState;
+    }
+
     synchronized ValueSetState getValueSetState() {
       if(valueSetState == null) {
         valueSetState = (ValueSetState) valueSetCriteria.uniqueResult();
@@ -364,44 +444,58 @@ class HibernateValueTable extends AbstractValueTable {
 
   public class HibernateVariableEntityProvider extends AbstractVariableEntityProvider implements Initialisable {
 
-    private final Set<VariableEntity> entities = new LinkedHashSet<>();
+    /**
+     * Immutable snapshot of the committed entities, replaced on each update.
+     */
+    private volatile VariableEntitySet entities;
 
     public HibernateVariableEntityProvider(String entityType) {
       super(entityType);
+      entities = VariableEntitySet.empty(entityType);
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void initialise() {
       log.debug("Populating entity cache for table {}", getName());
-      entities.clear();
-      // get the variable entities that have a value set in the table
-      AssociationCriteria criteria = AssociationCriteria
-          .create(ValueSetState.class, getDatasource().getSessionFactory().getCurrentSession())
-          .add("valueTable.id", Operation.eq, valueTableId);
-      for(Object obj : criteria.list()) {
-        VariableEntity entity = ((ValueSetState) obj).getVariableEntity();
-        entities.add(new VariableEntityBean(entity.getType(), entity.getIdentifier()));
-      }
+      // get the identifiers of the variable entities that have a value set in the table
+      List<String> identifiers = getDatasource().getSessionFactory().getCurrentSession()
+          .getNamedQuery("findEntityIdentifiersByTableId") //
+          .setParameter("valueTableId", valueTableId) //
+          .list();
+      entities = VariableEntitySet.of(getEntityType(), identifiers);
       log.debug("Populating entity cache - done. {} entities loaded.", entities.size());
     }
 
     /**
-     * Returns the set of entities in this table. Will also include uncommitted entities when a transaction is active
-     * for this table in the current session.
+     * Returns the set of entities in this table. Will also include uncommitted entities, and exclude uncommitted
+     * removed ones, when a transaction is active for this table in the current session.
+     * <p/>
+     * Committed entities are iterated in the natural order of {@code VariableEntity} (by identifier), not in the order
+     * they were written; uncommitted entities come after them.
      */
     @NotNull
     @Override
     public Set<VariableEntity> getVariableEntities() {
-      //TODO cache these entities instead of recreating an ImmutableSet each time
       if(getDatasource().hasTableTransaction(getName())) {
-        return ImmutableSet.copyOf(
-            Iterables.concat(entities, getDatasource().getTableTransaction(getName()).getUncommittedEntities()));
+        HibernateValueTableTransaction transaction = getDatasource().getTableTransaction(getName());
+        Set<VariableEntity> committed = transaction.getUncommittedRemovedEntities().isEmpty()
+            ? entities
+            : Sets.difference(entities, ImmutableSet.copyOf(transaction.getUncommittedRemovedEntities()));
+        List<VariableEntity> uncommittedEntities = transaction.getUncommittedEntities();
+        return uncommittedEntities.isEmpty()
+            ? committed
+            : Sets.union(committed, ImmutableSet.copyOf(uncommittedEntities));
       }
-      return Collections.unmodifiableSet(entities);
+      return entities;
+    }
+
+    synchronized void add(Collection<VariableEntity> newEntities) {
+      entities = entities.with(newEntities);
     }
 
-    public void remove(VariableEntity entity) {
-      entities.remove(entity);
+    synchronized void remove(Collection<VariableEntity> removedEntities) {
+      entities = entities.without(removedEntities);
     }
   }
 
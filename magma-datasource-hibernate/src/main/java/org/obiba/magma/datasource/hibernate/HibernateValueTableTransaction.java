@@ -2,7 +2,10 @@ package org.obiba.magma.datasource.hibernate;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
 import org.hibernate.LockMode;
@@ -10,6 +13,8 @@ import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * Transaction synchronisation for modifications made to a {@code HibernateValueTable}.
@@ -29,8 +34,14 @@ class HibernateValueTableTransaction extends HibernateDatasourceSynchronization
 
   private final List<VariableValueSource> uncommittedRemovedSources = Lists.newLinkedList();
 
+  private final Map<String, VariableValueSource> uncommittedSourcesByName = Maps.newHashMap();
+
+  private final Set<String> uncommittedRemovedSourceNames = Sets.newHashSet();
+
   private final List<VariableEntity> uncommittedEntities = Lists.newLinkedList();
 
+  private final Set<VariableEntity> uncommittedRemovedEntities = Sets.newLinkedHashSet();
+
   private final HibernateValueTableWriter transactionWriter;
 
   HibernateValueTableTransaction(@NotNull HibernateValueTable valueTable, boolean newTable) {
@@ -61,6 +72,7 @@ class HibernateValueTableTransaction extends HibernateDatasourceSynchronization
   @Override
   protected void commit() {
     super.commit();
+    valueTable.commitRemovedEntities(uncommittedRemovedEntities);
     valueTable.commitEntities(uncommittedEntities);
     valueTable.commitSources(uncommittedSources);
     valueTable.commitRemovedSources(uncommittedRemovedSources);
@@ -73,8 +85,11 @@ class HibernateValueTableTransaction extends HibernateDatasourceSynchronization
   protected void rollback() {
     super.rollback();
     uncommittedEntities.clear();
+    uncommittedRemovedEntities.clear();
     uncommittedSources.clear();
     uncommittedRemovedSources.clear();
+    uncommittedSourcesByName.clear();
+    uncommittedRemovedSourceNames.clear();
   }
 
   /**
@@ -84,10 +99,24 @@ class HibernateValueTableTransaction extends HibernateDatasourceSynchronization
    */
   public void addSource(VariableValueSource source) {
     uncommittedSources.add(source);
+    uncommittedSourcesByName.put(source.getName(), source);
   }
 
   public void removeSource(VariableValueSource source) {
     uncommittedRemovedSources.add(source);
+    uncommittedRemovedSourceNames.add(source.getName());
+  }
+
+  /**
+   * Returns the uncommitted {@code VariableValueSource} with the specified name, null if there is none or if it was
+   * removed within this transaction.
+   *
+   * @param name the variable name
+   * @return
+   */
+  @Nullable
+  public VariableValueSource getUncommittedSource(String name) {
+    return uncommittedRemovedSourceNames.contains(name) ? null : uncommittedSourcesByName.get(name);
   }
 
   /**
@@ -118,4 +147,24 @@ class HibernateValueTableTransaction extends HibernateDatasourceSynchronization
   public List<VariableEntity> getUncommittedEntities() {
     return Collections.unmodifiableList(uncommittedEntities);
   }
+
+  /**
+   * Add a {@code VariableEntity} which value set was deleted to the entities to be removed, all at once, after
+   * transaction completion.
+   *
+   * @param entity
+   */
+  public void removeEntity(VariableEntity entity) {
+    uncommittedEntities.remove(entity);
+    uncommittedRemovedEntities.add(entity);
+  }
+
+  /**
+   * Returns the set of {@code VariableEntity} to be removed after transaction completion.
+   *
+   * @return
+   */
+  public Set<VariableEntity> getUncommittedRemovedEntities() {
+    return Collections.unmodifiableSet(uncommittedRemovedEntities);
+  }
 }
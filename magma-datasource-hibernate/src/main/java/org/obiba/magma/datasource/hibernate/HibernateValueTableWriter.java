@@ -61,6 +61,13 @@ class HibernateValueTableWriter implements ValueTableWriter {
 
   private boolean dirty = false;
 
+  /**
+   * Number of value sets written between two session flushes in bulk load mode, 0 when not in bulk load mode.
+   */
+  private int bulkFlushInterval = 0;
+
+  private int unflushedValueSets = 0;
+
   private final HibernateMarshallingContext context;
 
   HibernateValueTableWriter(HibernateValueTableTransaction transaction) {
@@ -88,8 +95,33 @@ class HibernateValueTableWriter implements ValueTableWriter {
     return new HibernateVariableWriter();
   }
 
+  /**
+   * In bulk load mode, the written entities are expected to have no value set in the table: value sets are created
+   * without looking up and locking existing ones, the session is flushed every {@code flushInterval} value sets and the
+   * table last update is updated once, when this writer is closed.
+   *
+   * @param flushInterval
+   */
+  void setBulkLoad(int flushInterval) {
+    checkArgument(flushInterval > 0, "flushInterval must be greater than zero");
+    bulkFlushInterval = flushInterval;
+  }
+
+  boolean isBulkLoad() {
+    return bulkFlushInterval > 0;
+  }
+
   @Override
   public void close() {
+    if(isBulkLoad() && !errorOccurred) {
+      if(dirty) {
+        updateTableLastUpdate();
+        dirty = false;
+      }
+      session.flush();
+      session.clear();
+      unflushedValueSets = 0;
+    }
   }
 
   private void updateTableLastUpdate() {
@@ -233,6 +265,14 @@ class HibernateValueTableWriter implements ValueTableWriter {
       // find entity or create it
       VariableEntityState variableEntityState = entityConverter.marshal(entity, context);
 
+      if(isBulkLoad()) {
+        valueSetState = new ValueSetState(valueTable.getValueTableState(), variableEntityState);
+        session.save(valueSetState);
+        values = Maps.newHashMap();
+        isNewValueSet = true;
+        return;
+      }
+
       // Will update version timestamp if it exists
       ValueSetState state = (ValueSetState) AssociationCriteria.create(ValueSetState.class, session) //
           .add("valueTable", Operation.eq, valueTable.getValueTableState()) //
@@ -262,7 +302,11 @@ class HibernateValueTableWriter implements ValueTableWriter {
       if(value == null) throw new IllegalArgumentException("value cannot be null");
 
       try {
-        VariableState variableState = variableConverter.getStateForVariable(variable, valueTable.createContext());
+        VariableState variableState = valueTable.findVariableState(variable.getName());
+        if(variableState == null) {
+          // variable not flushed yet
+          variableState = variableConverter.getStateForVariable(variable, valueTable.createContext());
+        }
         if(variableState == null) {
           throw new NoSuchVariableException(valueTable.getName(), variable.getName());
         }
@@ -283,7 +327,8 @@ class HibernateValueTableWriter implements ValueTableWriter {
 
     @Override
     public void remove() {
-      valueTable.dropValueSet(entity, valueSetState.getId());
+      valueTable.dropValueSet(valueSetState.getId());
+      transaction.removeEntity(entity);
     }
 
     private void createValue(Variable variable, Value value, VariableState variableState) {
@@ -390,6 +435,16 @@ class HibernateValueTableWriter implements ValueTableWriter {
           transaction.addEntity(entity);
         }
 
+        if(isBulkLoad()) {
+          // table last update is updated when the table writer is closed
+          if(++unflushedValueSets >= bulkFlushInterval) {
+            session.flush();
+            session.clear();
+            unflushedValueSets = 0;
+          }
+          return;
+        }
+
         if(dirty) {
           updateTableLastUpdate();
           dirty = false;
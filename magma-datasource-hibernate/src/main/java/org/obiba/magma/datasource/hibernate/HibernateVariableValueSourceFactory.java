@@ -8,6 +8,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
 import org.hibernate.FetchMode;
@@ -21,9 +22,11 @@ import org.obiba.core.service.SortingClause;
 import org.obiba.core.service.impl.hibernate.AssociationCriteria;
 import org.obiba.core.service.impl.hibernate.AssociationCriteria.Operation;
 import org.obiba.magma.AbstractVariableValueSource;
+import org.obiba.magma.AggregatingVectorSource;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueLoaderFactory;
 import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
 import org.obiba.magma.ValueType;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
@@ -78,7 +81,8 @@ class HibernateVariableValueSourceFactory implements VariableValueSourceFactory
     return valueTable.getDatasource().getSessionFactory().getCurrentSession();
   }
 
-  class HibernateVariableValueSource extends AbstractVariableValueSource implements VariableValueSource, VectorSource {
+  class HibernateVariableValueSource extends AbstractVariableValueSource
+      implements VariableValueSource, AggregatingVectorSource {
 
     private final String name;
 
@@ -102,6 +106,15 @@ class HibernateVariableValueSourceFactory implements VariableValueSourceFactory
       return (VariableState) getCurrentSession().get(VariableState.class, ensureVariableId());
     }
 
+    /**
+     * @return the variable state, null if it is not persisted yet
+     */
+    @Nullable
+    VariableState findVariableState() {
+      Serializable id = lookupVariableId();
+      return id == null ? null : (VariableState) getCurrentSession().get(VariableState.class, id);
+    }
+
     @NotNull
     @Override
     public synchronized Variable getVariable() {
@@ -160,6 +173,49 @@ class HibernateVariableValueSourceFactory implements VariableValueSourceFactory
       };
     }
 
+    /**
+     * Values are read with a forward only cursor over the value sets of the table and counted as they come, so that
+     * only the frequencies are held in memory. The value columns are large objects, which databases cannot group by or
+     * only by a prefix. The elements of a value sequence are counted one by one.
+     */
+    @Nullable
+    @Override
+    public Map<Value, Long> getValueFrequencies(ValueTable table) {
+      if(table != valueTable || getValueType().isBinary()) return null;
+
+      Map<Value, Long> frequencies = Maps.newHashMap();
+      ScrollableResults results = getCurrentSession().getNamedQuery("unorderedValues") //
+          .setParameter("valueTableId", valueTable.getValueTableState().getId()) //
+          .setParameter("variableId", ensureVariableId()) //
+          .setReadOnly(true) //
+          .scroll(ScrollMode.FORWARD_ONLY);
+      try {
+        while(results.next()) {
+          // null values are not persisted: value sets without value are counted as null
+          Value value = (Value) results.get(0);
+          if(value != null && value.isSequence()) {
+            if(value.isNull()) {
+              count(frequencies, null, 1);
+            } else {
+              for(Value v : value.asSequence().getValue()) {
+                count(frequencies, v.isNull() ? null : v, 1);
+              }
+            }
+          } else {
+            count(frequencies, value == null || value.isNull() ? null : value, 1);
+          }
+        }
+      } finally {
+        results.close();
+      }
+      return frequencies;
+    }
+
+    private void count(Map<Value, Long> frequencies, @Nullable Value value, long increment) {
+      Long count = frequencies.get(value);
+      frequencies.put(value, (count == null ? 0 : count) + increment);
+    }
+
     @NotNull
     @Override
     public ValueType getValueType() {
@@ -176,12 +232,21 @@ class HibernateVariableValueSourceFactory implements VariableValueSourceFactory
     }
 
     private Serializable ensureVariableId() {
+      Serializable id = lookupVariableId();
+      if(id == null) throw new IllegalStateException("variable '" + name + "' not persisted yet.");
+      return id;
+    }
+
+    /**
+     * The variable id is queried once and then cached, so that the variable state is read by its primary key.
+     */
+    @Nullable
+    private Serializable lookupVariableId() {
       if(variableId == null) {
         IEntity state = (IEntity) getCurrentSession().createCriteria(VariableState.class) //
             .add(Restrictions.eq("name", name))//
             .add(Restrictions.eq("valueTable", valueTable.getValueTableState())).uniqueResult();
-        if(state == null) throw new IllegalStateException("variable '" + name + "' not persisted yet.");
-        variableId = state.getId();
+        if(state != null) variableId = state.getId();
       }
       return variableId;
     }
@@ -0,0 +1,154 @@
+package org.obiba.magma.datasource.hibernate;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.validation.constraints.NotNull;
+
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.support.VariableEntityBean;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Immutable set of the entities of one type, held as a sorted array of interned identifiers and iterated in the
+ * natural order of {@code VariableEntity}. Instances are shared without copying: updates create a new set.
+ */
+class VariableEntitySet extends AbstractSet<VariableEntity> {
+
+  /**
+   * Tables of a datasource usually share their entities.
+   */
+  private static final Interner<String> IDENTIFIERS = Interners.newWeakInterner();
+
+  private static final String[] NO_IDENTIFIERS = new String[0];
+
+  @NotNull
+  private final String entityType;
+
+  /**
+   * Sorted and distinct identifiers.
+   */
+  private final String[] identifiers;
+
+  private VariableEntitySet(@NotNull String entityType, String[] identifiers) {
+    this.entityType = entityType;
+    this.identifiers = identifiers;
+  }
+
+  static VariableEntitySet empty(@NotNull String entityType) {
+    return new VariableEntitySet(entityType, NO_IDENTIFIERS);
+  }
+
+  static VariableEntitySet of(@NotNull String entityType, Collection<String> identifiers) {
+    return new VariableEntitySet(entityType, sortedDistinct(identifiers.toArray(new String[identifiers.size()])));
+  }
+
+  /**
+   * Returns a set that also contains the specified entities.
+   */
+  VariableEntitySet with(Collection<? extends VariableEntity> entities) {
+    if(entities.isEmpty()) return this;
+    String[] added = new String[entities.size()];
+    int count = 0;
+    for(VariableEntity entity : entities) {
+      if(!contains(entity)) added[count++] = entity.getIdentifier();
+    }
+    if(count == 0) return this;
+    added = sortedDistinct(Arrays.copyOf(added, count));
+
+    // merge the sorted arrays
+    String[] merged = new String[identifiers.length + added.length];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while(i < identifiers.length && j < added.length) {
+      merged[k++] = identifiers[i].compareTo(added[j]) < 0 ? identifiers[i++] : added[j++];
+    }
+    while(i < identifiers.length) {
+      merged[k++] = identifiers[i++];
+    }
+    while(j < added.length) {
+      merged[k++] = added[j++];
+    }
+    return new VariableEntitySet(entityType, merged);
+  }
+
+  /**
+   * Returns a set that does not contain the specified entities, copying the identifiers once.
+   */
+  VariableEntitySet without(Collection<? extends VariableEntity> entities) {
+    if(entities.isEmpty()) return this;
+    boolean[] removed = new boolean[identifiers.length];
+    int count = 0;
+    for(VariableEntity entity : entities) {
+      int index = indexOf(entity);
+      if(index >= 0 && !removed[index]) {
+        removed[index] = true;
+        count++;
+      }
+    }
+    if(count == 0) return this;
+    String[] remaining = new String[identifiers.length - count];
+    int k = 0;
+    for(int i = 0; i < identifiers.length; i++) {
+      if(!removed[i]) remaining[k++] = identifiers[i];
+    }
+    return new VariableEntitySet(entityType, remaining);
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof VariableEntity && indexOf((VariableEntity) o) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return identifiers.length;
+  }
+
+  @Override
+  public Iterator<VariableEntity> iterator() {
+    return new Iterator<VariableEntity>() {
+
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        return index < identifiers.length;
+      }
+
+      @Override
+      public VariableEntity next() {
+        if(!hasNext()) throw new NoSuchElementException();
+        return new VariableEntityBean(entityType, identifiers[index++]);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private int indexOf(VariableEntity entity) {
+    if(!entityType.equals(entity.getType()) || entity.getIdentifier() == null) return -1;
+    return Arrays.binarySearch(identifiers, entity.getIdentifier());
+  }
+
+  private static String[] sortedDistinct(String[] identifiers) {
+    Arrays.sort(identifiers);
+    int count = 0;
+    for(int i = 0; i < identifiers.length; i++) {
+      if(count == 0 || !identifiers[i].equals(identifiers[count - 1])) {
+        identifiers[count++] = IDENTIFIERS.intern(identifiers[i]);
+      }
+    }
+    return count == identifiers.length ? identifiers : Arrays.copyOf(identifiers, count);
+  }
+
+}
@@ -30,13 +30,13 @@ import org.hibernate.annotations.Columns;
 import org.hibernate.annotations.Type;
 import org.hibernate.annotations.TypeDef;
 import org.obiba.magma.Value;
-import org.obiba.magma.datasource.hibernate.type.ValueHibernateType;
+import org.obiba.magma.datasource.hibernate.type.EncodedValueHibernateType;
 
 import com.google.common.base.Objects;
 
 @Entity
 @Table(name = "value_set_value")
-@TypeDef(name = "value", typeClass = ValueHibernateType.class)
+@TypeDef(name = "encoded_value", typeClass = EncodedValueHibernateType.class)
 @NamedQueries({ //
     @NamedQuery(name = "findValuesByTable",
         query = "SELECT vsv FROM ValueSetValue vsv WHERE vsv.id.valueSet " + //
@@ -52,11 +52,12 @@ public class ValueSetValue implements Timestamped, Serializable {
   @EmbeddedId
   private ValueSetValueId id;
 
-  @Type(type = "value")
+  @Type(type = "encoded_value")
   @Columns(columns = { //
       @Column(name = "value_type", nullable = false), //
       @Column(name = "is_sequence", nullable = false), //
-      @Column(name = "value", length = Integer.MAX_VALUE, nullable = false) })
+      @Column(name = "value", length = Integer.MAX_VALUE), //
+      @Column(name = "binary_value", length = 16777215) })
   private Value value;
 
   @SuppressWarnings("FieldMayBeFinal")
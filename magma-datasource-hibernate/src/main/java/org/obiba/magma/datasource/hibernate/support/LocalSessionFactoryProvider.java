@@ -14,6 +14,7 @@ import org.obiba.magma.MagmaRuntimeException;
 import org.obiba.magma.datasource.hibernate.SessionFactoryProvider;
 import org.obiba.magma.datasource.hibernate.cfg.HibernateConfigurationHelper;
 import org.obiba.magma.datasource.hibernate.cfg.MagmaDialectResolver;
+import org.obiba.magma.datasource.hibernate.type.EncodedValueHibernateType;
 import org.springframework.orm.hibernate4.LocalSessionFactoryBuilder;
 
 public class LocalSessionFactoryProvider implements SessionFactoryProvider, Initialisable {
@@ -24,6 +25,10 @@ public class LocalSessionFactoryProvider implements SessionFactoryProvider, Init
 
   private Properties properties;
 
+  private String valueEncoding;
+
+  private int jdbcBatchSize;
+
   private SessionFactory sessionFactory;
 
   private Object jtaTransactionManager;
@@ -58,6 +63,13 @@ public class LocalSessionFactoryProvider implements SessionFactoryProvider, Init
       builder.setProperty(Environment.USE_STREAMS_FOR_BINARY, "false");
     }
 
+    if(valueEncoding != null) builder.setProperty(EncodedValueHibernateType.VALUE_ENCODING, valueEncoding);
+
+    if(jdbcBatchSize > 0) {
+      builder.setProperty(Environment.STATEMENT_BATCH_SIZE, String.valueOf(jdbcBatchSize));
+      builder.setProperty(Environment.ORDER_INSERTS, "true");
+    }
+
     if(properties != null) builder.addProperties(properties);
     sessionFactory = builder.buildSessionFactory();
   }
@@ -82,6 +94,27 @@ public class LocalSessionFactoryProvider implements SessionFactoryProvider, Init
     this.properties = properties;
   }
 
+  /**
+   * Encoding of the values written in the datasources of this session factory: {@code text} (default) or
+   * {@code binary}.
+   *
+   * @param valueEncoding
+   */
+  public void setValueEncoding(String valueEncoding) {
+    this.valueEncoding = valueEncoding;
+  }
+
+  /**
+   * Groups the inserts of the sessions of this session factory in JDBC batches of the given size, ordered by entity,
+   * which mostly benefits the bulk writers of {@link org.obiba.magma.datasource.hibernate.HibernateDatasource}.
+   * Hibernate has no per session batch size, so this applies to all the sessions. Not set by default.
+   *
+   * @param jdbcBatchSize
+   */
+  public void setJdbcBatchSize(int jdbcBatchSize) {
+    this.jdbcBatchSize = jdbcBatchSize;
+  }
+
   public void setJtaTransactionManager(Object jtaTransactionManager) {
     this.jtaTransactionManager = jtaTransactionManager;
   }
@@ -0,0 +1,125 @@
+package org.obiba.magma.datasource.hibernate.type;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+
+import org.obiba.magma.MagmaDate;
+import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueType;
+import org.obiba.magma.type.BooleanType;
+import org.obiba.magma.type.DateTimeType;
+import org.obiba.magma.type.DateType;
+import org.obiba.magma.type.DecimalType;
+import org.obiba.magma.type.IntegerType;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Encodes numeric, boolean and date values (and sequences of them) in a compact binary form that is decoded without
+ * parsing any string:
+ * <ul>
+ * <li>integer: 8 bytes long</li>
+ * <li>decimal: 8 bytes double</li>
+ * <li>boolean: 1 byte</li>
+ * <li>date: year, month and day of month as 3 ints</li>
+ * <li>datetime: 8 bytes long of the milliseconds since epoch</li>
+ * <li>sequence: the number of values as an int, then for each value a null flag byte followed by its encoding</li>
+ * </ul>
+ * Values of the other types are not encoded.
+ */
+public final class BinaryValueCodec {
+
+  private BinaryValueCodec() {}
+
+  public static boolean canEncode(@NotNull ValueType valueType) {
+    return IntegerType.get().equals(valueType) || DecimalType.get().equals(valueType) ||
+        BooleanType.get().equals(valueType) || DateType.get().equals(valueType) ||
+        DateTimeType.get().equals(valueType);
+  }
+
+  public static byte[] encode(@NotNull Value value) {
+    if(!canEncode(value.getValueType())) {
+      throw new IllegalArgumentException("cannot encode values of type " + value.getValueType().getName());
+    }
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      if(value.isSequence()) {
+        List<Value> values = value.asSequence().getValues();
+        out.writeInt(values.size());
+        for(Value v : values) {
+          out.writeBoolean(v.isNull());
+          if(!v.isNull()) write(out, v);
+        }
+      } else {
+        write(out, value);
+      }
+      out.flush();
+      return bytes.toByteArray();
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    }
+  }
+
+  public static Value decode(@NotNull ValueType valueType, boolean isSequence, @NotNull byte[] encoded) {
+    try {
+      DataInput in = new DataInputStream(new ByteArrayInputStream(encoded));
+      if(!isSequence) return read(in, valueType);
+
+      int size = in.readInt();
+      List<Value> values = Lists.newArrayListWithCapacity(size);
+      for(int i = 0; i < size; i++) {
+        values.add(in.readBoolean() ? valueType.nullValue() : read(in, valueType));
+      }
+      return valueType.sequenceOf(values);
+    } catch(IOException e) {
+      throw new MagmaRuntimeException(e);
+    }
+  }
+
+  private static void write(DataOutput out, Value value) throws IOException {
+    ValueType valueType = value.getValueType();
+    Object object = value.getValue();
+    if(IntegerType.get().equals(valueType)) {
+      out.writeLong(((Number) object).longValue());
+    } else if(DecimalType.get().equals(valueType)) {
+      out.writeDouble(((Number) object).doubleValue());
+    } else if(BooleanType.get().equals(valueType)) {
+      out.writeBoolean((Boolean) object);
+    } else if(DateType.get().equals(valueType)) {
+      MagmaDate date = (MagmaDate) object;
+      out.writeInt(date.getYear());
+      out.writeInt(date.getMonth());
+      out.writeInt(date.getDayOfMonth());
+    } else {
+      out.writeLong(((Date) object).getTime());
+    }
+  }
+
+  private static Value read(DataInput in, ValueType valueType) throws IOException {
+    if(IntegerType.get().equals(valueType)) {
+      return valueType.valueOf(in.readLong());
+    }
+    if(DecimalType.get().equals(valueType)) {
+      return valueType.valueOf(in.readDouble());
+    }
+    if(BooleanType.get().equals(valueType)) {
+      return valueType.valueOf(in.readBoolean());
+    }
+    if(DateType.get().equals(valueType)) {
+      return valueType.valueOf(new MagmaDate(in.readInt(), in.readInt(), in.readInt()));
+    }
+    return valueType.valueOf(new Date(in.readLong()));
+  }
+
+}
@@ -0,0 +1,150 @@
+package org.obiba.magma.datasource.hibernate.type;
+
+import java.io.StringReader;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import javax.annotation.Nullable;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.metamodel.relational.Size;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueType;
+
+import com.google.common.base.Strings;
+
+/**
+ * A Hibernate Type for persisting {@code Value} instances either as text or in the binary encoding of
+ * {@link BinaryValueCodec}. The strategy uses 4 columns:
+ * <ul>
+ * <li>value_type: stores the name of the ValueType</li>
+ * <li>is_sequence: stores true when the {@code Value} is a {@code ValueSequence},false otherwise.</li>
+ * <li>value: stores the value returned by {@code value.toString()}, null when the value is binary encoded</li>
+ * <li>binary_value: stores the binary encoded value, null when the value is stored as text</li>
+ * </ul>
+ * The encoding used for writing is given by the {@link #VALUE_ENCODING} property of the session factory
+ * ({@link #TEXT_ENCODING} by default). Both encodings are always read, so that a database can be switched to the binary
+ * encoding without rewriting its existing values. Databases created before the binary encoding must drop the NOT NULL
+ * constraint of the value column before writing binary values, which a schema update does not do.
+ */
+public class EncodedValueHibernateType extends ValueHibernateType {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final String VALUE_ENCODING = "org.obiba.magma.datasource.hibernate.value_encoding";
+
+  public static final String TEXT_ENCODING = "text";
+
+  public static final String BINARY_ENCODING = "binary";
+
+  @Override
+  public int getColumnSpan(Mapping mapping) throws MappingException {
+    return 4;
+  }
+
+  @Override
+  public String getName() {
+    return "EncodedValue";
+  }
+
+  @Nullable
+  @Override
+  public Object nullSafeGet(ResultSet rs, String[] names, SessionImplementor session, Object owner)
+      throws HibernateException, SQLException {
+    String valueTypeName = rs.getString(names[0]);
+    // Even when the column is NOT NULL, a SELECT statement can return NULL (using a left join for example).
+    if(valueTypeName == null) {
+      return null;
+    }
+    ValueType valueType = ValueType.Factory.forName(valueTypeName);
+    boolean isSequence = rs.getBoolean(names[1]);
+    String stringValue = rs.getString(names[2]);
+    byte[] binaryValue = rs.getBytes(names[3]);
+    if(binaryValue != null) {
+      return BinaryValueCodec.decode(valueType, isSequence, binaryValue);
+    }
+    return isSequence ? valueType.sequenceOf(stringValue) : valueType.valueOf(stringValue);
+  }
+
+  @Override
+  public void nullSafeSet(PreparedStatement st, Object obj, int index, boolean[] settable, SessionImplementor session)
+      throws HibernateException, SQLException {
+    Value value = (Value) obj;
+    byte[] binaryValue = encode(value, session);
+
+    int offset = 0;
+    if(settable[0]) {
+      st.setString(index + offset++, value.getValueType().getName());
+    }
+    if(settable[1]) {
+      st.setBoolean(index + offset++, value.isSequence());
+    }
+    if(settable[2]) {
+      if(binaryValue == null) {
+        st.setString(index + offset++, value.toString());
+      } else {
+        st.setNull(index + offset++, Types.CLOB);
+      }
+    }
+    if(settable[3]) {
+      setBinaryValue(st, index + offset, binaryValue);
+    }
+  }
+
+  @Override
+  public void nullSafeSet(PreparedStatement st, Object obj, int index, SessionImplementor session)
+      throws HibernateException, SQLException {
+    Value value = (Value) obj;
+    byte[] binaryValue = encode(value, session);
+    st.setString(index, value.getValueType().getName());
+    st.setBoolean(index + 1, value.isSequence());
+    if(binaryValue == null) {
+      String stringValue = Strings.nullToEmpty(value.isNull() ? null : value.toString());
+      st.setClob(index + 2, new StringReader(stringValue), stringValue.length());
+    } else {
+      st.setNull(index + 2, Types.CLOB);
+    }
+    setBinaryValue(st, index + 3, binaryValue);
+  }
+
+  @Override
+  public int[] sqlTypes(Mapping mapping) throws MappingException {
+    return new int[] { Types.VARCHAR, Types.BIT, Types.CLOB, Types.VARBINARY };
+  }
+
+  @Override
+  public boolean[] toColumnNullness(Object value, Mapping mapping) {
+    return new boolean[] { false, false, false, true };
+  }
+
+  @Override
+  public Size[] defaultSizes(Mapping mapping) throws MappingException {
+    return new Size[] { //
+        new Size(Size.DEFAULT_PRECISION, Size.DEFAULT_SCALE, Size.DEFAULT_LENGTH, Size.LobMultiplier.NONE), // 255
+        new Size(Size.DEFAULT_PRECISION, Size.DEFAULT_SCALE, 1, Size.LobMultiplier.NONE), // 1
+        new Size(Size.DEFAULT_PRECISION, Size.DEFAULT_SCALE, 1, Size.LobMultiplier.G), // 1GB
+        new Size(Size.DEFAULT_PRECISION, Size.DEFAULT_SCALE, 16, Size.LobMultiplier.M) // 16MB
+    };
+  }
+
+  @Nullable
+  private byte[] encode(Value value, SessionImplementor session) {
+    if(value.isNull() || !BinaryValueCodec.canEncode(value.getValueType())) return null;
+    String encoding = session.getFactory().getProperties().getProperty(VALUE_ENCODING, TEXT_ENCODING);
+    return BINARY_ENCODING.equals(encoding) ? BinaryValueCodec.encode(value) : null;
+  }
+
+  private void setBinaryValue(PreparedStatement st, int index, @Nullable byte[] binaryValue) throws SQLException {
+    if(binaryValue == null) {
+      st.setNull(index, Types.VARBINARY);
+    } else {
+      st.setBytes(index, binaryValue);
+    }
+  }
+
+}
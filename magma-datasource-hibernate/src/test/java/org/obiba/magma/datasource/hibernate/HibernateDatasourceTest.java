@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -14,6 +15,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.obiba.magma.AggregatingVectorSource;
 import org.obiba.magma.Category;
 import org.obiba.magma.MagmaEngine;
 import org.obiba.magma.NoSuchValueSetException;
@@ -36,8 +38,11 @@ import org.obiba.magma.datasource.hibernate.domain.ValueSetState;
 import org.obiba.magma.datasource.hibernate.domain.ValueSetValue;
 import org.obiba.magma.datasource.hibernate.domain.ValueTableState;
 import org.obiba.magma.datasource.hibernate.domain.VariableState;
+import org.obiba.magma.math.summary.CategoricalVariableSummary;
+import org.obiba.magma.math.summary.ContinuousVariableSummary;
 import org.obiba.magma.support.DatasourceCopier;
 import org.obiba.magma.support.Initialisables;
+import org.obiba.magma.support.Values;
 import org.obiba.magma.support.VariableEntityBean;
 import org.obiba.magma.type.BinaryType;
 import org.obiba.magma.type.DateTimeType;
@@ -55,12 +60,15 @@ import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.data.MapEntry.entry;
 import static org.junit.Assert.fail;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -142,6 +150,41 @@ public class HibernateDatasourceTest {
     });
   }
 
+  @Test
+  public void test_uncommitted_variable_lookup() {
+
+    transactionTemplate.execute(new TransactionCallbackRuntimeExceptions() {
+      @Override
+      protected void doAction(TransactionStatus status) throws Exception {
+        HibernateDatasource ds = createDatasource();
+        MagmaEngine.get().addDatasource(ds);
+        try(ValueTableWriter tableWriter = ds.createWriter(TABLE, PARTICIPANT);
+            VariableWriter variableWriter = tableWriter.writeVariables()) {
+          variableWriter.writeVariable(Variable.Builder.newVariable("Var1", IntegerType.get(), PARTICIPANT).build());
+        }
+
+        // the variable is visible within the transaction
+        ValueTable table = ds.getValueTable(TABLE);
+        assertThat(table.hasVariable("Var1")).isTrue();
+        assertThat(table.getVariableValueSource("Var1").getVariable().getName()).isEqualTo("Var1");
+        assertThat(table.hasVariable("Var2")).isFalse();
+      }
+    });
+
+    transactionTemplate.execute(new TransactionCallbackRuntimeExceptions() {
+      @Override
+      protected void doAction(TransactionStatus status) throws Exception {
+        ValueTable table = getDatasource().getValueTable(TABLE);
+        assertThat(table.hasVariable("Var1")).isTrue();
+        try {
+          table.getVariableValueSource("Var2");
+          fail("Should throw NoSuchVariableException");
+        } catch(NoSuchVariableException ignored) {
+        }
+      }
+    });
+  }
+
   @Test
   public void test_table_and_variables_persisted() {
 
@@ -1204,6 +1247,142 @@ public class HibernateDatasourceTest {
     });
   }
 
+  @Test
+  public void test_bulk_write() {
+
+    final Variable variable = Variable.Builder.newVariable("Test Variable", IntegerType.get(), PARTICIPANT).build();
+
+    transactionTemplate.execute(new TransactionCallbackRuntimeExceptions() {
+      @Override
+      protected void doAction(TransactionStatus status) throws Exception {
+        HibernateDatasource ds = createDatasource();
+        MagmaEngine.get().addDatasource(ds);
+        try(ValueTableWriter tableWriter = ds.createBulkWriter(TABLE, PARTICIPANT, 10)) {
+          try(VariableWriter variableWriter = tableWriter.writeVariables()) {
+            variableWriter.writeVariable(variable);
+          }
+          for(int i = 0; i < 25; i++) {
+            try(ValueTableWriter.ValueSetWriter valueSetWriter = tableWriter
+                .writeValueSet(new VariableEntityBean(PARTICIPANT, "id" + i))) {
+              valueSetWriter.writeValue(variable, IntegerType.get().valueOf(i));
+            }
+          }
+        }
+      }
+    });
+
+    transactionTemplate.execute(new TransactionCallbackRuntimeExceptions() {
+      @Override
+      protected void doAction(TransactionStatus status) throws Exception {
+        ValueTable table = getDatasource().getValueTable(TABLE);
+        assertThat(table.getValueSetCount()).isEqualTo(25);
+        VariableEntity entity = new VariableEntityBean(PARTICIPANT, "id12");
+        assertThat(table.getValue(variable, table.getValueSet(entity))).isEqualTo(IntegerType.get().valueOf(12));
+      }
+    });
+  }
+
+  @Test
+  public void test_summaries_from_value_frequencies() {
+    final Variable score = Variable.Builder.newVariable("Score", IntegerType.get(), PARTICIPANT)
+        .addCategory("999", "", true).build();
+    final Variable scores = Variable.Builder.newVariable("Scores", IntegerType.get(), PARTICIPANT).repeatable()
+        .build();
+    final Variable answer = Variable.Builder.newVariable("Answer", TextType.get(), PARTICIPANT)
+        .addCategories("YES", "NO").build();
+
+    transactionTemplate.execute(new TransactionCallbackRuntimeExceptions() {
+      @Override
+      protected void doAction(TransactionStatus status) throws Exception {
+        HibernateDatasource ds = createDatasource();
+        MagmaEngine.get().addDatasource(ds);
+        try(ValueTableWriter tableWriter = ds.createWriter(TABLE, PARTICIPANT)) {
+          try(VariableWriter variableWriter = tableWriter.writeVariables()) {
+            variableWriter.writeVariable(score);
+            variableWriter.writeVariable(scores);
+            variableWriter.writeVariable(answer);
+          }
+          writeValueSet(tableWriter, "1", ImmutableMap.of(score, IntegerType.get().valueOf(10), //
+              scores, Values.asSequence(IntegerType.get(), 1, 2), answer, TextType.get().valueOf("YES")));
+          writeValueSet(tableWriter, "2", ImmutableMap.of(score, IntegerType.get().valueOf(20), //
+              scores, Values.asSequence(IntegerType.get(), 2), answer, TextType.get().valueOf("YES")));
+          writeValueSet(tableWriter, "3",
+              ImmutableMap.of(score, IntegerType.get().valueOf(20), answer, TextType.get().valueOf("NO")));
+          writeValueSet(tableWriter, "4",
+              ImmutableMap.of(score, IntegerType.get().valueOf(999), answer, TextType.get().valueOf("MAYBE")));
+          // entities without value
+          writeValueSet(tableWriter, "5", ImmutableMap.<Variable, Value>of());
+          writeValueSet(tableWriter, "6", ImmutableMap.<Variable, Value>of());
+        }
+      }
+    });
+
+    transactionTemplate.execute(new TransactionCallbackRuntimeExceptions() {
+      @Override
+      protected void doAction(TransactionStatus status) throws Exception {
+        ValueTable table = getDatasource().getValueTable(TABLE);
+
+        VectorSource vectorSource = table.getVariableValueSource("Score").asVectorSource();
+        assertThat(vectorSource).isInstanceOf(AggregatingVectorSource.class);
+        Map<Value, Long> expected = Maps.newHashMap();
+        expected.put(IntegerType.get().valueOf(10), 1l);
+        expected.put(IntegerType.get().valueOf(20), 2l);
+        expected.put(IntegerType.get().valueOf(999), 1l);
+        expected.put(null, 2l);
+        assertThat(((AggregatingVectorSource) vectorSource).getValueFrequencies(table)).isEqualTo(expected);
+
+        ContinuousVariableSummary continuous = new ContinuousVariableSummary.Builder(score,
+            ContinuousVariableSummary.Distribution.normal).addTable(table, table.getVariableValueSource("Score"))
+            .build();
+        assertThat(continuous.getDescriptiveStats().getN()).isEqualTo(3);
+        assertThat(continuous.getDescriptiveStats().getSum()).isEqualTo(50.0);
+        assertThat(continuous.getDescriptiveStats().getPercentile(50)).isEqualTo(20.0);
+        assertThat(continuousFrequencies(continuous)).containsOnly(entry("NOT_NULL", 3l), entry("999", 1l),
+            entry("N/A", 2l));
+
+        ContinuousVariableSummary sequences = new ContinuousVariableSummary.Builder(scores,
+            ContinuousVariableSummary.Distribution.normal).addTable(table, table.getVariableValueSource("Scores"))
+            .build();
+        assertThat(sequences.getDescriptiveStats().getN()).isEqualTo(3);
+        assertThat(sequences.getDescriptiveStats().getSum()).isEqualTo(5.0);
+        assertThat(continuousFrequencies(sequences)).containsOnly(entry("NOT_NULL", 3l), entry("N/A", 4l));
+
+        CategoricalVariableSummary categorical = new CategoricalVariableSummary.Builder(answer)
+            .addTable(table, table.getVariableValueSource("Answer")).build();
+        assertThat(categorical.getN()).isEqualTo(6);
+        assertThat(categorical.getMode()).isEqualTo("YES");
+        assertThat(categorical.getOtherFrequency()).isEqualTo(1);
+        assertThat(categoricalFrequencies(categorical)).containsOnly(entry("YES", 2l), entry("NO", 1l),
+            entry("N/A", 2l));
+      }
+    });
+  }
+
+  private void writeValueSet(ValueTableWriter tableWriter, String identifier, Map<Variable, Value> values) {
+    try(ValueTableWriter.ValueSetWriter valueSetWriter = tableWriter
+        .writeValueSet(new VariableEntityBean(PARTICIPANT, identifier))) {
+      for(Map.Entry<Variable, Value> entry : values.entrySet()) {
+        valueSetWriter.writeValue(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private Map<String, Long> continuousFrequencies(ContinuousVariableSummary summary) {
+    Map<String, Long> frequencies = Maps.newHashMap();
+    for(ContinuousVariableSummary.Frequency frequency : summary.getFrequencies()) {
+      frequencies.put(frequency.getValue(), frequency.getFreq());
+    }
+    return frequencies;
+  }
+
+  private Map<String, Long> categoricalFrequencies(CategoricalVariableSummary summary) {
+    Map<String, Long> frequencies = Maps.newHashMap();
+    for(CategoricalVariableSummary.Frequency frequency : summary.getFrequencies()) {
+      frequencies.put(frequency.getValue(), frequency.getFreq());
+    }
+    return frequencies;
+  }
+
   @Test
   // See http://jira.obiba.org/jira/browse/OPAL-2423
   public void test_get_binary_values_as_vector() throws IOException {
@@ -0,0 +1,41 @@
+package org.obiba.magma.datasource.hibernate;
+
+import org.junit.Test;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.support.VariableEntityBean;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class VariableEntitySetTest {
+
+  private static final String PARTICIPANT = "Participant";
+
+  @Test
+  public void test_of_with_without() {
+    VariableEntitySet entities = VariableEntitySet.of(PARTICIPANT, ImmutableList.of("3", "1", "2", "1"));
+    assertThat(entities).hasSize(3);
+    assertThat(entities.contains(entity("2"))).isTrue();
+    assertThat(entities.contains(new VariableEntityBean("Instrument", "2"))).isFalse();
+    assertThat(Lists.newArrayList(entities)).containsExactly(entity("1"), entity("2"), entity("3"));
+
+    VariableEntitySet added = entities.with(ImmutableList.of(entity("0"), entity("2"), entity("4")));
+    assertThat(Lists.newArrayList(added)).containsExactly(entity("0"), entity("1"), entity("2"), entity("3"),
+        entity("4"));
+    // snapshots are not modified
+    assertThat(entities).hasSize(3);
+
+    VariableEntitySet removed = added.without(ImmutableList.of(entity("4"), entity("2"), entity("5"), entity("2")));
+    assertThat(Lists.newArrayList(removed)).containsExactly(entity("0"), entity("1"), entity("3"));
+    assertThat(removed.without(ImmutableList.of(entity("2"), new VariableEntityBean("Instrument", "1"))))
+        .isSameAs(removed);
+    assertThat(added).hasSize(5);
+  }
+
+  private static VariableEntity entity(String identifier) {
+    return new VariableEntityBean(PARTICIPANT, identifier);
+  }
+
+}
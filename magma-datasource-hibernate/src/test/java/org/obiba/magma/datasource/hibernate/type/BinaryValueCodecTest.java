@@ -0,0 +1,47 @@
+package org.obiba.magma.datasource.hibernate.type;
+
+import java.util.Date;
+
+import org.junit.Test;
+import org.obiba.magma.MagmaDate;
+import org.obiba.magma.Value;
+import org.obiba.magma.type.BooleanType;
+import org.obiba.magma.type.DateTimeType;
+import org.obiba.magma.type.DateType;
+import org.obiba.magma.type.DecimalType;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.type.TextType;
+
+import com.google.common.collect.ImmutableList;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class BinaryValueCodecTest {
+
+  @Test
+  public void test_encode_decode_values() {
+    assertDecoded(IntegerType.get().valueOf(-42L));
+    assertDecoded(DecimalType.get().valueOf(3.14));
+    assertDecoded(BooleanType.get().valueOf(true));
+    assertDecoded(DateType.get().valueOf(new MagmaDate(2014, 11, 31)));
+    assertDecoded(DateTimeType.get().valueOf(new Date()));
+  }
+
+  @Test
+  public void test_encode_decode_sequence() {
+    IntegerType type = IntegerType.get();
+    assertDecoded(type.sequenceOf(ImmutableList.of(type.valueOf(1L), type.nullValue(), type.valueOf(3L))));
+    assertDecoded(DateType.get().sequenceOf(ImmutableList.<Value>of()));
+  }
+
+  @Test
+  public void test_text_is_not_encoded() {
+    assertThat(BinaryValueCodec.canEncode(TextType.get())).isFalse();
+  }
+
+  private void assertDecoded(Value value) {
+    byte[] encoded = BinaryValueCodec.encode(value);
+    assertThat(BinaryValueCodec.decode(value.getValueType(), value.isSequence(), encoded)).isEqualTo(value);
+  }
+
+}
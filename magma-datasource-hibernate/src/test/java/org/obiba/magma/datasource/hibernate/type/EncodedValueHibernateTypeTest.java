@@ -0,0 +1,196 @@
+package org.obiba.magma.datasource.hibernate.type;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.MagmaDate;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.ValueTableWriter;
+import org.obiba.magma.ValueTableWriter.ValueSetWriter;
+import org.obiba.magma.ValueTableWriter.VariableWriter;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.datasource.hibernate.HibernateDatasource;
+import org.obiba.magma.datasource.hibernate.support.LocalSessionFactoryProvider;
+import org.obiba.magma.support.Initialisables;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.DateTimeType;
+import org.obiba.magma.type.DateType;
+import org.obiba.magma.type.DecimalType;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.type.TextType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.hibernate4.HibernateTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Writes values in text and in binary encoding through Hibernate, in a database of its own.
+ */
+public class EncodedValueHibernateTypeTest {
+
+  private static final String DATASOURCE = "encodedDs";
+
+  private static final String TABLE = "encodedTable";
+
+  private static final String PARTICIPANT = "Participant";
+
+  private static final String COUNT_SQL = "SELECT COUNT(*) FROM value_set_value WHERE ";
+
+  private final Variable integerVariable = Variable.Builder.newVariable("INT", IntegerType.get(), PARTICIPANT).build();
+
+  private final Variable decimalVariable = Variable.Builder.newVariable("DEC", DecimalType.get(), PARTICIPANT)
+      .repeatable().build();
+
+  private final Variable dateVariable = Variable.Builder.newVariable("DATE", DateType.get(), PARTICIPANT).build();
+
+  private final Variable dateTimeVariable = Variable.Builder.newVariable("DATE_TIME", DateTimeType.get(), PARTICIPANT)
+      .build();
+
+  private final Variable textVariable = Variable.Builder.newVariable("TEXT", TextType.get(), PARTICIPANT).build();
+
+  private final Value dateTime = DateTimeType.get().valueOf(new Date());
+
+  private final List<SessionFactory> sessionFactories = Lists.newArrayList();
+
+  private DriverManagerDataSource dataSource;
+
+  @Before
+  public void setup() {
+    System.setProperty("net.sf.ehcache.skipUpdateCheck", "true");
+    MagmaEngine.get();
+    dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:magma_encoded_value_test", "sa", "");
+    dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+  }
+
+  @After
+  public void shutdown() {
+    for(SessionFactory sessionFactory : sessionFactories) {
+      sessionFactory.close();
+    }
+    new JdbcTemplate(dataSource).execute("SHUTDOWN");
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_write_read_reencode() {
+    // values written in text by a first session factory
+    final TransactionTemplate textTransaction = newTransactionTemplate(newSessionFactory(null));
+    textTransaction.execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        try(ValueTableWriter tableWriter = createDatasource(textTransaction).createWriter(TABLE, PARTICIPANT)) {
+          try(VariableWriter variableWriter = tableWriter.writeVariables()) {
+            for(Variable variable : getVariables()) {
+              variableWriter.writeVariable(variable);
+            }
+          }
+          writeValueSet(tableWriter, "1");
+        }
+      }
+    });
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    assertThat(jdbcTemplate.queryForObject(COUNT_SQL + "binary_value IS NULL", Integer.class)).isEqualTo(5);
+
+    // then read and re-encoded by a binary session factory, which writes new values in binary
+    final TransactionTemplate binaryTransaction = newTransactionTemplate(
+        newSessionFactory(EncodedValueHibernateType.BINARY_ENCODING));
+    binaryTransaction.execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        HibernateDatasource datasource = createDatasource(binaryTransaction);
+        assertValues(datasource.getValueTable(TABLE), "1");
+        datasource.reencodeValues(TABLE);
+        try(ValueTableWriter tableWriter = datasource.createWriter(TABLE, PARTICIPANT)) {
+          writeValueSet(tableWriter, "2");
+        }
+      }
+    });
+    // text values stay in the value column, the others are only in the binary_value column
+    assertThat(jdbcTemplate.queryForObject(COUNT_SQL + "binary_value IS NOT NULL AND value IS NULL", Integer.class))
+        .isEqualTo(8);
+    assertThat(jdbcTemplate.queryForObject(COUNT_SQL + "binary_value IS NULL AND value IS NOT NULL", Integer.class))
+        .isEqualTo(2);
+
+    binaryTransaction.execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        ValueTable table = createDatasource(binaryTransaction).getValueTable(TABLE);
+        assertValues(table, "1");
+        assertValues(table, "2");
+      }
+    });
+  }
+
+  private Iterable<Variable> getVariables() {
+    return ImmutableList.of(integerVariable, decimalVariable, dateVariable, dateTimeVariable, textVariable);
+  }
+
+  private void writeValueSet(ValueTableWriter tableWriter, String identifier) {
+    try(ValueSetWriter valueSetWriter = tableWriter.writeValueSet(new VariableEntityBean(PARTICIPANT, identifier))) {
+      valueSetWriter.writeValue(integerVariable, IntegerType.get().valueOf(identifier));
+      valueSetWriter.writeValue(decimalVariable, getDecimalSequence());
+      valueSetWriter.writeValue(dateVariable, DateType.get().valueOf(new MagmaDate(2014, 11, 31)));
+      valueSetWriter.writeValue(dateTimeVariable, dateTime);
+      valueSetWriter.writeValue(textVariable, TextType.get().valueOf("text " + identifier));
+    }
+  }
+
+  private void assertValues(ValueTable table, String identifier) {
+    VariableEntity entity = new VariableEntityBean(PARTICIPANT, identifier);
+    assertThat(table.getValue(integerVariable, table.getValueSet(entity)))
+        .isEqualTo(IntegerType.get().valueOf(identifier));
+    assertThat(table.getValue(decimalVariable, table.getValueSet(entity))).isEqualTo(getDecimalSequence());
+    assertThat(table.getValue(dateVariable, table.getValueSet(entity)))
+        .isEqualTo(DateType.get().valueOf(new MagmaDate(2014, 11, 31)));
+    assertThat(table.getValue(dateTimeVariable, table.getValueSet(entity))).isEqualTo(dateTime);
+    assertThat(table.getValue(textVariable, table.getValueSet(entity)))
+        .isEqualTo(TextType.get().valueOf("text " + identifier));
+  }
+
+  private Value getDecimalSequence() {
+    return DecimalType.get()
+        .sequenceOf(ImmutableList.of(DecimalType.get().valueOf(1.5), DecimalType.get().nullValue()));
+  }
+
+  private HibernateDatasource createDatasource(TransactionTemplate transactionTemplate) {
+    HibernateTransactionManager transactionManager = (HibernateTransactionManager) transactionTemplate
+        .getTransactionManager();
+    HibernateDatasource datasource = new HibernateDatasource(DATASOURCE, transactionManager.getSessionFactory());
+    Initialisables.initialise(datasource);
+    return datasource;
+  }
+
+  private SessionFactory newSessionFactory(String valueEncoding) {
+    LocalSessionFactoryProvider provider = new LocalSessionFactoryProvider(dataSource,
+        "org.hibernate.dialect.HSQLDialect");
+    provider.setValueEncoding(valueEncoding);
+    // the session factories share the database, not their caches
+    Properties properties = new Properties();
+    properties.setProperty("hibernate.cache.use_second_level_cache", "false");
+    properties.setProperty("hibernate.cache.use_query_cache", "false");
+    provider.setProperties(properties);
+    provider.initialise();
+    sessionFactories.add(provider.getSessionFactory());
+    return provider.getSessionFactory();
+  }
+
+  private TransactionTemplate newTransactionTemplate(SessionFactory sessionFactory) {
+    return new TransactionTemplate(new HibernateTransactionManager(sessionFactory));
+  }
+
+}
@@ -0,0 +1,87 @@
+package org.obiba.magma.datasource.jdbc;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Parameterized SQL statements writing value sets by JDBC batches. Parameters are the entity identifier columns
+ * followed by the value columns, except for updates where the entity identifier columns come last.
+ */
+final class BatchStatements {
+
+  private BatchStatements() {}
+
+  /**
+   * Whether the database has an upsert statement, in which case the existence of the entity is not checked.
+   *
+   * @param databaseType the liquibase type name of the database
+   */
+  static boolean hasUpsert(String databaseType) {
+    switch(databaseType) {
+      case "mysql":
+      case "postgresql":
+      case "hsqldb":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  static String insert(String tableName, List<String> columns) {
+    return "INSERT INTO " + tableName + " (" + join(columns, "", "", ", ") + ") VALUES (" +
+        Joiner.on(", ").join(Collections.nCopies(columns.size(), "?")) + ")";
+  }
+
+  static String update(String tableName, List<String> entityIdentifierColumns, List<String> updatedColumns) {
+    return "UPDATE " + tableName + " SET " + join(updatedColumns, "", " = ?", ", ") + " WHERE " +
+        join(entityIdentifierColumns, "", " = ?", " AND ");
+  }
+
+  static String mysqlUpsert(String tableName, List<String> columns, List<String> updatedColumns) {
+    return insert(tableName, columns) + " ON DUPLICATE KEY UPDATE " +
+        assignments(updatedColumns, "", ", ", "VALUES(", ")");
+  }
+
+  static String postgresqlUpsert(String tableName, List<String> entityIdentifierColumns, List<String> columns,
+      List<String> updatedColumns) {
+    return insert(tableName, columns) + " ON CONFLICT (" + join(entityIdentifierColumns, "", "", ", ") +
+        ") DO UPDATE SET " + assignments(updatedColumns, "", ", ", "EXCLUDED.", "");
+  }
+
+  /**
+   * HSQLDB requires the type of the parameters of a VALUES table: they are given as cast expressions, one per column.
+   */
+  static String hsqldbMerge(String tableName, List<String> entityIdentifierColumns, List<String> columns,
+      List<String> updatedColumns, List<String> castParameters) {
+    return "MERGE INTO " + tableName + " USING (VALUES (" + Joiner.on(", ").join(castParameters) + ")) AS v (" +
+        join(columns, "", "", ", ") + ") ON " +
+        assignments(entityIdentifierColumns, tableName + ".", " AND ", "v.", "") + " WHEN MATCHED THEN UPDATE SET " +
+        assignments(updatedColumns, tableName + ".", ", ", "v.", "") + " WHEN NOT MATCHED THEN INSERT (" +
+        join(columns, "", "", ", ") + ") VALUES (" + join(columns, "v.", "", ", ") + ")";
+  }
+
+  static String join(Iterable<String> columns, String prefix, String suffix, String separator) {
+    StringBuilder sql = new StringBuilder();
+    for(String column : columns) {
+      if(sql.length() > 0) sql.append(separator);
+      sql.append(prefix).append(column).append(suffix);
+    }
+    return sql.toString();
+  }
+
+  /**
+   * Joins assignments of each column to a value of the same name, as in {@code column = prefix column suffix}.
+   */
+  private static String assignments(Iterable<String> columns, String columnPrefix, String separator,
+      String valuePrefix, String valueSuffix) {
+    StringBuilder sql = new StringBuilder();
+    for(String column : columns) {
+      if(sql.length() > 0) sql.append(separator);
+      sql.append(columnPrefix).append(column).append(" = ").append(valuePrefix).append(column).append(valueSuffix);
+    }
+    return sql.toString();
+  }
+
+}
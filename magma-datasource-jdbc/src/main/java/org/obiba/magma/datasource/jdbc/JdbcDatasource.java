@@ -1,7 +1,10 @@
 package org.obiba.magma.datasource.jdbc;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -25,6 +28,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceUtils;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -58,6 +63,8 @@ public class JdbcDatasource extends AbstractDatasource {
 
   private DatabaseSnapshot snapshot;
 
+  private String databaseType;
+
   @SuppressWarnings("ConstantConditions")
   public JdbcDatasource(String name, @NotNull DataSource datasource, @NotNull JdbcDatasourceSettings settings) {
     super(name, TYPE);
@@ -109,6 +116,7 @@ public class JdbcDatasource extends AbstractDatasource {
 
   @Override
   protected void onInitialise() {
+    jdbcTemplate.setQueryTimeout(settings.getQueryTimeout());
     if(getSettings().isUseMetadataTables()) {
       createMetadataTablesIfNotPresent();
     }
@@ -179,6 +187,100 @@ public class JdbcDatasource extends AbstractDatasource {
     snapshot = null;
   }
 
+  /**
+   * @return the liquibase type name of the database, such as "mysql", "postgresql" or "hsqldb"
+   */
+  String getDatabaseType() {
+    if(databaseType == null) {
+      databaseType = doWithDatabase(new DatabaseCallback<String>() {
+        @Override
+        public String doInDatabase(Database database) throws JDBCException {
+          return database.getTypeName();
+        }
+      });
+    }
+    return databaseType;
+  }
+
+  /**
+   * MySQL streams results row by row when the fetch size is {@link Integer#MIN_VALUE}, in which case the connection
+   * cannot run another statement until the result is closed.
+   */
+  boolean isStreamingRead() {
+    return settings.isStreamingResults() && "mysql".equals(getDatabaseType());
+  }
+
+  /**
+   * Other databases, PostgreSQL in particular, only fetch results by chunks through a cursor when auto-commit is off.
+   */
+  boolean isCursorRead() {
+    return settings.isStreamingResults() && !"mysql".equals(getDatabaseType());
+  }
+
+  /**
+   * Applies the fetch size, streaming and query timeout settings to a statement reading a potentially large result.
+   */
+  void applyReadSettings(Statement statement) throws SQLException {
+    if(isStreamingRead()) {
+      statement.setFetchSize(Integer.MIN_VALUE);
+    } else if(settings.getFetchSize() > 0) {
+      statement.setFetchSize(settings.getFetchSize());
+    }
+    if(settings.getQueryTimeout() > 0) {
+      statement.setQueryTimeout(settings.getQueryTimeout());
+    }
+  }
+
+  /**
+   * Gets a connection for reading potentially large results: the one bound to the current transaction if any, with
+   * auto-commit turned off when reading through cursors.
+   */
+  ReadConnection openReadConnection() {
+    Connection connection = DataSourceUtils.getConnection(jdbcTemplate.getDataSource());
+    try {
+      boolean autoCommitDisabled = isCursorRead() && connection.getAutoCommit();
+      if(autoCommitDisabled) connection.setAutoCommit(false);
+      return new ReadConnection(connection, autoCommitDisabled);
+    } catch(SQLException e) {
+      DataSourceUtils.releaseConnection(connection, jdbcTemplate.getDataSource());
+      throw jdbcTemplate.getExceptionTranslator().translate("openReadConnection", null, e);
+    }
+  }
+
+  void closeReadConnection(ReadConnection readConnection) {
+    Connection connection = readConnection.getConnection();
+    try {
+      if(readConnection.autoCommitDisabled) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+    } catch(SQLException e) {
+      log.warn("Failed restoring auto-commit of read connection", e);
+    } finally {
+      DataSourceUtils.releaseConnection(connection, jdbcTemplate.getDataSource());
+    }
+  }
+
+  /**
+   * Runs a query reading a potentially large result, with the fetch size, streaming and query timeout settings.
+   */
+  @edu.umd.cs.findbugs.annotations.SuppressWarnings("SQL_PREPARED_STATEMENT_GENERATED_FROM_NONCONSTANT_STRING")
+  void queryForRead(String sql, RowCallbackHandler rowCallbackHandler) {
+    ReadConnection readConnection = openReadConnection();
+    try(PreparedStatement statement = readConnection.getConnection().prepareStatement(sql)) {
+      applyReadSettings(statement);
+      try(ResultSet rs = statement.executeQuery()) {
+        while(rs.next()) {
+          rowCallbackHandler.processRow(rs);
+        }
+      }
+    } catch(SQLException e) {
+      throw jdbcTemplate.getExceptionTranslator().translate("queryForRead", sql, e);
+    } finally {
+      closeReadConnection(readConnection);
+    }
+  }
+
   String escapeSqlTableName(String sqlTableName) {
     return getDatabaseSnapshot().getDatabase().escapeTableName(null, sqlTableName);
   }
@@ -231,6 +333,25 @@ public class JdbcDatasource extends AbstractDatasource {
     doWithDatabase(new ChangeDatabaseCallback(changes, ImmutableList.of(new MySqlEngineVisitor())));
   }
 
+  /**
+   * A connection used for reading potentially large results.
+   */
+  static class ReadConnection {
+
+    private final Connection connection;
+
+    private final boolean autoCommitDisabled;
+
+    private ReadConnection(Connection connection, boolean autoCommitDisabled) {
+      this.connection = connection;
+      this.autoCommitDisabled = autoCommitDisabled;
+    }
+
+    Connection getConnection() {
+      return connection;
+    }
+  }
+
   /**
    * Callback used for accessing the {@code Database} instance in a safe and consistent way.
    *
@@ -10,6 +10,8 @@ import javax.validation.constraints.NotNull;
 import com.google.common.base.Strings;
 
 public class JdbcDatasourceSettings {
+
+  public static final double DEFAULT_VECTOR_IN_CLAUSE_RATIO = 0.1;
   //
   // Instance Variables
   //
@@ -32,6 +34,28 @@ public class JdbcDatasourceSettings {
    */
   private String defaultUpdatedTimestampColumnName;
 
+  /**
+   * The JDBC fetch size used when reading value vectors, 0 lets the driver decide
+   */
+  private int fetchSize;
+
+  /**
+   * The maximum ratio of requested entities to table entities for which value vectors are queried by chunks of
+   * entities instead of scrolling the whole table
+   */
+  private double vectorInClauseRatio = DEFAULT_VECTOR_IN_CLAUSE_RATIO;
+
+  /**
+   * Whether large results are streamed instead of being buffered by the driver: row by row on MySQL, through a cursor
+   * fetching fetchSize rows at a time (with auto-commit off) on PostgreSQL and other databases
+   */
+  private boolean streamingResults;
+
+  /**
+   * The query timeout in seconds, 0 for no timeout
+   */
+  private int queryTimeout;
+
   public JdbcDatasourceSettings() {
   }
 
@@ -132,6 +156,40 @@ public class JdbcDatasourceSettings {
     this.defaultUpdatedTimestampColumnName = defaultUpdatedTimestampColumnName;
   }
 
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  public void setFetchSize(int fetchSize) {
+    if(fetchSize < 0) throw new IllegalArgumentException("fetchSize must be positive or 0");
+    this.fetchSize = fetchSize;
+  }
+
+  public boolean isStreamingResults() {
+    return streamingResults;
+  }
+
+  public void setStreamingResults(boolean streamingResults) {
+    this.streamingResults = streamingResults;
+  }
+
+  public int getQueryTimeout() {
+    return queryTimeout;
+  }
+
+  public void setQueryTimeout(int queryTimeout) {
+    if(queryTimeout < 0) throw new IllegalArgumentException("queryTimeout must be positive or 0");
+    this.queryTimeout = queryTimeout;
+  }
+
+  public double getVectorInClauseRatio() {
+    return vectorInClauseRatio;
+  }
+
+  public void setVectorInClauseRatio(double vectorInClauseRatio) {
+    this.vectorInClauseRatio = vectorInClauseRatio;
+  }
+
   public boolean isCreatedTimestampColumnNameProvided() {
     return !Strings.isNullOrEmpty(defaultCreatedTimestampColumnName);
   }
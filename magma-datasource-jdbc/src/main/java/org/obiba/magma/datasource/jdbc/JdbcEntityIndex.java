@@ -0,0 +1,109 @@
+package org.obiba.magma.datasource.jdbc;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.google.common.collect.Iterators;
+
+/**
+ * Compact and insertion ordered set of entity identifiers. Identifiers are held in an array and looked up through an
+ * open addressing hash table of their positions in this array, which costs a few bytes per entity instead of a
+ * {@code LinkedHashSet} entry and a {@code VariableEntity} instance. Identifiers are only added: the index is reloaded
+ * when entities are deleted from the table.
+ */
+class JdbcEntityIndex {
+
+  private static final int FREE = -1;
+
+  private static final int MIN_CAPACITY = 16;
+
+  /**
+   * Identifiers by insertion position.
+   */
+  private String[] identifiers;
+
+  /**
+   * Number of identifiers in the index.
+   */
+  private int size;
+
+  /**
+   * Hash table of positions in the identifiers array.
+   */
+  private int[] slots;
+
+  JdbcEntityIndex() {
+    this(0);
+  }
+
+  JdbcEntityIndex(int expectedSize) {
+    identifiers = new String[Math.max(expectedSize, MIN_CAPACITY)];
+    slots = newSlots(expectedSize);
+  }
+
+  synchronized boolean add(String identifier) {
+    if(contains(identifier)) return false;
+    if((size + 1) * 2 > slots.length) rehash();
+    if(size == identifiers.length) identifiers = Arrays.copyOf(identifiers, size * 2);
+    identifiers[size] = identifier;
+    insertSlot(identifier, size++);
+    return true;
+  }
+
+  synchronized boolean contains(String identifier) {
+    int mask = slots.length - 1;
+    for(int slot = hash(identifier) & mask; slots[slot] != FREE; slot = (slot + 1) & mask) {
+      if(identifier.equals(identifiers[slots[slot]])) return true;
+    }
+    return false;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Iterates over a snapshot of the identifiers, in insertion order.
+   */
+  synchronized Iterator<String> iterator() {
+    return Iterators.forArray(Arrays.copyOf(identifiers, size));
+  }
+
+  private void insertSlot(String identifier, int index) {
+    int mask = slots.length - 1;
+    int slot = hash(identifier) & mask;
+    while(slots[slot] != FREE) {
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = index;
+  }
+
+  /**
+   * Rebuilds the hash table for the next additions.
+   */
+  private void rehash() {
+    slots = newSlots((size + 1) * 2);
+    for(int i = 0; i < size; i++) {
+      insertSlot(identifiers[i], i);
+    }
+  }
+
+  /**
+   * Hash table holding the expected number of identifiers at a load factor of at most one half.
+   */
+  private static int[] newSlots(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while(capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    int[] slots = new int[capacity];
+    Arrays.fill(slots, FREE);
+    return slots;
+  }
+
+  private static int hash(String identifier) {
+    int h = identifier.hashCode();
+    return h ^ h >>> 16;
+  }
+
+}
@@ -83,14 +83,7 @@ public class JdbcValueSet extends ValueSetBean {
           public Void extractData(ResultSet rs) throws SQLException {
             // Cache the data.
             rs.next();
-            for(int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-              if(!getValueTable().getSettings().getEntityIdentifierColumns()
-                  .contains(rs.getMetaData().getColumnName(i))) {
-                String variableName = NameConverter.toMagmaVariableName(rs.getMetaData().getColumnName(i));
-                Value variableValue = SqlTypes.valueTypeFor(rs.getMetaData().getColumnType(i)).valueOf(rs.getObject(i));
-                resultSetCache.put(variableName, variableValue);
-              }
-            }
+            cacheValues(rs);
 
             // Just return null. We have everything we need in the cache.
             return null;
@@ -99,6 +92,23 @@ public class JdbcValueSet extends ValueSetBean {
 
   }
 
+  /**
+   * Cache the values of the current row of the given result set, which is expected to be the row of this value set's
+   * entity.
+   *
+   * @param rs
+   * @throws SQLException
+   */
+  synchronized void cacheValues(ResultSet rs) throws SQLException {
+    for(int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
+      if(!getValueTable().getSettings().getEntityIdentifierColumns().contains(rs.getMetaData().getColumnName(i))) {
+        String variableName = NameConverter.toMagmaVariableName(rs.getMetaData().getColumnName(i));
+        Value variableValue = SqlTypes.valueTypeFor(rs.getMetaData().getColumnType(i)).valueOf(rs.getObject(i));
+        resultSetCache.put(variableName, variableValue);
+      }
+    }
+  }
+
   public Value getCreated() {
     loadResultSetCache();
     return resultSetCache.get(getValueTable().getCreatedTimestampColumnName());
@@ -1,18 +1,17 @@
 package org.obiba.magma.datasource.jdbc;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.NoSuchElementException;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -20,21 +19,25 @@ import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
 import org.obiba.magma.AbstractVariableValueSource;
+import org.obiba.magma.AggregatingVectorSource;
 import org.obiba.magma.Attribute;
 import org.obiba.magma.Category;
 import org.obiba.magma.Datasource;
 import org.obiba.magma.Initialisable;
 import org.obiba.magma.MagmaRuntimeException;
+import org.obiba.magma.MultiVectorSource;
 import org.obiba.magma.NoSuchValueSetException;
 import org.obiba.magma.Timestamps;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
 import org.obiba.magma.ValueType;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
 import org.obiba.magma.VectorSource;
 import org.obiba.magma.datasource.jdbc.JdbcDatasource.ChangeDatabaseCallback;
+import org.obiba.magma.datasource.jdbc.JdbcDatasource.ReadConnection;
 import org.obiba.magma.datasource.jdbc.support.NameConverter;
 import org.obiba.magma.support.AbstractValueTable;
 import org.obiba.magma.support.AbstractVariableEntityProvider;
@@ -42,8 +45,16 @@ import org.obiba.magma.support.Initialisables;
 import org.obiba.magma.support.NullTimestamps;
 import org.obiba.magma.support.VariableEntityBean;
 import org.obiba.magma.type.DateTimeType;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
 import liquibase.change.ChangeWithColumns;
 import liquibase.change.ColumnConfig;
 import liquibase.change.ConstraintsConfig;
@@ -53,7 +64,11 @@ import liquibase.database.structure.DatabaseSnapshot;
 import liquibase.database.structure.Table;
 
 @SuppressWarnings("OverlyCoupledClass")
-class JdbcValueTable extends AbstractValueTable {
+class JdbcValueTable extends AbstractValueTable implements MultiVectorSource {
+
+  private static final int VALUE_SETS_PAGE_SIZE = 500;
+
+  private static final Object NULL_VALUE = new Object();
 
   private final JdbcValueTableSettings settings;
 
@@ -67,6 +82,11 @@ class JdbcValueTable extends AbstractValueTable {
 
   private String escapedCategoriesSqlTableName;
 
+  /**
+   * Number of table writers currently open on this table, possibly from different threads.
+   */
+  private int openWriters;
+
   JdbcValueTable(Datasource datasource, JdbcValueTableSettings settings) {
     super(datasource, settings.getMagmaTableName());
     this.settings = settings;
@@ -113,6 +133,42 @@ class JdbcValueTable extends AbstractValueTable {
     return new JdbcValueSet(this, entity);
   }
 
+  /**
+   * Value sets are loaded by pages, with one query per page.
+   */
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    return Iterables.concat(Iterables.transform(Iterables.partition(entities, VALUE_SETS_PAGE_SIZE),
+        new Function<List<VariableEntity>, Iterable<ValueSet>>() {
+          @Override
+          public Iterable<ValueSet> apply(List<VariableEntity> page) {
+            return loadValueSets(page);
+          }
+        }));
+  }
+
+  /**
+   * Values are read in the same query for all the variables, by chunks of entities with a IN statement when the
+   * requested entities are few compared to the table size, otherwise by scrolling the table chunk by chunk.
+   */
+  @Override
+  public Map<String, List<Value>> getValues(List<Variable> variables, SortedSet<VariableEntity> entities) {
+    List<JdbcVariableValueSource> sources = Lists.newArrayListWithCapacity(variables.size());
+    for(Variable variable : variables) {
+      sources.add((JdbcVariableValueSource) getVariableValueSource(variable.getName()));
+    }
+    if(sources.isEmpty()) return Maps.newHashMap();
+
+    boolean scan = !isChunkedRead(entities);
+    Map<String, List<Value>> values = newColumnValues(sources, entities.size());
+    for(List<VariableEntity> chunk : Iterables.partition(entities, VALUE_SETS_PAGE_SIZE)) {
+      for(Map.Entry<String, List<Value>> chunkValues : readChunk(sources, chunk, scan).entrySet()) {
+        values.get(chunkValues.getKey()).addAll(chunkValues.getValue());
+      }
+    }
+    return values;
+  }
+
   @Override
   public Timestamps getValueSetTimestamps(VariableEntity entity) throws NoSuchValueSetException {
     if(hasCreatedTimestampColumn() && hasUpdatedTimestampColumn()) {
@@ -158,9 +214,34 @@ class JdbcValueTable extends AbstractValueTable {
     return NameConverter.toSqlName(getName());
   }
 
+  synchronized void writerOpened() {
+    openWriters++;
+  }
+
+  /**
+   * Reloads the database snapshot and the table once the last open writer is closed, so that concurrent writers still
+   * flushing their value sets never see the table being reinitialised. A writer opened meanwhile waits for the reload.
+   */
+  synchronized void writerClosed() {
+    if(--openWriters == 0) {
+      getDatasource().databaseChanged();
+      tableChanged();
+    }
+  }
+
+  /**
+   * Reloads the variables after the table writers are closed. The entities are kept up to date by the writers with
+   * {@link #entityWritten(VariableEntity)}, and are only reloaded when they were changed outside of the writers.
+   */
   void tableChanged() {
     table = getDatasource().getDatabaseSnapshot().getTable(settings.getSqlTableName());
-    initialise();
+    super.initialise();
+    initialiseVariableValueSources();
+    ((JdbcVariableEntityProvider) getVariableEntityProvider()).refresh();
+  }
+
+  void entityWritten(VariableEntity entity) {
+    ((JdbcVariableEntityProvider) getVariableEntityProvider()).addEntity(entity);
   }
 
   boolean hasCreatedTimestampColumn() {
@@ -361,6 +442,108 @@ class JdbcValueTable extends AbstractValueTable {
     return column;
   }
 
+  private Iterable<ValueSet> loadValueSets(List<VariableEntity> entities) {
+    final Map<String, JdbcValueSet> valueSets = Maps.newLinkedHashMap();
+    List<Object> parameters = Lists.newArrayList();
+    for(VariableEntity entity : entities) {
+      valueSets.put(entity.getIdentifier(), new JdbcValueSet(this, entity));
+      Collections.addAll(parameters, (Object[]) entity.getIdentifier().split("-"));
+    }
+    String sql = "SELECT * FROM " + getDatasource().escapeSqlTableName(settings.getSqlTableName()) + " WHERE " +
+        getEntityIdentifiersWhereClause(entities.size());
+    getDatasource().getJdbcTemplate().query(sql, parameters.toArray(), new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        JdbcValueSet valueSet = valueSets.get(buildEntityIdentifierByName(rs));
+        if(valueSet != null) valueSet.cacheValues(rs);
+      }
+    });
+    return ImmutableList.<ValueSet>copyOf(valueSets.values());
+  }
+
+  /**
+   * Build a where clause matching a number of entities, using a IN statement when the entity identifier is held by a
+   * single column.
+   *
+   * @param nbEntities
+   * @return
+   */
+  private String getEntityIdentifiersWhereClause(int nbEntities) {
+    List<String> entityIdentifierColumns = getSettings().getEntityIdentifierColumns();
+    StringBuilder sql = new StringBuilder();
+    if(entityIdentifierColumns.size() == 1) {
+      sql.append(entityIdentifierColumns.get(0)).append(" IN (");
+      for(int i = 0; i < nbEntities; i++) {
+        if(i > 0) sql.append(",");
+        sql.append("?");
+      }
+      sql.append(")");
+    } else {
+      for(int i = 0; i < nbEntities; i++) {
+        if(i > 0) sql.append(" OR ");
+        sql.append("(");
+        for(int j = 0; j < entityIdentifierColumns.size(); j++) {
+          if(j > 0) sql.append(" AND ");
+          sql.append(entityIdentifierColumns.get(j)).append(" = ?");
+        }
+        sql.append(")");
+      }
+    }
+    return sql.toString();
+  }
+
+  /**
+   * Build a where clause matching the entities between two entities, included, in the order of the entity identifier
+   * columns.
+   */
+  private String getEntityRangeWhereClause() {
+    return getEntityBoundClause(">") + " AND " + getEntityBoundClause("<");
+  }
+
+  /**
+   * Build a bound on the entity identifier columns, compared in turn: {@code (a > ? OR (a = ? AND b >= ?))} for a lower
+   * bound on columns a and b.
+   */
+  private String getEntityBoundClause(String operator) {
+    List<String> entityIdentifierColumns = getSettings().getEntityIdentifierColumns();
+    int last = entityIdentifierColumns.size() - 1;
+    StringBuilder sql = new StringBuilder();
+    for(int i = 0; i < last; i++) {
+      String column = entityIdentifierColumns.get(i);
+      sql.append("(").append(column).append(" ").append(operator).append(" ? OR (").append(column).append(" = ? AND ");
+    }
+    sql.append(entityIdentifierColumns.get(last)).append(" ").append(operator).append("= ?");
+    for(int i = 0; i < last; i++) {
+      sql.append("))");
+    }
+    return sql.toString();
+  }
+
+  /**
+   * The parameters of {@link #getEntityBoundClause(String)} for the given bounding entity.
+   */
+  private static List<String> getEntityBoundParameters(VariableEntity entity) {
+    String[] ids = entity.getIdentifier().split("-");
+    List<String> parameters = Lists.newArrayList();
+    for(int i = 0; i < ids.length - 1; i++) {
+      parameters.add(ids[i]);
+      parameters.add(ids[i]);
+    }
+    parameters.add(ids[ids.length - 1]);
+    return parameters;
+  }
+
+  private String buildEntityIdentifierByName(ResultSet rs) throws SQLException {
+    StringBuilder entityIdentifier = new StringBuilder();
+    for(String column : getSettings().getEntityIdentifierColumns()) {
+      if(entityIdentifier.length() > 0) {
+        entityIdentifier.append('-');
+      }
+      entityIdentifier.append(rs.getObject(column));
+    }
+    return entityIdentifier.toString();
+  }
+
   private String getEntityIdentifierColumnsSql() {
     StringBuilder sql = new StringBuilder();
     List<String> entityIdentifierColumns = getSettings().getEntityIdentifierColumns();
@@ -434,33 +617,55 @@ class JdbcValueTable extends AbstractValueTable {
     }
   }
 
+  /**
+   * Entities are held in a compact index of their identifiers, which is loaded when the table is initialised and then
+   * kept up to date by the table writers. The index is reloaded when the number of rows of the table does not match it
+   * anymore after the writers are closed, such as when entities were deleted outside of the writers.
+   */
   class JdbcVariableEntityProvider extends AbstractVariableEntityProvider implements Initialisable {
 
-    private Set<VariableEntity> entities = new LinkedHashSet<>();
+    private volatile JdbcEntityIndex entityIndex;
 
-    JdbcVariableEntityProvider(String entityType) {
-      super(entityType);
-    }
+    private final Set<VariableEntity> entities = new AbstractSet<VariableEntity>() {
 
-    @Override
-    public void initialise() {
-      entities = new LinkedHashSet<>();
+      @Override
+      public Iterator<VariableEntity> iterator() {
+        return Iterators.transform(getEntityIndex().iterator(), new Function<String, VariableEntity>() {
+          @Override
+          public VariableEntity apply(String identifier) {
+            return new VariableEntityBean(JdbcValueTable.this.getEntityType(), identifier);
+          }
+        });
+      }
 
-      // MAGMA-100
-      if(escapedSqlTableName == null) {
-        escapedSqlTableName = getDatasource().escapeSqlTableName(getSqlName());
+      @Override
+      public int size() {
+        return getEntityIndex().size();
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        if(!(o instanceof VariableEntity)) return false;
+        VariableEntity entity = (VariableEntity) o;
+        return isForEntityType(entity.getType()) && getEntityIndex().contains(entity.getIdentifier());
       }
+    };
 
-      List<VariableEntity> results = getDatasource().getJdbcTemplate()
-          .query("SELECT " + getEntityIdentifierColumnsSql() + " FROM " + escapedSqlTableName,
-              new RowMapper<VariableEntity>() {
-                @Override
-                public VariableEntity mapRow(ResultSet rs, int rowNum) throws SQLException {
-                  return new VariableEntityBean(JdbcValueTable.this.getEntityType(), buildEntityIdentifier(rs));
-                }
-              });
+    JdbcVariableEntityProvider(String entityType) {
+      super(entityType);
+    }
 
-      entities.addAll(results);
+    @Override
+    public synchronized void initialise() {
+      final JdbcEntityIndex index = new JdbcEntityIndex(countRows());
+      getDatasource().queryForRead("SELECT " + getEntityIdentifierColumnsSql() + " FROM " + escapedSqlTableName,
+          new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+              index.add(buildEntityIdentifier(rs));
+            }
+          });
+      entityIndex = index;
     }
 
     @NotNull
@@ -469,9 +674,40 @@ class JdbcValueTable extends AbstractValueTable {
       return Collections.unmodifiableSet(entities);
     }
 
+    void addEntity(VariableEntity entity) {
+      getEntityIndex().add(entity.getIdentifier());
+    }
+
+    /**
+     * Drops the index when the table rows do not match it anymore, it is then reloaded on next access.
+     */
+    synchronized void refresh() {
+      if(entityIndex != null && entityIndex.size() != countRows()) entityIndex = null;
+    }
+
+    private JdbcEntityIndex getEntityIndex() {
+      JdbcEntityIndex index = entityIndex;
+      return index == null ? loadEntityIndex() : index;
+    }
+
+    private synchronized JdbcEntityIndex loadEntityIndex() {
+      if(entityIndex == null) initialise();
+      return entityIndex;
+    }
+
+    private int countRows() {
+      // MAGMA-100
+      if(escapedSqlTableName == null) {
+        escapedSqlTableName = getDatasource().escapeSqlTableName(getSqlName());
+      }
+      return getDatasource().getJdbcTemplate()
+          .queryForObject("SELECT COUNT(*) FROM " + escapedSqlTableName, Integer.class);
+    }
+
   }
 
-  class JdbcVariableValueSource extends AbstractVariableValueSource implements VariableValueSource, VectorSource {
+  class JdbcVariableValueSource extends AbstractVariableValueSource
+      implements VariableValueSource, AggregatingVectorSource {
     //
     // Instance Variables
     //
@@ -535,116 +771,134 @@ class JdbcValueTable extends AbstractValueTable {
       return this;
     }
 
+    /**
+     * Values are read by chunks of entities with a IN statement when the requested entities are few compared to the
+     * table size, otherwise by scrolling the table chunk by chunk. A chunk is read when its values are iterated, so
+     * that only the values of one chunk are held in memory and a read connection is only held while a query runs.
+     */
     @Override
     public Iterable<Value> getValues(final SortedSet<VariableEntity> entities) {
-
-      return new Iterable<Value>() {
-
-        @Override
-        public Iterator<Value> iterator() {
-          try {
-            return new ValueIterator(getDatasource().getJdbcTemplate().getDataSource().getConnection(), entities);
-          } catch(SQLException e) {
-            throw new RuntimeException(e);
-          }
-        }
-
-      };
+      final List<JdbcVariableValueSource> sources = ImmutableList.of(this);
+      final boolean scan = !isChunkedRead(entities);
+      return Iterables.concat(Iterables.transform(Iterables.partition(entities, VALUE_SETS_PAGE_SIZE),
+          new Function<List<VariableEntity>, Iterable<Value>>() {
+            @Override
+            public Iterable<Value> apply(List<VariableEntity> chunk) {
+              return readChunk(sources, chunk, scan).get(variable.getName());
+            }
+          }));
     }
 
-    private class ValueIterator implements Iterator<Value> {
-
-      private final Connection connection;
-
-      private final PreparedStatement statement;
-
-      private final ResultSet rs;
+    /**
+     * Values are counted with a GROUP BY query on the variable column.
+     */
+    @Nullable
+    @Override
+    public Map<Value, Long> getValueFrequencies(ValueTable table) {
+      if(table != JdbcValueTable.this || variable.isRepeatable() || variable.getValueType().isBinary()) return null;
 
-      private final Iterator<VariableEntity> resultEntities;
+      final Map<Value, Long> frequencies = Maps.newHashMap();
+      getDatasource().queryForRead(
+          "SELECT " + columnName + ", COUNT(*) FROM " + escapedSqlTableName + " GROUP BY " + columnName,
+          new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+              Value value = valueOf(rs.getObject(1));
+              Value key = value.isNull() ? null : value;
+              Long count = frequencies.get(key);
+              frequencies.put(key, (count == null ? 0 : count) + rs.getLong(2));
+            }
+          });
+      return frequencies;
+    }
 
-      private boolean hasNextResults;
+    private Value valueOf(@Nullable Object object) {
+      Value value = object == null ? null : variable.getValueType().valueOf(object);
+      return value == null //
+          ? getVariable().isRepeatable() ? getValueType().nullSequence() : getValueType().nullValue() //
+          : value;
+    }
+  }
 
-      private boolean closed = false;
+  private boolean isChunkedRead(Collection<VariableEntity> entities) {
+    int tableSize = getVariableEntityProvider().getVariableEntities().size();
+    return entities.size() <= getDatasource().getSettings().getVectorInClauseRatio() * tableSize;
+  }
 
-      @edu.umd.cs.findbugs.annotations.SuppressWarnings("SQL_PREPARED_STATEMENT_GENERATED_FROM_NONCONSTANT_STRING")
-      private ValueIterator(Connection connection, Iterable<VariableEntity> entities) throws SQLException {
-        this.connection = connection;
-        String column = getEntityIdentifierColumnsSql();
-        statement = connection.prepareStatement("SELECT " + column + "," + columnName +
-            " FROM " + escapedSqlTableName + " ORDER BY " + column);
-        rs = statement.executeQuery();
-        hasNextResults = rs.next();
-        resultEntities = entities.iterator();
-        closeCursorIfNecessary();
+  /**
+   * Reads the values of several variables for a chunk of entities, with a IN statement, or when scanning the table
+   * with a range statement bounded by the first and last entities of the chunk.
+   *
+   * @return the values of each variable by variable name, in the order of the chunk
+   */
+  @edu.umd.cs.findbugs.annotations.SuppressWarnings("SQL_PREPARED_STATEMENT_GENERATED_FROM_NONCONSTANT_STRING")
+  private Map<String, List<Value>> readChunk(List<JdbcVariableValueSource> sources, List<VariableEntity> chunk,
+      boolean scan) {
+    List<Object> parameters = Lists.newArrayList();
+    if(scan) {
+      parameters.addAll(getEntityBoundParameters(chunk.get(0)));
+      parameters.addAll(getEntityBoundParameters(chunk.get(chunk.size() - 1)));
+    } else {
+      for(VariableEntity entity : chunk) {
+        Collections.addAll(parameters, (Object[]) entity.getIdentifier().split("-"));
       }
-
-      @Override
-      public boolean hasNext() {
-        return resultEntities.hasNext();
+    }
+    Map<String, Object[]> rows = Maps.newHashMap();
+    ReadConnection readConnection = getDatasource().openReadConnection();
+    try(PreparedStatement statement = readConnection.getConnection().prepareStatement(
+        "SELECT " + getEntityIdentifierColumnsSql() + "," + getColumnsSql(sources) + " FROM " +
+            escapedSqlTableName + " WHERE " +
+            (scan ? getEntityRangeWhereClause() : getEntityIdentifiersWhereClause(chunk.size())))) {
+      getDatasource().applyReadSettings(statement);
+      int index = 1;
+      for(Object parameter : parameters) {
+        statement.setObject(index++, parameter);
       }
-
-      @Override
-      public Value next() {
-        if(!hasNext()) {
-          throw new NoSuchElementException();
-        }
-
-        String nextEntity = resultEntities.next().getIdentifier();
-        try {
-          // Scroll until we find the required entity or reach the end of the results
-          while(hasNextResults && !buildEntityIdentifier(rs).equals(nextEntity)) {
-            hasNextResults = rs.next();
-          }
-
-          Value value = null;
-          if(hasNextResults) {
-            value = variable.getValueType().valueOf(rs.getObject(columnName));
+      try(ResultSet rs = statement.executeQuery()) {
+        while(rs.next()) {
+          Object[] row = new Object[sources.size()];
+          for(int i = 0; i < row.length; i++) {
+            row[i] = rs.getObject(sources.get(i).columnName);
           }
-          closeCursorIfNecessary();
-          return value == null //
-              ? getVariable().isRepeatable() ? getValueType().nullSequence() : getValueType().nullValue() //
-              : value;
-        } catch(SQLException e) {
-          throw new RuntimeException(e);
+          rows.put(buildEntityIdentifier(rs), row);
         }
       }
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      getDatasource().closeReadConnection(readConnection);
+    }
 
-      @Override
-      public void remove() {
-        throw new UnsupportedOperationException();
+    Map<String, List<Value>> values = newColumnValues(sources, chunk.size());
+    for(VariableEntity entity : chunk) {
+      Object[] row = rows.get(entity.getIdentifier());
+      for(int i = 0; i < sources.size(); i++) {
+        addColumnValue(values, sources.get(i), row == null ? null : row[i]);
       }
+    }
+    return values;
+  }
 
-      private void closeCursorIfNecessary() {
-        if(!closed) {
-          // Close the cursor if we don't have any more results or no more entities to return
-          if(!hasNextResults || !hasNext()) {
-            closed = true;
-            closeQuietly(rs, statement, connection);
-          }
-        }
-      }
+  private static Map<String, List<Value>> newColumnValues(Iterable<JdbcVariableValueSource> sources, int size) {
+    Map<String, List<Value>> values = Maps.newHashMap();
+    for(JdbcVariableValueSource source : sources) {
+      values.put(source.getVariable().getName(), Lists.<Value>newArrayListWithCapacity(size));
+    }
+    return values;
+  }
 
-      @SuppressWarnings({ "OverlyStrongTypeCast", "ChainOfInstanceofChecks" })
-      private void closeQuietly(Object... objs) {
-        if(objs != null) {
-          for(Object o : objs) {
-            try {
-              if(o instanceof ResultSet) {
-                ((ResultSet) o).close();
-              }
-              if(o instanceof Statement) {
-                ((Statement) o).close();
-              }
-              if(o instanceof Connection) {
-                ((Connection) o).close();
-              }
-            } catch(SQLException e) {
-              // ignored
-            }
-          }
-        }
-      }
+  private static void addColumnValue(Map<String, List<Value>> values, JdbcVariableValueSource source,
+      @Nullable Object object) {
+    values.get(source.getVariable().getName()).add(source.valueOf(object));
+  }
+
+  private static String getColumnsSql(Iterable<JdbcVariableValueSource> sources) {
+    StringBuilder sql = new StringBuilder();
+    for(JdbcVariableValueSource source : sources) {
+      if(sql.length() > 0) sql.append(",");
+      sql.append(source.columnName);
     }
+    return sql.toString();
   }
 
 }
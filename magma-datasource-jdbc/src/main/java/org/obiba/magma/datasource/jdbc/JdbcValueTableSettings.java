@@ -29,6 +29,16 @@ public class JdbcValueTableSettings {
    */
   private String updatedTimestampColumnName;
 
+  /**
+   * Number of value sets written in a JDBC batch, value sets are written one by one when 1.
+   */
+  private int batchSize = 1;
+
+  /**
+   * Number of value sets written in a transaction when batching, defaults to the batch size.
+   */
+  private int commitInterval;
+
   //
   // Constructors
   //
@@ -109,6 +119,23 @@ public class JdbcValueTableSettings {
     this.updatedTimestampColumnName = updatedTimestampColumnName;
   }
 
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    if(batchSize < 1) throw new IllegalArgumentException("batchSize must be at least 1");
+    this.batchSize = batchSize;
+  }
+
+  public int getCommitInterval() {
+    return Math.max(commitInterval, batchSize);
+  }
+
+  public void setCommitInterval(int commitInterval) {
+    this.commitInterval = commitInterval;
+  }
+
   public boolean isCreatedTimestampColumnNameProvided() {
     return createdTimestampColumnName != null && !"".equals(createdTimestampColumnName);
   }
@@ -5,21 +5,26 @@ package org.obiba.magma.datasource.jdbc;
 
 import java.io.ByteArrayInputStream;
 import java.security.InvalidParameterException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
 import org.obiba.magma.Attribute;
 import org.obiba.magma.Category;
+import org.obiba.magma.ConcurrentValueTableWriter;
 import org.obiba.magma.Value;
-import org.obiba.magma.ValueTableWriter;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.datasource.jdbc.JdbcDatasource.ChangeDatabaseCallback;
@@ -30,6 +35,8 @@ import org.obiba.magma.type.LocaleType;
 import org.obiba.magma.type.TextType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.support.AbstractLobCreatingPreparedStatementCallback;
 import org.springframework.jdbc.support.lob.DefaultLobHandler;
@@ -42,10 +49,10 @@ import liquibase.change.AddColumnChange;
 import liquibase.change.Change;
 import liquibase.change.ColumnConfig;
 import liquibase.change.ModifyColumnChange;
+import liquibase.database.structure.Column;
 
-class JdbcValueTableWriter implements ValueTableWriter {
+class JdbcValueTableWriter implements ConcurrentValueTableWriter {
 
-  @SuppressWarnings("unused")
   private static final Logger log = LoggerFactory.getLogger(JdbcValueTableWriter.class);
 
   static final String VARIABLE_METADATA_TABLE = "variables";
@@ -78,8 +85,21 @@ class JdbcValueTableWriter implements ValueTableWriter {
 
   private final JdbcValueTable valueTable;
 
+  /**
+   * Value sets waiting to be written by JDBC batches.
+   */
+  private final List<JdbcValueSetWriter> pendingValueSets = new ArrayList<>();
+
+  /**
+   * Identifiers of the entities inserted by the pending value sets, not yet known by the table.
+   */
+  private final Set<String> insertedEntities = new HashSet<>();
+
+  private boolean closed;
+
   JdbcValueTableWriter(JdbcValueTable valueTable) {
     this.valueTable = valueTable;
+    valueTable.writerOpened();
   }
 
   @NotNull
@@ -96,9 +116,106 @@ class JdbcValueTableWriter implements ValueTableWriter {
   }
 
   @Override
-  public void close() {
-    valueTable.getDatasource().databaseChanged();
-    valueTable.tableChanged();
+  public synchronized void close() {
+    if(closed) return;
+    closed = true;
+    try {
+      flush();
+    } finally {
+      valueTable.writerClosed();
+    }
+  }
+
+  /**
+   * Value sets are buffered and written by JDBC batches when the table's batch size is greater than 1.
+   */
+  private boolean isBuffered() {
+    return valueTable.getSettings().getBatchSize() > 1;
+  }
+
+  private synchronized void buffer(JdbcValueSetWriter valueSetWriter) {
+    valueSetWriter.prepareBatch(valueTable.getDatasource().getDatabaseType());
+    pendingValueSets.add(valueSetWriter);
+    if(pendingValueSets.size() >= valueTable.getSettings().getCommitInterval()) {
+      flush();
+    }
+  }
+
+  private synchronized void flush() {
+    if(pendingValueSets.isEmpty()) return;
+    List<JdbcValueSetWriter> valueSets = ImmutableList.copyOf(pendingValueSets);
+    pendingValueSets.clear();
+    valueTable.getDatasource().getJdbcTemplate().execute(new ValueSetBatchCallback(valueSets));
+    for(JdbcValueSetWriter valueSet : valueSets) {
+      valueTable.entityWritten(valueSet.entity);
+    }
+    insertedEntities.clear();
+  }
+
+  /**
+   * Writes value sets by JDBC batches, in a single transaction if none is already active. The database's upsert
+   * statement is used when it has one, otherwise value sets are inserted or updated depending on their existence.
+   */
+  private class ValueSetBatchCallback implements ConnectionCallback<Object> {
+
+    private final List<JdbcValueSetWriter> valueSets;
+
+    private ValueSetBatchCallback(List<JdbcValueSetWriter> valueSets) {
+      this.valueSets = valueSets;
+    }
+
+    @Nullable
+    @Override
+    public Object doInConnection(Connection connection) throws SQLException, DataAccessException {
+      boolean commit = connection.getAutoCommit();
+      if(commit) connection.setAutoCommit(false);
+      try {
+        for(List<JdbcValueSetWriter> run : splitBySql()) {
+          executeBatches(connection, run.get(0).batchSql, run);
+        }
+        if(commit) connection.commit();
+      } catch(SQLException | RuntimeException e) {
+        if(commit) connection.rollback();
+        throw e;
+      } finally {
+        if(commit) connection.setAutoCommit(true);
+      }
+      return null;
+    }
+
+    /**
+     * Splits the value sets, in the order they were buffered, into runs of consecutive value sets sharing the same
+     * statement. Runs are executed one after the other, so that the writes of an entity buffered more than once (an
+     * insert followed by an update, or two upserts) reach the database in the order they were made.
+     */
+    private List<List<JdbcValueSetWriter>> splitBySql() {
+      List<List<JdbcValueSetWriter>> runs = new ArrayList<>();
+      List<JdbcValueSetWriter> run = null;
+      for(JdbcValueSetWriter valueSet : valueSets) {
+        if(run == null || !run.get(0).batchSql.equals(valueSet.batchSql)) {
+          run = new ArrayList<>();
+          runs.add(run);
+        }
+        run.add(valueSet);
+      }
+      return runs;
+    }
+
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings("SQL_PREPARED_STATEMENT_GENERATED_FROM_NONCONSTANT_STRING")
+    private void executeBatches(Connection connection, String sql, Iterable<JdbcValueSetWriter> sqlValueSets)
+        throws SQLException {
+      log.debug("Issuing batch statement: {}", sql);
+      int batchSize = valueTable.getSettings().getBatchSize();
+      try(PreparedStatement statement = connection.prepareStatement(sql)) {
+        int count = 0;
+        for(JdbcValueSetWriter valueSet : sqlValueSets) {
+          valueSet.setBatchParameters(statement);
+          statement.addBatch();
+          if(++count % batchSize == 0) statement.executeBatch();
+        }
+        if(count % batchSize != 0) statement.executeBatch();
+      }
+    }
   }
 
   private class JdbcVariableWriter implements VariableWriter {
@@ -255,6 +372,10 @@ class JdbcValueTableWriter implements ValueTableWriter {
     }
   }
 
+  private enum BatchMode {
+    INSERT, UPDATE, UPSERT
+  }
+
   private class JdbcValueSetWriter implements ValueSetWriter {
 
     private final SimpleDateFormat timestampDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
@@ -263,6 +384,13 @@ class JdbcValueTableWriter implements ValueTableWriter {
 
     private final Map<String, Object> columnValueMap;
 
+    /**
+     * How this value set is written in a batch, decided when it is buffered.
+     */
+    private BatchMode batchMode;
+
+    private String batchSql;
+
     private JdbcValueSetWriter(VariableEntity entity) {
       this.entity = entity;
       columnValueMap = new LinkedHashMap<>();
@@ -293,7 +421,9 @@ class JdbcValueTableWriter implements ValueTableWriter {
 
     @Override
     public void close() {
-      if(columnValueMap.size() != 0) {
+      if(columnValueMap.size() != 0 && isBuffered()) {
+        buffer(this);
+      } else if(columnValueMap.size() != 0) {
         JdbcTemplate jdbcTemplate = valueTable.getDatasource().getJdbcTemplate();
 
         jdbcTemplate.execute(valueTable.hasValueSet(entity) ? getUpdateSql() : getInsertSql(),
@@ -311,7 +441,107 @@ class JdbcValueTableWriter implements ValueTableWriter {
                 }
               }
             });
+        valueTable.entityWritten(entity);
+      }
+    }
+
+    /**
+     * Decides how this closed value set is written in a batch and builds the corresponding parameterized SQL
+     * statement, after adding the timestamp columns. Called once, in the order the value sets are buffered, so that an
+     * entity inserted by a pending value set is updated by the following ones.
+     *
+     * @param databaseType the liquibase type name of the database
+     */
+    private void prepareBatch(String databaseType) {
+      if(BatchStatements.hasUpsert(databaseType)) {
+        batchMode = BatchMode.UPSERT;
+      } else if(valueTable.hasValueSet(entity) || !insertedEntities.add(entity.getIdentifier())) {
+        batchMode = BatchMode.UPDATE;
+      } else {
+        batchMode = BatchMode.INSERT;
+      }
+
+      String timestamp = formattedDate(new Date());
+      if(batchMode != BatchMode.UPDATE && valueTable.hasCreatedTimestampColumn()) {
+        writeValue(Variable.Builder
+            .newVariable(valueTable.getCreatedTimestampColumnName(), TextType.get(), valueTable.getEntityType())
+            .build(), TextType.get().valueOf(timestamp));
+      }
+      if(valueTable.hasUpdatedTimestampColumn()) {
+        writeValue(Variable.Builder
+            .newVariable(valueTable.getUpdatedTimestampColumnName(), TextType.get(), valueTable.getEntityType())
+            .build(), TextType.get().valueOf(timestamp));
+      }
+
+      List<String> entityIdentifierColumns = valueTable.getSettings().getEntityIdentifierColumns();
+      List<String> columns = ImmutableList.<String>builder().addAll(entityIdentifierColumns)
+          .addAll(columnValueMap.keySet()).build();
+      List<String> updatedColumns = new ArrayList<>(columnValueMap.keySet());
+      if(valueTable.hasCreatedTimestampColumn()) updatedColumns.remove(valueTable.getCreatedTimestampColumnName());
+
+      String tableName = valueTable.getSqlName();
+      if(batchMode == BatchMode.UPDATE) {
+        batchSql = BatchStatements.update(tableName, entityIdentifierColumns, updatedColumns);
+        return;
+      }
+      switch(databaseType) {
+        case "hsqldb":
+          batchSql = BatchStatements
+              .hsqldbMerge(tableName, entityIdentifierColumns, columns, updatedColumns, getCastParameters(columns));
+          break;
+        case "mysql":
+          batchSql = BatchStatements.mysqlUpsert(tableName, columns, updatedColumns);
+          break;
+        case "postgresql":
+          batchSql = BatchStatements.postgresqlUpsert(tableName, entityIdentifierColumns, columns, updatedColumns);
+          break;
+        default:
+          batchSql = BatchStatements.insert(tableName, columns);
+      }
+    }
+
+    /**
+     * Sets the parameters of the statement prepared by {@link #prepareBatch(String)}.
+     */
+    private void setBatchParameters(PreparedStatement statement) throws SQLException {
+      List<Object> parameters = new ArrayList<>();
+      if(batchMode == BatchMode.UPDATE) {
+        parameters.addAll(columnValueMap.values());
+        parameters.addAll(getEntityIdentifierColumnValueMap().values());
+      } else {
+        parameters.addAll(getEntityIdentifierColumnValueMap().values());
+        parameters.addAll(columnValueMap.values());
+      }
+      int index = 1;
+      for(Object parameter : parameters) {
+        if(parameter instanceof byte[]) {
+          statement.setBytes(index++, (byte[]) parameter);
+        } else {
+          statement.setObject(index++, parameter);
+        }
+      }
+    }
+
+    /**
+     * HSQLDB requires the type of the parameters of a VALUES table, which are cast to their column's type.
+     */
+    private List<String> getCastParameters(Iterable<String> columns) {
+      List<String> parameters = new ArrayList<>();
+      for(String columnName : columns) {
+        Column column = valueTable.getDatasource().getDatabaseSnapshot().getColumn(valueTable.getSqlName(), columnName);
+        if(column == null) {
+          parameters.add("?");
+        } else {
+          StringBuilder sql = new StringBuilder("CAST(? AS ").append(column.getTypeName());
+          if(column.getDataType() == Types.VARCHAR || column.getDataType() == Types.CHAR) {
+            sql.append("(").append(column.getColumnSize()).append(")");
+          } else if(column.getDataType() == Types.DECIMAL || column.getDataType() == Types.NUMERIC) {
+            sql.append("(").append(column.getColumnSize()).append(",").append(column.getDecimalDigits()).append(")");
+          }
+          parameters.add(sql.append(")").toString());
+        }
       }
+      return parameters;
     }
 
     @SuppressWarnings({ "PMD.NcssMethodCount", "OverlyLongMethod" })
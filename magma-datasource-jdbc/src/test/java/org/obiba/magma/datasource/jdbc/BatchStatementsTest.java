@@ -0,0 +1,60 @@
+package org.obiba.magma.datasource.jdbc;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class BatchStatementsTest {
+
+  private static final List<String> IDENTIFIER_COLUMNS = ImmutableList.of("id_a", "id_b");
+
+  private static final List<String> COLUMNS = ImmutableList.of("id_a", "id_b", "var_1", "created", "updated");
+
+  private static final List<String> UPDATED_COLUMNS = ImmutableList.of("var_1", "updated");
+
+  @Test
+  public void test_hasUpsert() {
+    assertThat(BatchStatements.hasUpsert("mysql")).isTrue();
+    assertThat(BatchStatements.hasUpsert("postgresql")).isTrue();
+    assertThat(BatchStatements.hasUpsert("hsqldb")).isTrue();
+    assertThat(BatchStatements.hasUpsert("oracle")).isFalse();
+  }
+
+  @Test
+  public void test_mysqlUpsert() {
+    assertThat(BatchStatements.mysqlUpsert("my_table", COLUMNS, UPDATED_COLUMNS)).isEqualTo(
+        "INSERT INTO my_table (id_a, id_b, var_1, created, updated) VALUES (?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE var_1 = VALUES(var_1), updated = VALUES(updated)");
+  }
+
+  @Test
+  public void test_postgresqlUpsert() {
+    assertThat(BatchStatements.postgresqlUpsert("my_table", IDENTIFIER_COLUMNS, COLUMNS, UPDATED_COLUMNS)).isEqualTo(
+        "INSERT INTO my_table (id_a, id_b, var_1, created, updated) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (id_a, id_b) DO UPDATE SET var_1 = EXCLUDED.var_1, updated = EXCLUDED.updated");
+  }
+
+  @Test
+  public void test_hsqldbMerge() {
+    List<String> castParameters = ImmutableList.of("CAST(? AS VARCHAR(255))", "?", "?", "?", "?");
+    assertThat(BatchStatements.hsqldbMerge("t", IDENTIFIER_COLUMNS, COLUMNS, UPDATED_COLUMNS, castParameters))
+        .isEqualTo("MERGE INTO t USING (VALUES (CAST(? AS VARCHAR(255)), ?, ?, ?, ?)) " +
+            "AS v (id_a, id_b, var_1, created, updated) ON t.id_a = v.id_a AND t.id_b = v.id_b " +
+            "WHEN MATCHED THEN UPDATE SET t.var_1 = v.var_1, t.updated = v.updated " +
+            "WHEN NOT MATCHED THEN INSERT (id_a, id_b, var_1, created, updated) " +
+            "VALUES (v.id_a, v.id_b, v.var_1, v.created, v.updated)");
+  }
+
+  @Test
+  public void test_insert_update() {
+    assertThat(BatchStatements.insert("my_table", ImmutableList.of("id_a", "var_1")))
+        .isEqualTo("INSERT INTO my_table (id_a, var_1) VALUES (?, ?)");
+    assertThat(BatchStatements.update("my_table", IDENTIFIER_COLUMNS, UPDATED_COLUMNS))
+        .isEqualTo("UPDATE my_table SET var_1 = ?, updated = ? WHERE id_a = ? AND id_b = ?");
+  }
+
+}
@@ -1,5 +1,8 @@
 package org.obiba.magma.datasource.jdbc;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
 
 import javax.sql.DataSource;
@@ -8,7 +11,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.obiba.core.test.spring.Dataset;
 import org.obiba.core.test.spring.DbUnitAwareTestExecutionListener;
+import org.obiba.magma.AggregatingVectorSource;
 import org.obiba.magma.Category;
+import org.obiba.magma.MultiVectorSource;
 import org.obiba.magma.Timestamps;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
@@ -19,12 +24,15 @@ import org.obiba.magma.ValueTableWriter.VariableWriter;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VectorSource;
+import org.obiba.magma.math.summary.CategoricalVariableSummary;
+import org.obiba.magma.math.summary.ContinuousVariableSummary;
 import org.obiba.magma.support.VariableEntityBean;
 import org.obiba.magma.test.AbstractMagmaTest;
 import org.obiba.magma.test.SchemaTestExecutionListener;
 import org.obiba.magma.test.TestSchema;
 import org.obiba.magma.type.DecimalType;
 import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.type.TextType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestExecutionListeners;
@@ -34,7 +42,13 @@ import org.springframework.test.context.support.DirtiesContextTestExecutionListe
 import org.springframework.test.context.transaction.TransactionConfiguration;
 import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.data.MapEntry.entry;
 
 @SuppressWarnings({ "ReuseOfLocalVariable", "OverlyLongMethod", "PMD.NcssMethodCount" })
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -116,6 +130,120 @@ public class JdbcDatasourceTest extends AbstractMagmaTest {
     jdbcDatasource.dispose();
   }
 
+  @TestSchema(schemaLocation = "org/obiba/magma/datasource/jdbc", beforeSchema = "schema-nometa.sql",
+      afterSchema = "schema-notables.sql")
+  @Dataset(filenames = "JdbcDatasourceTest-nometa.xml")
+  @Test
+  public void test_vectorSource_chunked() {
+    JdbcDatasourceSettings settings = new JdbcDatasourceSettings("Participant", null, null, false);
+    JdbcDatasource jdbcDatasource = new JdbcDatasource("my-datasource", dataSource, settings);
+    jdbcDatasource.initialise();
+
+    ValueTable valueTable = jdbcDatasource.getValueTable("BONE_DENSITY");
+    VectorSource bdVar = valueTable.getVariableValueSource("BD").asVectorSource();
+    TreeSet<VariableEntity> entities = new TreeSet<>(valueTable.getVariableEntities());
+
+    settings.setVectorInClauseRatio(0);
+    List<Value> scannedValues = Lists.newArrayList(bdVar.getValues(entities));
+    settings.setVectorInClauseRatio(1);
+    List<Value> chunkedValues = Lists.newArrayList(bdVar.getValues(entities));
+
+    assertThat(chunkedValues).hasSize(2);
+    assertThat(chunkedValues).isEqualTo(scannedValues);
+
+    jdbcDatasource.dispose();
+  }
+
+  @TestSchema(schemaLocation = "org/obiba/magma/datasource/jdbc", beforeSchema = "schema-nometa.sql",
+      afterSchema = "schema-notables.sql")
+  @Dataset(filenames = "JdbcDatasourceTest-nometa.xml")
+  @Test
+  public void test_vectorSource_readSettings() {
+    JdbcDatasource defaultDatasource = new JdbcDatasource("default-datasource", dataSource,
+        new JdbcDatasourceSettings("Participant", null, null, false));
+    defaultDatasource.initialise();
+    ValueTable defaultTable = defaultDatasource.getValueTable("BONE_DENSITY");
+    TreeSet<VariableEntity> entities = new TreeSet<>(defaultTable.getVariableEntities());
+    List<Value> expected = Lists
+        .newArrayList(defaultTable.getVariableValueSource("BD").asVectorSource().getValues(entities));
+    defaultDatasource.dispose();
+
+    // HSQLDB reads through cursors, with auto-commit turned off, when streaming results
+    JdbcDatasourceSettings settings = new JdbcDatasourceSettings("Participant", null, null, false);
+    settings.setStreamingResults(true);
+    settings.setFetchSize(1);
+    settings.setQueryTimeout(30);
+    JdbcDatasource jdbcDatasource = new JdbcDatasource("my-datasource", dataSource, settings);
+    jdbcDatasource.initialise();
+    assertThat(jdbcDatasource.isCursorRead()).isTrue();
+    assertThat(jdbcDatasource.isStreamingRead()).isFalse();
+
+    ValueTable valueTable = jdbcDatasource.getValueTable("BONE_DENSITY");
+    assertThat(new TreeSet<>(valueTable.getVariableEntities())).isEqualTo(entities);
+    VectorSource bdVar = valueTable.getVariableValueSource("BD").asVectorSource();
+    for(double ratio : new double[] { 0, 1 }) {
+      settings.setVectorInClauseRatio(ratio);
+      assertThat(Lists.newArrayList(bdVar.getValues(entities))).isEqualTo(expected);
+      // the vector is read again, the read connection of the previous iteration has been released
+      assertThat(Lists.newArrayList(bdVar.getValues(entities))).isEqualTo(expected);
+    }
+
+    jdbcDatasource.dispose();
+  }
+
+  @TestSchema(schemaLocation = "org/obiba/magma/datasource/jdbc", beforeSchema = "schema-nometa.sql",
+      afterSchema = "schema-notables.sql")
+  @Dataset(filenames = "JdbcDatasourceTest-nometa.xml")
+  @Test
+  public void test_vectorSource_valueFrequencies() {
+    JdbcDatasource jdbcDatasource = new JdbcDatasource("my-datasource", dataSource,
+        new JdbcDatasourceSettings("Participant", null, null, false));
+    jdbcDatasource.initialise();
+
+    ValueTable valueTable = jdbcDatasource.getValueTable("BONE_DENSITY");
+    VectorSource bdVar = valueTable.getVariableValueSource("BD").asVectorSource();
+    Map<Value, Long> frequencies = ((AggregatingVectorSource) bdVar).getValueFrequencies(valueTable);
+    assertThat(frequencies).isNotNull();
+
+    Map<Value, Long> expected = Maps.newHashMap();
+    for(Value value : bdVar.getValues(new TreeSet<>(valueTable.getVariableEntities()))) {
+      Value key = value.isNull() ? null : value;
+      expected.put(key, (expected.containsKey(key) ? expected.get(key) : 0) + 1);
+    }
+    assertThat(frequencies).isEqualTo(expected);
+
+    jdbcDatasource.dispose();
+  }
+
+  @TestSchema(schemaLocation = "org/obiba/magma/datasource/jdbc", beforeSchema = "schema-nometa.sql",
+      afterSchema = "schema-notables.sql")
+  @Dataset(filenames = "JdbcDatasourceTest-nometa.xml")
+  @Test
+  public void test_multiVectorSource() {
+    JdbcDatasourceSettings settings = new JdbcDatasourceSettings("Participant", null, null, false);
+    JdbcDatasource jdbcDatasource = new JdbcDatasource("my-datasource", dataSource, settings);
+    jdbcDatasource.initialise();
+
+    ValueTable valueTable = jdbcDatasource.getValueTable("BONE_DENSITY");
+    Variable bd = valueTable.getVariable("BD");
+    Variable bd2 = valueTable.getVariable("BD_2");
+    TreeSet<VariableEntity> entities = new TreeSet<>(valueTable.getVariableEntities());
+    List<Value> values = Lists.newArrayList(valueTable.getVariableValueSource("BD").asVectorSource()
+        .getValues(entities));
+    List<Value> values2 = Lists.newArrayList(valueTable.getVariableValueSource("BD_2").asVectorSource()
+        .getValues(entities));
+
+    for(double ratio : new double[] { 0, 1 }) {
+      settings.setVectorInClauseRatio(ratio);
+      Map<String, List<Value>> columns = ((MultiVectorSource) valueTable)
+          .getValues(ImmutableList.of(bd, bd2), entities);
+      assertThat(columns.get("BD")).isEqualTo(values);
+      assertThat(columns.get("BD_2")).isEqualTo(values2);
+    }
+
+    jdbcDatasource.dispose();
+  }
+
   @TestSchema(schemaLocation = "org/obiba/magma/datasource/jdbc", beforeSchema = "schema-notables.sql",
       afterSchema = "schema-notables.sql")
   @Test
@@ -166,6 +294,148 @@ public class JdbcDatasourceTest extends AbstractMagmaTest {
     jdbcDatasource.dispose();
   }
 
+  @TestSchema(schemaLocation = "org/obiba/magma/datasource/jdbc", beforeSchema = "schema-notables.sql",
+      afterSchema = "schema-notables.sql")
+  @Test
+  public void test_batchedWrite() {
+    JdbcValueTableSettings tableSettings = new JdbcValueTableSettings("my_table", "my_table", "Participant",
+        Arrays.asList("entity_id"));
+    tableSettings.setBatchSize(2);
+    JdbcDatasourceSettings settings = new JdbcDatasourceSettings("Participant", null,
+        Sets.newHashSet(tableSettings), false);
+    JdbcDatasource jdbcDatasource = new JdbcDatasource("my-datasource-nodb", dataSource, settings);
+    jdbcDatasource.initialise();
+
+    Variable myVar = Variable.Builder.newVariable("my_var", IntegerType.get(), "Participant").build();
+    try(ValueTableWriter tableWriter = jdbcDatasource.createWriter("my_table", "Participant")) {
+      try(VariableWriter variableWriter = tableWriter.writeVariables()) {
+        variableWriter.writeVariable(myVar);
+      }
+      for(int i = 1; i <= 3; i++) {
+        try(ValueSetWriter valueSetWriter = tableWriter.writeValueSet(new VariableEntityBean("Participant", "" + i))) {
+          valueSetWriter.writeValue(myVar, IntegerType.get().valueOf(i));
+        }
+      }
+    }
+    try(ValueTableWriter tableWriter = jdbcDatasource.createWriter("my_table", "Participant");
+        ValueSetWriter valueSetWriter = tableWriter.writeValueSet(new VariableEntityBean("Participant", "2"))) {
+      valueSetWriter.writeValue(myVar, IntegerType.get().valueOf(20));
+    }
+
+    ValueTable table = jdbcDatasource.getValueTable("my_table");
+    assertThat(table.getValueSetCount()).isEqualTo(3);
+    VariableEntity entity2 = new VariableEntityBean("Participant", "2");
+    assertThat(table.getValue(table.getVariable("my_var"), table.getValueSet(entity2)))
+        .isEqualTo(IntegerType.get().valueOf(20));
+
+    jdbcDatasource.dispose();
+  }
+
+  @TestSchema(schemaLocation = "org/obiba/magma/datasource/jdbc", beforeSchema = "schema-notables.sql",
+      afterSchema = "schema-notables.sql")
+  @Test
+  public void test_batchedWrite_keeps_buffer_order() {
+    JdbcValueTableSettings tableSettings = new JdbcValueTableSettings("my_table", "my_table", "Participant",
+        Arrays.asList("entity_id"));
+    tableSettings.setBatchSize(10);
+    JdbcDatasourceSettings settings = new JdbcDatasourceSettings("Participant", null,
+        Sets.newHashSet(tableSettings), false);
+    JdbcDatasource jdbcDatasource = new JdbcDatasource("my-datasource-nodb", dataSource, settings);
+    jdbcDatasource.initialise();
+
+    Variable myVar = Variable.Builder.newVariable("my_var", IntegerType.get(), "Participant").build();
+    Variable otherVar = Variable.Builder.newVariable("other_var", IntegerType.get(), "Participant").build();
+    VariableEntity entity1 = new VariableEntityBean("Participant", "1");
+    VariableEntity entity2 = new VariableEntityBean("Participant", "2");
+    try(ValueTableWriter tableWriter = jdbcDatasource.createWriter("my_table", "Participant")) {
+      try(VariableWriter variableWriter = tableWriter.writeVariables()) {
+        variableWriter.writeVariable(myVar);
+        variableWriter.writeVariable(otherVar);
+      }
+      // the first and last value sets share the same statement, the second one is written in between
+      try(ValueSetWriter valueSetWriter = tableWriter.writeValueSet(entity1)) {
+        valueSetWriter.writeValue(myVar, IntegerType.get().valueOf(1));
+      }
+      try(ValueSetWriter valueSetWriter = tableWriter.writeValueSet(entity2)) {
+        valueSetWriter.writeValue(myVar, IntegerType.get().valueOf(20));
+        valueSetWriter.writeValue(otherVar, IntegerType.get().valueOf(2));
+      }
+      try(ValueSetWriter valueSetWriter = tableWriter.writeValueSet(entity2)) {
+        valueSetWriter.writeValue(myVar, IntegerType.get().valueOf(21));
+      }
+    }
+
+    ValueTable table = jdbcDatasource.getValueTable("my_table");
+    assertThat(table.getValueSetCount()).isEqualTo(2);
+    assertThat(table.getValue(table.getVariable("my_var"), table.getValueSet(entity2)))
+        .isEqualTo(IntegerType.get().valueOf(21));
+    assertThat(table.getValue(table.getVariable("other_var"), table.getValueSet(entity2)))
+        .isEqualTo(IntegerType.get().valueOf(2));
+
+    jdbcDatasource.dispose();
+  }
+
+  @TestSchema(schemaLocation = "org/obiba/magma/datasource/jdbc", beforeSchema = "schema-notables.sql",
+      afterSchema = "schema-notables.sql")
+  @Test
+  public void test_summaries_from_value_frequencies() {
+    JdbcDatasource jdbcDatasource = new JdbcDatasource("my-datasource-nodb", dataSource,
+        new JdbcDatasourceSettings("Participant", null, null, false));
+    jdbcDatasource.initialise();
+
+    Variable score = Variable.Builder.newVariable("score", IntegerType.get(), "Participant")
+        .addCategory("999", "", true).build();
+    Variable answer = Variable.Builder.newVariable("answer", TextType.get(), "Participant")
+        .addCategories("YES", "NO").build();
+    try(ValueTableWriter tableWriter = jdbcDatasource.createWriter("my_table", "Participant")) {
+      try(VariableWriter variableWriter = tableWriter.writeVariables()) {
+        variableWriter.writeVariable(score);
+        variableWriter.writeVariable(answer);
+      }
+      List<Integer> scores = Arrays.asList(10, 20, 20, 999, null, null);
+      List<String> answers = Arrays.asList("YES", "YES", "NO", "MAYBE", null, null);
+      for(int i = 0; i < scores.size(); i++) {
+        try(ValueSetWriter valueSetWriter = tableWriter.writeValueSet(new VariableEntityBean("Participant", "" + i))) {
+          valueSetWriter.writeValue(score, IntegerType.get().valueOf(scores.get(i)));
+          valueSetWriter.writeValue(answer, TextType.get().valueOf(answers.get(i)));
+        }
+      }
+    }
+
+    ValueTable table = jdbcDatasource.getValueTable("my_table");
+    VectorSource vectorSource = table.getVariableValueSource("score").asVectorSource();
+    Map<Value, Long> expected = Maps.newHashMap();
+    expected.put(IntegerType.get().valueOf(10), 1l);
+    expected.put(IntegerType.get().valueOf(20), 2l);
+    expected.put(IntegerType.get().valueOf(999), 1l);
+    expected.put(null, 2l);
+    assertThat(((AggregatingVectorSource) vectorSource).getValueFrequencies(table)).isEqualTo(expected);
+
+    ContinuousVariableSummary continuous = new ContinuousVariableSummary.Builder(table.getVariable("score"),
+        ContinuousVariableSummary.Distribution.normal).addTable(table, table.getVariableValueSource("score")).build();
+    assertThat(continuous.getDescriptiveStats().getN()).isEqualTo(3);
+    assertThat(continuous.getDescriptiveStats().getSum()).isEqualTo(50.0);
+    assertThat(continuous.getDescriptiveStats().getPercentile(50)).isEqualTo(20.0);
+    Map<String, Long> continuousFrequencies = Maps.newHashMap();
+    for(ContinuousVariableSummary.Frequency frequency : continuous.getFrequencies()) {
+      continuousFrequencies.put(frequency.getValue(), frequency.getFreq());
+    }
+    assertThat(continuousFrequencies).containsOnly(entry("NOT_NULL", 3l), entry("999", 1l), entry("N/A", 2l));
+
+    CategoricalVariableSummary categorical = new CategoricalVariableSummary.Builder(table.getVariable("answer"))
+        .addTable(table, table.getVariableValueSource("answer")).build();
+    assertThat(categorical.getN()).isEqualTo(6);
+    assertThat(categorical.getMode()).isEqualTo("YES");
+    assertThat(categorical.getOtherFrequency()).isEqualTo(1);
+    Map<String, Long> categoricalFrequencies = Maps.newHashMap();
+    for(CategoricalVariableSummary.Frequency frequency : categorical.getFrequencies()) {
+      categoricalFrequencies.put(frequency.getValue(), frequency.getFreq());
+    }
+    assertThat(categoricalFrequencies).containsOnly(entry("YES", 2l), entry("NO", 1l), entry("N/A", 2l));
+
+    jdbcDatasource.dispose();
+  }
+
   //
   // Methods
   //
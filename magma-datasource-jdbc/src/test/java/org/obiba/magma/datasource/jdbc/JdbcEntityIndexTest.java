@@ -0,0 +1,27 @@
+package org.obiba.magma.datasource.jdbc;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class JdbcEntityIndexTest {
+
+  @Test
+  public void test_add_contains() {
+    JdbcEntityIndex index = new JdbcEntityIndex();
+    for(int i = 0; i < 1000; i++) {
+      assertThat(index.add("id" + i)).isTrue();
+    }
+    assertThat(index.add("id10")).isFalse();
+    assertThat(index.size()).isEqualTo(1000);
+    assertThat(index.contains("id999")).isTrue();
+    assertThat(index.contains("id1000")).isFalse();
+
+    // identifiers are iterated in insertion order
+    assertThat(Lists.newArrayList(index.iterator()).get(0)).isEqualTo("id0");
+    assertThat(Lists.newArrayList(index.iterator()).get(999)).isEqualTo("id999");
+  }
+
+}
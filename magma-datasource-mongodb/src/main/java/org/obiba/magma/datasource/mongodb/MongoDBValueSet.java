@@ -52,6 +52,11 @@ class MongoDBValueSet implements ValueSet {
     this.entity = entity;
   }
 
+  MongoDBValueSet(MongoDBValueTable valueTable, VariableEntity entity, BSONObject object) {
+    this(valueTable, entity);
+    this.object = object;
+  }
+
   @Override
   public ValueTable getValueTable() {
     return valueTable;
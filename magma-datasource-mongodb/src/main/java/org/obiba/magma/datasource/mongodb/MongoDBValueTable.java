@@ -12,6 +12,7 @@ package org.obiba.magma.datasource.mongodb;
 
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 
@@ -33,7 +34,10 @@ import org.obiba.magma.support.AbstractValueTable;
 import org.obiba.magma.support.NullTimestamps;
 import org.obiba.magma.type.DateTimeType;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
@@ -50,6 +54,8 @@ public class MongoDBValueTable extends AbstractValueTable {
 
   private static final String VALUE_SET_SUFFIX = "_value_set";
 
+  private static final int VALUE_SETS_PAGE_SIZE = 500;
+
   private DBObject dbObject;
 
   public MongoDBValueTable(@NotNull Datasource datasource, @NotNull String name) {
@@ -170,6 +176,46 @@ public class MongoDBValueTable extends AbstractValueTable {
     return new MongoDBValueSet(this, entity);
   }
 
+  /**
+   * Value sets are loaded by pages, with one query per page.
+   */
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    return Iterables.concat(Iterables.transform(Iterables.partition(entities, VALUE_SETS_PAGE_SIZE),
+        new Function<List<VariableEntity>, Iterable<ValueSet>>() {
+          @Override
+          public Iterable<ValueSet> apply(List<VariableEntity> page) {
+            return loadValueSets(page);
+          }
+        }));
+  }
+
+  private Iterable<ValueSet> loadValueSets(List<VariableEntity> entities) {
+    List<String> identifiers = Lists.newArrayListWithCapacity(entities.size());
+    for(VariableEntity entity : entities) {
+      if(!hasValueSet(entity)) {
+        throw new NoSuchValueSetException(this, entity);
+      }
+      identifiers.add(entity.getIdentifier());
+    }
+    Map<String, DBObject> objects = Maps.newHashMapWithExpectedSize(entities.size());
+    DBObject query = BasicDBObjectBuilder.start("_id", new BasicDBObject("$in", identifiers)).get();
+    try(DBCursor cursor = getValueSetCollection().find(query)) {
+      while(cursor.hasNext()) {
+        DBObject object = cursor.next();
+        objects.put(object.get("_id").toString(), object);
+      }
+    }
+    ImmutableList.Builder<ValueSet> valueSets = ImmutableList.builder();
+    for(VariableEntity entity : entities) {
+      DBObject object = objects.get(entity.getIdentifier());
+      valueSets.add(object == null
+          ? new MongoDBValueSet(this, entity)
+          : new MongoDBValueSet(this, entity, object));
+    }
+    return valueSets.build();
+  }
+
   @NotNull
   @Override
   public Timestamps getTimestamps() {
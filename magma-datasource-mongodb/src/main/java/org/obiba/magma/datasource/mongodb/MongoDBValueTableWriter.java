@@ -17,6 +17,7 @@ import javax.validation.constraints.NotNull;
 
 import org.bson.BSONObject;
 import org.bson.types.ObjectId;
+import org.obiba.magma.ConcurrentValueTableWriter;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueTableWriter;
 import org.obiba.magma.Variable;
@@ -33,7 +34,7 @@ import com.mongodb.DBObject;
 import com.mongodb.gridfs.GridFS;
 import com.mongodb.gridfs.GridFSInputFile;
 
-class MongoDBValueTableWriter implements ValueTableWriter {
+class MongoDBValueTableWriter implements ConcurrentValueTableWriter {
 
   static final String GRID_FILE_ID = "_grid_file_id";
 
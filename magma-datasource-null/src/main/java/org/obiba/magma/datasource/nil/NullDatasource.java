@@ -5,6 +5,7 @@ import java.util.Set;
 
 import javax.validation.constraints.NotNull;
 
+import org.obiba.magma.ConcurrentValueTableWriter;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.ValueTableWriter;
@@ -38,7 +39,7 @@ public class NullDatasource extends AbstractDatasource {
     return new NullValueTableWriter();
   }
 
-  private static class NullValueTableWriter implements ValueTableWriter {
+  private static class NullValueTableWriter implements ConcurrentValueTableWriter {
 
     @NotNull
     @Override
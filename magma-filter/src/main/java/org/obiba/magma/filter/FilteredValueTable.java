@@ -1,5 +1,7 @@
 package org.obiba.magma.filter;
 
+import java.util.SortedSet;
+
 import org.obiba.magma.NoSuchValueSetException;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
@@ -7,6 +9,7 @@ import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.support.AbstractValueTableWrapper;
 
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 
@@ -44,6 +47,19 @@ public class FilteredValueTable extends AbstractValueTableWrapper {
     return valueSet;
   }
 
+  @Override
+  public Iterable<ValueSet> getValueSets(SortedSet<VariableEntity> entities) {
+    return Iterables.transform(getWrappedValueTable().getValueSets(entities), new Function<ValueSet, ValueSet>() {
+      @Override
+      public ValueSet apply(ValueSet input) {
+        if(entityFilterChain.filter(input) == null) {
+          throw new NoSuchValueSetException(FilteredValueTable.this, input.getVariableEntity());
+        }
+        return input;
+      }
+    });
+  }
+
   @Override
   public Iterable<ValueSet> getValueSets() {
     return Iterables.filter(getWrappedValueTable().getValueSets(), new Predicate<ValueSet>() {
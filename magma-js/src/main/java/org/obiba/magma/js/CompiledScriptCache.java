@@ -0,0 +1,150 @@
+package org.obiba.magma.js;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.validation.constraints.NotNull;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.WrappedException;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Size bounded cache of compiled scripts, shared by the derived variables and the view clauses of the engine, so that
+ * identical scripts are compiled once, whatever the variables or clauses they belong to. Scripts are keyed by their
+ * source and by the optimization level and language version of the context that compiles them, and they are compiled
+ * under a name that does not depend on the caller. The script returned to each caller reports the errors under the
+ * caller's script name instead. A compiled script holds no state and can be executed concurrently in different scopes.
+ */
+public class CompiledScriptCache {
+
+  public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+  /**
+   * Source name of the cached scripts, shared by all the variables and clauses with the same script.
+   */
+  static final String SHARED_SCRIPT_NAME = "script";
+
+  private final Cache<Key, Script> scripts;
+
+  public CompiledScriptCache() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  public CompiledScriptCache(long maximumSize) {
+    scripts = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /**
+   * Gets the compiled script for the given source, compiling it in the given context if it is not in the cache.
+   *
+   * @param context
+   * @param script the source of the script
+   * @param scriptName the name of the script, used in error messages
+   * @return the compiled script, which script errors are thrown as {@code MagmaJsRuntimeException} naming the script
+   * @throws EvaluatorException the compilation error, which source name is the name of the script
+   */
+  @NotNull
+  public Script compile(final Context context, final String script, String scriptName) {
+    try {
+      Key key = new Key(script, context.getOptimizationLevel(), context.getLanguageVersion());
+      return new NamedScript(scripts.get(key, new Callable<Script>() {
+        @Override
+        public Script call() throws Exception {
+          return context.compileString(script, SHARED_SCRIPT_NAME, 1, null);
+        }
+      }), scriptName);
+    } catch(ExecutionException | UncheckedExecutionException e) {
+      // rethrow compilation errors as they are thrown by Rhino, under the name of the script
+      if(e.getCause() instanceof EvaluatorException) {
+        EvaluatorException cause = (EvaluatorException) e.getCause();
+        throw new EvaluatorException(cause.details(), scriptName, cause.lineNumber(), cause.lineSource(),
+            cause.columnNumber());
+      }
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Hits, misses and evictions of the cache.
+   */
+  public CacheStats getStats() {
+    return scripts.stats();
+  }
+
+  public long size() {
+    return scripts.size();
+  }
+
+  public void invalidateAll() {
+    scripts.invalidateAll();
+  }
+
+  /**
+   * A shared compiled script, which script errors are reported under the name of the variable or clause executing it.
+   */
+  private static final class NamedScript implements Script {
+
+    private final Script script;
+
+    private final String scriptName;
+
+    private NamedScript(Script script, String scriptName) {
+      this.script = script;
+      this.scriptName = scriptName;
+    }
+
+    @Override
+    public Object exec(Context cx, Scriptable scope) {
+      try {
+        return script.exec(cx, scope);
+      } catch(WrappedException e) {
+        // a Java exception thrown by a method called by the script
+        throw e;
+      } catch(RhinoException e) {
+        throw new MagmaJsRuntimeException(
+            "Script " + scriptName + " failed at line " + e.lineNumber() + ": " + e.details(), e);
+      }
+    }
+  }
+
+  private static final class Key {
+
+    private final String script;
+
+    private final int optimizationLevel;
+
+    private final int languageVersion;
+
+    private Key(String script, int optimizationLevel, int languageVersion) {
+      this.script = script;
+      this.optimizationLevel = optimizationLevel;
+      this.languageVersion = languageVersion;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj) return true;
+      if(!(obj instanceof Key)) return false;
+      Key other = (Key) obj;
+      return optimizationLevel == other.optimizationLevel && languageVersion == other.languageVersion &&
+          script.equals(other.script);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(script, optimizationLevel, languageVersion);
+    }
+  }
+
+}
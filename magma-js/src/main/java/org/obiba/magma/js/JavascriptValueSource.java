@@ -18,6 +18,7 @@ import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.Undefined;
 import org.obiba.magma.Initialisable;
+import org.obiba.magma.MagmaEngine;
 import org.obiba.magma.Timestamps;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
@@ -130,7 +131,8 @@ public class JavascriptValueSource implements ValueSource, VectorSource, Initial
         compiledScript = (Script) ContextFactory.getGlobal().call(new ContextAction() {
           @Override
           public Object run(Context context) {
-            return context.compileString(getScript(), getScriptName(), 1, null);
+            return MagmaEngine.get().getExtension(MagmaJsExtension.class).getCompiledScriptCache()
+                .compile(context, getScript(), getScriptName());
           }
         });
       } catch(Exception e) {
@@ -12,10 +12,23 @@ public class MagmaJsExtension implements MagmaEngineExtension {
 
   private transient MagmaContextFactory magmaContextFactory = new MagmaContextFactory();
 
+  private transient CompiledScriptCache compiledScriptCache = new CompiledScriptCache();
+
   public void setMagmaContextFactory(MagmaContextFactory magmaContextFactory) {
     this.magmaContextFactory = magmaContextFactory;
   }
 
+  public void setCompiledScriptCache(CompiledScriptCache compiledScriptCache) {
+    this.compiledScriptCache = compiledScriptCache;
+  }
+
+  /**
+   * The cache of the scripts compiled by the derived variables and the view clauses of the engine.
+   */
+  public CompiledScriptCache getCompiledScriptCache() {
+    return compiledScriptCache;
+  }
+
   @Override
   public String getName() {
     return "magma-js";
@@ -9,6 +9,7 @@ import org.mozilla.javascript.EvaluatorException;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.obiba.magma.Initialisable;
+import org.obiba.magma.MagmaEngine;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
@@ -16,6 +17,7 @@ import org.obiba.magma.ValueType;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.js.MagmaContext;
+import org.obiba.magma.js.MagmaJsExtension;
 import org.obiba.magma.js.ScriptableValue;
 import org.obiba.magma.js.ScriptableVariable;
 import org.obiba.magma.type.BooleanType;
@@ -64,7 +66,8 @@ public class JavascriptClause implements Initialisable, SelectClause, WhereClaus
     compiledScript = (Script) ContextFactory.getGlobal().call(new ContextAction() {
       @Override
       public Object run(Context cx) {
-        return cx.compileString(getScript(), getScriptName(), 1, null);
+        return MagmaEngine.get().getExtension(MagmaJsExtension.class).getCompiledScriptCache()
+            .compile(cx, getScript(), getScriptName());
       }
     });
   }
@@ -5,6 +5,8 @@ import java.util.Date;
 import org.junit.Before;
 import org.junit.Test;
 import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.RhinoException;
+import org.obiba.magma.MagmaEngine;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
@@ -14,6 +16,8 @@ import org.obiba.magma.type.DecimalType;
 import org.obiba.magma.type.IntegerType;
 import org.obiba.magma.type.TextType;
 
+import com.google.common.collect.ImmutableList;
+
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
@@ -75,6 +79,38 @@ public class JavascriptValueSourceTest extends AbstractJsTest {
     }
   }
 
+  @Test
+  public void test_identical_scripts_are_compiled_once() {
+    CompiledScriptCache cache = MagmaEngine.get().getExtension(MagmaJsExtension.class).getCompiledScriptCache();
+    long misses = cache.getStats().missCount();
+    long hits = cache.getStats().hitCount();
+    for(int i = 0; i < 3; i++) {
+      JavascriptValueSource source = new JavascriptValueSource(DecimalType.get(), "2 * 21");
+      source.setScriptName("var" + i);
+      assertThat(source.getValue(mockValueSet).getValue()).isEqualTo(42d);
+    }
+    assertThat(cache.getStats().missCount() - misses).isEqualTo(1);
+    assertThat(cache.getStats().hitCount() - hits).isEqualTo(2);
+  }
+
+  @Test
+  public void test_identical_scripts_errors_name_their_variable() {
+    CompiledScriptCache cache = MagmaEngine.get().getExtension(MagmaJsExtension.class).getCompiledScriptCache();
+    long misses = cache.getStats().missCount();
+    for(String scriptName : ImmutableList.of("first", "second")) {
+      JavascriptValueSource source = new JavascriptValueSource(DecimalType.get(), "var i = 1;\nnoSuchFunction()");
+      source.setScriptName(scriptName);
+      try {
+        source.getValue(mockValueSet);
+        fail("MagmaJsRuntimeException was expected");
+      } catch(MagmaJsRuntimeException e) {
+        assertThat(e.getMessage()).startsWith("Script " + scriptName + " failed at line 2");
+        assertThat(e.getCause()).isInstanceOf(RhinoException.class);
+      }
+    }
+    assertThat(cache.getStats().missCount() - misses).isEqualTo(1);
+  }
+
   @Test
   public void test_OPAL_1110() {
     JavascriptValueSource source = new JavascriptValueSource(TextType.get(), "1");
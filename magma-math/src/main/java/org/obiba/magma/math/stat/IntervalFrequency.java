@@ -96,9 +96,19 @@ public class IntervalFrequency implements Serializable {
    * @param d
    */
   public void add(double d) {
+    add(d, 1);
+  }
+
+  /**
+   * Adds {@code count} to the frequency of the interval that contains {@code d}.
+   *
+   * @param d
+   * @param count
+   */
+  public void add(double d, long count) {
     for(Interval interval : freqTable) {
-      if(interval.increment(d)) {
-        n++;
+      if(interval.increment(d, count)) {
+        n += count;
         return;
       }
     }
@@ -238,15 +248,16 @@ public class IntervalFrequency implements Serializable {
     }
 
     /**
-     * increments the frequency and returns true if {@code d} is within {@code [lower, upper[}. Otherwise returns false
-     * and frequency remains unchanged.
+     * increments the frequency by {@code count} and returns true if {@code d} is within {@code [lower, upper[}.
+     * Otherwise returns false and frequency remains unchanged.
      *
      * @param d
+     * @param count
      * @return
      */
-    boolean increment(double d) {
+    boolean increment(double d, long count) {
       boolean contains = contains(d);
-      if(contains) freq++;
+      if(contains) freq += count;
       return contains;
     }
 
@@ -18,11 +18,13 @@ import java.util.Map;
 
 import javax.validation.constraints.NotNull;
 
+import org.obiba.magma.AggregatingVectorSource;
 import org.obiba.magma.Category;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSource;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
+import org.obiba.magma.VectorSource;
 import org.obiba.magma.type.BooleanType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -185,31 +187,47 @@ public class CategoricalVariableSummary extends AbstractVariableSummary implemen
       //noinspection ConstantConditions
       Preconditions.checkArgument(variableValueSource != null, "variableValueSource cannot be null");
       if(!variableValueSource.supportVectorSource()) return;
-      for(Value value : variableValueSource.asVectorSource().getValues(summary.getFilteredVariableEntities(table))) {
+      VectorSource vectorSource = variableValueSource.asVectorSource();
+      if(!summary.isFiltered() && vectorSource instanceof AggregatingVectorSource) {
+        Map<Value, Long> frequencies = ((AggregatingVectorSource) vectorSource).getValueFrequencies(table);
+        if(frequencies != null) {
+          List<String> categoryNames = categoryNames();
+          for(Map.Entry<Value, Long> entry : frequencies.entrySet()) {
+            Value value = entry.getKey() == null ? variable.getValueType().nullValue() : entry.getKey();
+            add(value, entry.getValue(), categoryNames);
+          }
+          return;
+        }
+      }
+      for(Value value : vectorSource.getValues(summary.getFilteredVariableEntities(table))) {
         add(value, categoryNames());
       }
     }
 
     private void add(@NotNull Value value, List<String> categoryNames) {
+      add(value, 1, categoryNames);
+    }
+
+    private void add(@NotNull Value value, long count, List<String> categoryNames) {
       //noinspection ConstantConditions
       Preconditions.checkArgument(value != null, "value cannot be null");
 
       if(summary.empty) summary.empty = false;
       if(value.isSequence()) {
         if(value.isNull()) {
-          summary.frequencyDist.addValue(NULL_NAME);
+          summary.frequencyDist.incrementValue(NULL_NAME, count);
         } else {
           for(Value v : value.asSequence().getValue()) {
-            add(v, categoryNames);
+            add(v, count, categoryNames);
           }
         }
       } else {
         if(value.isNull()) {
-          summary.frequencyDist.addValue(NULL_NAME);
+          summary.frequencyDist.incrementValue(NULL_NAME, count);
         } else if(summary.distinct || categoryNames.contains(value.toString())) {
-          summary.frequencyDist.addValue(value.toString());
+          summary.frequencyDist.incrementValue(value.toString(), count);
         } else {
-          summary.frequencyDist.addValue(OTHER_NAME);
+          summary.frequencyDist.incrementValue(OTHER_NAME, count);
         }
 
       }
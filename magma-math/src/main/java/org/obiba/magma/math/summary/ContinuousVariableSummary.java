@@ -11,10 +11,13 @@ package org.obiba.magma.math.summary;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
@@ -23,12 +26,14 @@ import org.apache.commons.math3.distribution.ExponentialDistribution;
 import org.apache.commons.math3.distribution.NormalDistribution;
 import org.apache.commons.math3.distribution.RealDistribution;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.obiba.magma.AggregatingVectorSource;
 import org.obiba.magma.Category;
 import org.obiba.magma.MagmaRuntimeException;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSource;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
+import org.obiba.magma.VectorSource;
 import org.obiba.magma.math.stat.IntervalFrequency;
 import org.obiba.magma.type.IntegerType;
 import org.slf4j.Logger;
@@ -39,6 +44,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -78,7 +84,7 @@ public class ContinuousVariableSummary extends AbstractVariableSummary implement
   private final Set<Value> missing = Sets.newHashSet();
 
   @NotNull
-  private final DescriptiveStatistics descriptiveStats = new DescriptiveStatistics();
+  private DescriptiveStatistics descriptiveStats = new DescriptiveStatistics();
 
   @NotNull
   private final List<Double> percentiles = Lists.newArrayList();
@@ -226,6 +232,11 @@ public class ContinuousVariableSummary extends AbstractVariableSummary implement
 
     private boolean addedValue;
 
+    /**
+     * Non missing values added with their count, which are put in the descriptive statistics all at once.
+     */
+    private final SortedMap<Double, Long> countedValues = Maps.newTreeMap();
+
     public Builder(@NotNull Variable variable, @NotNull Distribution distribution) {
       this.variable = variable;
       summary = new ContinuousVariableSummary(variable, distribution);
@@ -279,38 +290,82 @@ public class ContinuousVariableSummary extends AbstractVariableSummary implement
       Preconditions.checkArgument(variableValueSource != null, "variableValueSource cannot be null");
 
       if(!variableValueSource.supportVectorSource()) return;
-      for(Value value : variableValueSource.asVectorSource().getValues(summary.getFilteredVariableEntities(table))) {
+      VectorSource vectorSource = variableValueSource.asVectorSource();
+      if(!summary.isFiltered() && vectorSource instanceof AggregatingVectorSource) {
+        Map<Value, Long> frequencies = ((AggregatingVectorSource) vectorSource).getValueFrequencies(table);
+        if(frequencies != null) {
+          for(Map.Entry<Value, Long> entry : frequencies.entrySet()) {
+            add(entry.getKey() == null ? variable.getValueType().nullValue() : entry.getKey(), entry.getValue());
+          }
+          return;
+        }
+      }
+      for(Value value : vectorSource.getValues(summary.getFilteredVariableEntities(table))) {
         add(value);
       }
     }
 
     private void add(@NotNull Value value) {
+      add(value, 1);
+    }
+
+    private void add(@NotNull Value value, long count) {
       //noinspection ConstantConditions
       Preconditions.checkArgument(value != null, "value cannot be null");
       if(value.isNull()) {
-        summary.frequencyDist.addValue(NULL_NAME);
+        summary.frequencyDist.incrementValue(NULL_NAME, count);
       } else {
         if(value.isSequence()) {
           for(Value v : value.asSequence().getValue()) {
-            add(v);
+            add(v, count);
           }
         } else {
           if(!summary.missing.contains(value)) {
-            summary.descriptiveStats.addValue(((Number) value.getValue()).doubleValue());
+            addStatistic(((Number) value.getValue()).doubleValue(), count);
           }
 
           // A continuous variable can have missing categories
           if(value.isNull()) {
-            summary.frequencyDist.addValue(NULL_NAME);
+            summary.frequencyDist.incrementValue(NULL_NAME, count);
           } else if(summary.missing.contains(value)) {
-            summary.frequencyDist.addValue(value.toString());
+            summary.frequencyDist.incrementValue(value.toString(), count);
           } else {
-            summary.frequencyDist.addValue(NOT_NULL_NAME);
+            summary.frequencyDist.incrementValue(NOT_NULL_NAME, count);
           }
         }
       }
     }
 
+    private void addStatistic(double d, long count) {
+      if(count == 1) {
+        summary.descriptiveStats.addValue(d);
+      } else {
+        Long previous = countedValues.get(d);
+        countedValues.put(d, (previous == null ? 0 : previous) + count);
+      }
+    }
+
+    /**
+     * Puts the counted values in the descriptive statistics with one array fill per distinct value.
+     */
+    private void addCountedValues() {
+      if(countedValues.isEmpty()) return;
+      long n = summary.descriptiveStats.getN();
+      for(long count : countedValues.values()) {
+        n += count;
+      }
+      if(n > Integer.MAX_VALUE) throw new MagmaRuntimeException("Too many values to compute statistics: " + n);
+      double[] values = Arrays.copyOf(summary.descriptiveStats.getValues(), (int) n);
+      int from = (int) summary.descriptiveStats.getN();
+      for(Map.Entry<Double, Long> entry : countedValues.entrySet()) {
+        int to = from + entry.getValue().intValue();
+        Arrays.fill(values, from, to, entry.getKey());
+        from = to;
+      }
+      summary.descriptiveStats = new DescriptiveStatistics(values);
+      countedValues.clear();
+    }
+
     /**
      * Returns an iterator of frequencyDist names
      */
@@ -327,6 +382,7 @@ public class ContinuousVariableSummary extends AbstractVariableSummary implement
     @SuppressWarnings("MagicNumber")
     private void compute() {
       log.trace("Start compute continuous {}", summary.variable.getName());
+      addCountedValues();
       double variance = summary.descriptiveStats.getVariance();
       computeFrequencies();
       if(Double.isNaN(variance) || Double.isInfinite(variance) || variance <= 0) return;
@@ -340,8 +396,14 @@ public class ContinuousVariableSummary extends AbstractVariableSummary implement
       IntervalFrequency intervalFrequency = new IntervalFrequency(summary.descriptiveStats.getMin(),
           summary.descriptiveStats.getMax(), summary.intervals,
           summary.getVariable().getValueType() == IntegerType.get());
-      for(double d : summary.descriptiveStats.getSortedValues()) {
-        intervalFrequency.add(d);
+      // equal values are added at once
+      double[] sortedValues = summary.descriptiveStats.getSortedValues();
+      int from = 0;
+      for(int i = 1; i <= sortedValues.length; i++) {
+        if(i == sortedValues.length || sortedValues[i] != sortedValues[from]) {
+          intervalFrequency.add(sortedValues[from], i - from);
+          from = i;
+        }
       }
 
       for(IntervalFrequency.Interval interval : intervalFrequency.intervals()) {
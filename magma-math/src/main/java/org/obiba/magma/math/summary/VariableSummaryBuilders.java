@@ -0,0 +1,63 @@
+package org.obiba.magma.math.summary;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.validation.constraints.NotNull;
+
+import org.obiba.magma.MultiVectorSource;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.math.summary.AbstractVariableSummary.VariableSummaryBuilder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Adds the values of a table to the summary builders of several of its variables. When the table is a
+ * {@link MultiVectorSource}, the values of all the variables are read together by pages of entities, with one pass
+ * over the table per page instead of one pass per variable.
+ */
+public final class VariableSummaryBuilders {
+
+  private static final int ENTITIES_PAGE_SIZE = 1000;
+
+  private VariableSummaryBuilders() {}
+
+  /**
+   * Adds the values of all the entities of the table to the builders, as {@link VariableSummaryBuilder#addTable}
+   * would do for each of them. The builders must not be filtered.
+   *
+   * @param table
+   * @param builders builders of variables of the table
+   */
+  public static void addTable(@NotNull ValueTable table,
+      @NotNull Iterable<? extends VariableSummaryBuilder<?, ?>> builders) {
+    if(!(table instanceof MultiVectorSource)) {
+      for(VariableSummaryBuilder<?, ?> builder : builders) {
+        builder.addTable(table, table.getVariableValueSource(builder.getVariable().getName()));
+      }
+      return;
+    }
+
+    List<VariableSummaryBuilder<?, ?>> builderList = ImmutableList.<VariableSummaryBuilder<?, ?>>copyOf(builders);
+    List<Variable> variables = Lists.newArrayListWithCapacity(builderList.size());
+    for(VariableSummaryBuilder<?, ?> builder : builderList) {
+      variables.add(builder.getVariable());
+    }
+    for(List<VariableEntity> page : Iterables
+        .partition(Sets.newTreeSet(table.getVariableEntities()), ENTITIES_PAGE_SIZE)) {
+      Map<String, List<Value>> values = ((MultiVectorSource) table).getValues(variables, Sets.newTreeSet(page));
+      for(VariableSummaryBuilder<?, ?> builder : builderList) {
+        for(Value value : values.get(builder.getVariable().getName())) {
+          builder.addValue(value);
+        }
+      }
+    }
+  }
+
+}
@@ -9,11 +9,15 @@
  */
 package org.obiba.magma.math.summary;
 
+import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.obiba.magma.AggregatingVectorSource;
+import org.obiba.magma.MultiVectorSource;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
@@ -22,14 +26,19 @@ import org.obiba.magma.VariableValueSource;
 import org.obiba.magma.VectorSource;
 import org.obiba.magma.support.NullTimestamps;
 import org.obiba.magma.support.Values;
+import org.obiba.magma.support.VariableEntityBean;
 import org.obiba.magma.test.AbstractMagmaTest;
 import org.obiba.magma.type.TextType;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 /**
  *
@@ -81,6 +90,57 @@ public class CategoricalVariableSummaryTest extends AbstractMagmaTest {
     assertThat(summary.getMode()).isEqualTo("CAT1");
   }
 
+  @Test
+  public void test_withAggregatedFrequencies() {
+    Variable variable = Variable.Builder.newVariable("mock", TextType.get(), "mock").addCategories("YES", "NO")
+        .build();
+    Map<Value, Long> frequencies = Maps.newHashMap();
+    frequencies.put(TextType.get().valueOf("YES"), 3L);
+    frequencies.put(TextType.get().valueOf("NO"), 5L);
+    frequencies.put(TextType.get().valueOf("MAYBE"), 1L);
+    frequencies.put(null, 2L);
+
+    AggregatingVectorSource vectorSource = mock(AggregatingVectorSource.class);
+    VariableValueSource valueSource = mock(VariableValueSource.class);
+    when(valueSource.supportVectorSource()).thenReturn(true);
+    when(valueSource.asVectorSource()).thenReturn(vectorSource);
+    ValueTable table = mock(ValueTable.class);
+    when(vectorSource.getValueFrequencies(table)).thenReturn(frequencies);
+
+    CategoricalVariableSummary summary = new CategoricalVariableSummary.Builder(variable).addTable(table, valueSource)
+        .build();
+    assertThat(summary.getMode()).isEqualTo("NO");
+    assertThat(summary.getN()).isEqualTo(11);
+    assertThat(summary.getOtherFrequency()).isEqualTo(1);
+    // values are not read one by one
+    verify(vectorSource, never()).getValues(Mockito.<SortedSet<VariableEntity>>any());
+  }
+
+  @Test
+  public void test_withMultiVectorSource() {
+    Variable variable = Variable.Builder.newVariable("mock", TextType.get(), "mock").addCategories("YES", "NO")
+        .build();
+    Variable other = Variable.Builder.newVariable("other", TextType.get(), "mock").addCategories("YES", "NO")
+        .build();
+    SortedSet<VariableEntity> entities = new TreeSet<VariableEntity>(
+        ImmutableList.of(new VariableEntityBean("mock", "1"), new VariableEntityBean("mock", "2")));
+    Map<String, List<Value>> values = Maps.newHashMap();
+    values.put("mock", ImmutableList.copyOf(Values.asValues(TextType.get(), "YES", "NO")));
+    values.put("other", ImmutableList.copyOf(Values.asValues(TextType.get(), "NO", "NO")));
+
+    ValueTable table = mock(ValueTable.class, withSettings().extraInterfaces(MultiVectorSource.class));
+    when(table.getVariableEntities()).thenReturn(entities);
+    when(((MultiVectorSource) table).getValues(ImmutableList.of(variable, other), entities)).thenReturn(values);
+
+    CategoricalVariableSummary.Builder builder = new CategoricalVariableSummary.Builder(variable);
+    CategoricalVariableSummary.Builder otherBuilder = new CategoricalVariableSummary.Builder(other);
+    VariableSummaryBuilders.addTable(table, ImmutableList.of(builder, otherBuilder));
+    assertThat(builder.build().getN()).isEqualTo(2);
+    assertThat(otherBuilder.build().getMode()).isEqualTo("NO");
+    // values are not read variable by variable
+    verify(table, never()).getVariableValueSource(Mockito.anyString());
+  }
+
   private CategoricalVariableSummary computeFromTable(Variable variable, Iterable<Value> values) {
 
     VectorSource vectorSource = mock(VectorSource.class);
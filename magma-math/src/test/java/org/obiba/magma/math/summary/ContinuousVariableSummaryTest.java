@@ -9,24 +9,31 @@
  */
 package org.obiba.magma.math.summary;
 
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.obiba.magma.AggregatingVectorSource;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
 import org.obiba.magma.VectorSource;
+import org.obiba.magma.math.stat.IntervalFrequency;
 import org.obiba.magma.support.Values;
 import org.obiba.magma.test.AbstractMagmaTest;
 import org.obiba.magma.type.IntegerType;
 
+import com.google.common.collect.Maps;
+
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -70,6 +77,40 @@ public class ContinuousVariableSummaryTest extends AbstractMagmaTest {
     assertThat(descriptiveStats.getN()).isEqualTo(3l);
   }
 
+  @Test
+  public void test_compute_fromValueFrequencies() {
+    Variable mockVariable = Variable.Builder.newVariable("mock", IntegerType.get(), "mock").build();
+    ValueTable table = mock(ValueTable.class);
+    AggregatingVectorSource vectorSource = mock(AggregatingVectorSource.class);
+    VariableValueSource valueSource = mock(VariableValueSource.class);
+    Map<Value, Long> frequencies = Maps.newHashMap();
+    frequencies.put(IntegerType.get().valueOf(1), 2l);
+    frequencies.put(IntegerType.get().valueOf(2), 3l);
+    frequencies.put(IntegerType.get().valueOf(3), 1l);
+    frequencies.put(null, 4l);
+    when(vectorSource.getValueFrequencies(table)).thenReturn(frequencies);
+    when(valueSource.supportVectorSource()).thenReturn(true);
+    when(valueSource.asVectorSource()).thenReturn(vectorSource);
+
+    ContinuousVariableSummary summary = new ContinuousVariableSummary.Builder(mockVariable,
+        ContinuousVariableSummary.Distribution.normal).intervals(2).addTable(table, valueSource).build();
+    DescriptiveStatistics descriptiveStats = summary.getDescriptiveStats();
+    assertThat(descriptiveStats.getN()).isEqualTo(6l);
+    assertThat(descriptiveStats.getSum()).isEqualTo(11.0);
+    assertThat(descriptiveStats.getMin()).isEqualTo(1.0);
+    assertThat(descriptiveStats.getMax()).isEqualTo(3.0);
+    long intervalsN = 0;
+    for(IntervalFrequency.Interval interval : summary.getIntervalFrequencies()) {
+      intervalsN += interval.getFreq();
+    }
+    assertThat(intervalsN).isEqualTo(6l);
+    for(ContinuousVariableSummary.Frequency frequency : summary.getFrequencies()) {
+      boolean nullFrequency = ContinuousVariableSummary.NULL_NAME.equals(frequency.getValue());
+      assertThat(frequency.getFreq()).isEqualTo(nullFrequency ? 4l : 6l);
+    }
+    verify(vectorSource, never()).getValues(Mockito.<SortedSet<VariableEntity>>any());
+  }
+
   /*
     @Test
     public void test_compute_withNullValue() {
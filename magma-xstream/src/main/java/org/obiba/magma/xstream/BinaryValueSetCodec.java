@@ -0,0 +1,242 @@
+package org.obiba.magma.xstream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueType;
+import org.obiba.magma.type.BinaryType;
+import org.obiba.magma.type.BooleanType;
+import org.obiba.magma.type.DecimalType;
+import org.obiba.magma.type.IntegerType;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Compact binary encoding of value sets. The value types used in a value set are written once and referred to by
+ * their position, variable names are front coded against the name of the previous value, lengths and integers are
+ * written as variable length integers, and the values of the integer, decimal, boolean and binary types are written in
+ * their binary form instead of their string representation.
+ */
+public class BinaryValueSetCodec implements XStreamValueSetCodec {
+
+  public static final String NAME = "bin";
+
+  private static final int MAGIC = 0x4d565301; // MVS, version 1
+
+  private static final int NULL_VALUE = 0;
+
+  private static final int VALUE = 1;
+
+  private static final int SEQUENCE = 2;
+
+  private static final int NULL_SEQUENCE = 3;
+
+  private static final int KIND_BITS = 2;
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public void write(XStreamValueSet valueSet, OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    writeString(data, valueSet.getValueTable());
+    writeString(data, valueSet.getEntityType());
+    writeString(data, valueSet.getEntityIdentifier());
+
+    Map<ValueType, Integer> types = new LinkedHashMap<>();
+    int nbValues = 0;
+    for(XStreamValueSetValue xvalue : valueSet.getValues()) {
+      ValueType type = xvalue.getValue().getValueType();
+      if(!types.containsKey(type)) types.put(type, types.size());
+      nbValues++;
+    }
+    writeVarInt(data, types.size());
+    for(ValueType type : types.keySet()) {
+      writeString(data, type.getName());
+    }
+
+    writeVarInt(data, nbValues);
+    String previous = "";
+    for(XStreamValueSetValue xvalue : valueSet.getValues()) {
+      String variable = xvalue.getVariable();
+      int prefix = commonPrefixLength(previous, variable);
+      writeVarInt(data, prefix);
+      writeString(data, variable.substring(prefix));
+      previous = variable;
+
+      Value value = xvalue.getValue();
+      int typeIndex = types.get(value.getValueType());
+      if(value.isSequence()) {
+        if(value.isNull()) {
+          writeVarInt(data, typeIndex << KIND_BITS | NULL_SEQUENCE);
+        } else {
+          writeVarInt(data, typeIndex << KIND_BITS | SEQUENCE);
+          List<Value> values = value.asSequence().getValues();
+          writeVarInt(data, values.size());
+          for(Value v : values) {
+            data.writeBoolean(!v.isNull());
+            if(!v.isNull()) writeScalar(data, v);
+          }
+        }
+      } else if(value.isNull()) {
+        writeVarInt(data, typeIndex << KIND_BITS | NULL_VALUE);
+      } else {
+        writeVarInt(data, typeIndex << KIND_BITS | VALUE);
+        writeScalar(data, value);
+      }
+    }
+    data.flush();
+  }
+
+  @Override
+  public XStreamValueSet read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    if(data.readInt() != MAGIC) throw new IOException("Not a binary value set");
+    XStreamValueSet valueSet = new XStreamValueSet(readString(data), readString(data), readString(data));
+
+    int nbTypes = readVarInt(data);
+    List<ValueType> types = new ArrayList<>(nbTypes);
+    for(int i = 0; i < nbTypes; i++) {
+      types.add(ValueType.Factory.forName(readString(data)));
+    }
+
+    int nbValues = readVarInt(data);
+    String previous = "";
+    for(int i = 0; i < nbValues; i++) {
+      int prefix = readVarInt(data);
+      String variable = previous.substring(0, prefix) + readString(data);
+      previous = variable;
+
+      int tag = readVarInt(data);
+      ValueType type = types.get(tag >>> KIND_BITS);
+      switch(tag & (1 << KIND_BITS) - 1) {
+        case NULL_VALUE:
+          valueSet.setValue(variable, type.nullValue());
+          break;
+        case VALUE:
+          valueSet.setValue(variable, readScalar(data, type));
+          break;
+        case SEQUENCE:
+          int size = readVarInt(data);
+          List<Value> values = new ArrayList<>(size);
+          for(int j = 0; j < size; j++) {
+            values.add(data.readBoolean() ? readScalar(data, type) : type.nullValue());
+          }
+          valueSet.setValue(variable, type.sequenceOf(values));
+          break;
+        default:
+          valueSet.setValue(variable, type.nullSequence());
+      }
+    }
+    return valueSet;
+  }
+
+  private static void writeScalar(DataOutputStream data, Value value) throws IOException {
+    ValueType type = value.getValueType();
+    if(type == IntegerType.get()) {
+      writeVarLong(data, encodeZigZag(((Number) value.getValue()).longValue()));
+    } else if(type == DecimalType.get()) {
+      data.writeDouble(((Number) value.getValue()).doubleValue());
+    } else if(type == BooleanType.get()) {
+      data.writeBoolean((Boolean) value.getValue());
+    } else if(type == BinaryType.get()) {
+      byte[] bytes = (byte[]) value.getValue();
+      writeVarInt(data, bytes.length);
+      data.write(bytes);
+    } else {
+      writeString(data, value.toString());
+    }
+  }
+
+  private static Value readScalar(DataInputStream data, ValueType type) throws IOException {
+    if(type == IntegerType.get()) {
+      return type.valueOf(decodeZigZag(readVarLong(data)));
+    }
+    if(type == DecimalType.get()) {
+      return type.valueOf(data.readDouble());
+    }
+    if(type == BooleanType.get()) {
+      return type.valueOf(data.readBoolean());
+    }
+    if(type == BinaryType.get()) {
+      byte[] bytes = new byte[readVarInt(data)];
+      data.readFully(bytes);
+      return type.valueOf(bytes);
+    }
+    return type.valueOf(readString(data));
+  }
+
+  private static int commonPrefixLength(String a, String b) {
+    int max = Math.min(a.length(), b.length());
+    int i = 0;
+    while(i < max && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    // do not split a surrogate pair
+    if(i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) i--;
+    return i;
+  }
+
+  private static void writeString(DataOutputStream data, String str) throws IOException {
+    byte[] bytes = str.getBytes(Charsets.UTF_8);
+    writeVarInt(data, bytes.length);
+    data.write(bytes);
+  }
+
+  private static String readString(DataInputStream data) throws IOException {
+    byte[] bytes = new byte[readVarInt(data)];
+    data.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  private static long encodeZigZag(long n) {
+    return n << 1 ^ n >> 63;
+  }
+
+  private static long decodeZigZag(long n) {
+    return n >>> 1 ^ -(n & 1);
+  }
+
+  private static void writeVarInt(DataOutputStream data, int n) throws IOException {
+    writeVarLong(data, n & 0xffffffffL);
+  }
+
+  private static int readVarInt(DataInputStream data) throws IOException {
+    long n = readVarLong(data);
+    if(n > Integer.MAX_VALUE) throw new IOException("Invalid length: " + n);
+    return (int) n;
+  }
+
+  private static void writeVarLong(DataOutputStream data, long n) throws IOException {
+    long v = n;
+    while((v & ~0x7fL) != 0) {
+      data.writeByte((int) (v & 0x7f | 0x80));
+      v >>>= 7;
+    }
+    data.writeByte((int) v);
+  }
+
+  private static long readVarLong(DataInputStream data) throws IOException {
+    long n = 0;
+    for(int shift = 0; shift < 64; shift += 7) {
+      int b = data.readUnsignedByte();
+      n |= (long) (b & 0x7f) << shift;
+      if((b & 0x80) == 0) return n;
+    }
+    throw new IOException("Malformed variable length integer");
+  }
+
+}
@@ -1,6 +1,9 @@
 package org.obiba.magma.xstream;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
 
 import org.obiba.magma.MagmaEngineExtension;
 
@@ -16,6 +19,13 @@ public class MagmaXStreamExtension implements MagmaEngineExtension {
   private final transient Map<String, ? extends XStreamFactory> compatibleFactories = ImmutableMap
       .of("1", currentFactory);
 
+  @edu.umd.cs.findbugs.annotations.SuppressWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
+  private final transient Map<String, XStreamValueSetCodec> valueSetCodecs = new ConcurrentHashMap<>();
+
+  public MagmaXStreamExtension() {
+    registerValueSetCodec(new BinaryValueSetCodec());
+  }
+
   @Override
   public String getName() {
     return "magma-xstream";
@@ -32,4 +42,16 @@ public class MagmaXStreamExtension implements MagmaEngineExtension {
   public XStreamFactory getXStreamFactory(String version) {
     return compatibleFactories.get(version);
   }
+
+  /**
+   * Registers a codec that value sets can be written with instead of XML, replacing any codec of the same name.
+   */
+  public void registerValueSetCodec(XStreamValueSetCodec codec) {
+    valueSetCodecs.put(codec.getName(), codec);
+  }
+
+  @Nullable
+  public XStreamValueSetCodec getValueSetCodec(String name) {
+    return valueSetCodecs.get(name);
+  }
 }
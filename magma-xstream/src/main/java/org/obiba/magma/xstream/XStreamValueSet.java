@@ -1,5 +1,6 @@
 package org.obiba.magma.xstream;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -18,15 +19,12 @@ import com.thoughtworks.xstream.annotations.XStreamOmitField;
 public class XStreamValueSet {
 
   @XStreamAsAttribute
-  @SuppressWarnings("FieldCanBeLocal")
   private final String valueTable;
 
   @XStreamAsAttribute
-  @SuppressWarnings("FieldCanBeLocal")
   private final String entityType;
 
   @XStreamAsAttribute
-  @SuppressWarnings("FieldCanBeLocal")
   private final String entityIdentifier;
 
   @XStreamImplicit
@@ -37,20 +35,44 @@ public class XStreamValueSet {
   private Map<String, XStreamValueSetValue> valueMap = Maps.newHashMap();
 
   public XStreamValueSet(String valueTable, VariableEntity entity) {
+    this(valueTable, entity.getType(), entity.getIdentifier());
+  }
+
+  XStreamValueSet(String valueTable, String entityType, String entityIdentifier) {
     this.valueTable = valueTable;
-    entityType = entity.getType();
-    entityIdentifier = entity.getIdentifier();
+    this.entityType = entityType;
+    this.entityIdentifier = entityIdentifier;
+  }
+
+  public String getValueTable() {
+    return valueTable;
+  }
+
+  public String getEntityType() {
+    return entityType;
+  }
+
+  public String getEntityIdentifier() {
+    return entityIdentifier;
+  }
+
+  public Iterable<XStreamValueSetValue> getValues() {
+    return Collections.unmodifiableList(values);
   }
 
   public void setValue(Variable variable, Value value) {
-    XStreamValueSetValue valueSetValue = valueMap.get(variable.getName());
+    setValue(variable.getName(), value);
+  }
+
+  void setValue(String variable, Value value) {
+    XStreamValueSetValue valueSetValue = valueMap.get(variable);
 
     if(valueSetValue != null) {
       valueSetValue.setValue(value);
     } else {
-      XStreamValueSetValue xvalue = new XStreamValueSetValue(variable.getName(), value);
+      XStreamValueSetValue xvalue = new XStreamValueSetValue(variable, value);
       values.add(xvalue);
-      valueMap.put(variable.getName(), xvalue);
+      valueMap.put(variable, xvalue);
     }
   }
 
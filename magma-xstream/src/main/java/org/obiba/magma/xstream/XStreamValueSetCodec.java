@@ -0,0 +1,19 @@
+package org.obiba.magma.xstream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes {@code XStreamValueSet} instances in a format other than XML. Codecs are registered by name in the
+ * {@link MagmaXStreamExtension}, the name being used to identify the entries that were written with them.
+ */
+public interface XStreamValueSetCodec {
+
+  String getName();
+
+  void write(XStreamValueSet valueSet, OutputStream out) throws IOException;
+
+  XStreamValueSet read(InputStream in) throws IOException;
+
+}
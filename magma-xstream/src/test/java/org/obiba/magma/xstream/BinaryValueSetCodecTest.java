@@ -0,0 +1,65 @@
+package org.obiba.magma.xstream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.obiba.magma.Value;
+import org.obiba.magma.Variable;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.BinaryType;
+import org.obiba.magma.type.BooleanType;
+import org.obiba.magma.type.DateTimeType;
+import org.obiba.magma.type.DecimalType;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.type.TextType;
+
+import com.google.common.collect.ImmutableList;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class BinaryValueSetCodecTest extends AbstractMagmaXStreamTest {
+
+  @Test
+  public void test_write_read() throws IOException {
+    XStreamValueSet valueSet = new XStreamValueSet("testTable", new VariableEntityBean("Participant", "1234"));
+    setValue(valueSet, "VAR_INT", IntegerType.get().valueOf(-42));
+    setValue(valueSet, "VAR_INT_NULL", IntegerType.get().nullValue());
+    setValue(valueSet, "VAR_DECIMAL", DecimalType.get().valueOf(3.14));
+    setValue(valueSet, "VAR_BOOLEAN", BooleanType.get().trueValue());
+    setValue(valueSet, "VAR_TEXT", TextType.get().valueOf("été"));
+    setValue(valueSet, "VAR_BINARY", BinaryType.get().valueOf(new byte[] { 1, 2, 3 }));
+    setValue(valueSet, "VAR_DATE_TIME", DateTimeType.get().now());
+    setValue(valueSet, "VAR_SEQUENCE", IntegerType.get()
+        .sequenceOf(ImmutableList.of(IntegerType.get().valueOf(1), IntegerType.get().nullValue())));
+    setValue(valueSet, "VAR_SEQUENCE_NULL", TextType.get().nullSequence());
+
+    BinaryValueSetCodec codec = new BinaryValueSetCodec();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    codec.write(valueSet, out);
+    XStreamValueSet read = codec.read(new ByteArrayInputStream(out.toByteArray()));
+
+    assertThat(read.getValueTable()).isEqualTo("testTable");
+    assertThat(read.getEntityType()).isEqualTo("Participant");
+    assertThat(read.getEntityIdentifier()).isEqualTo("1234");
+    for(XStreamValueSetValue xvalue : valueSet.getValues()) {
+      Variable variable = Variable.Builder
+          .newVariable(xvalue.getVariable(), xvalue.getValue().getValueType(), "Participant").build();
+      Value value = read.getValue(variable);
+      if(xvalue.getValue().getValueType() == BinaryType.get()) {
+        assertThat(Arrays.equals((byte[]) value.getValue(), (byte[]) xvalue.getValue().getValue())).isTrue();
+      } else {
+        assertThat(value).isEqualTo(xvalue.getValue());
+      }
+      assertThat(value.isSequence()).isEqualTo(xvalue.getValue().isSequence());
+    }
+    assertThat(out.size()).isLessThan(getDefaultXStream().toXML(valueSet).length());
+  }
+
+  private static void setValue(XStreamValueSet valueSet, String name, Value value) {
+    valueSet.setValue(Variable.Builder.newVariable(name, value.getValueType(), "Participant").build(), value);
+  }
+
+}